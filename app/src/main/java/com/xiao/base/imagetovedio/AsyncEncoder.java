@@ -0,0 +1,397 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Video encoder driven by {@link MediaCodec.Callback}, fed through an input Surface or,
+ * for devices whose encoder surfaces are broken, through its input buffers.
+ * <p>
+ * All codec callbacks run on a dedicated {@link HandlerThread}, and every encoded buffer is
+ * written to the muxer as soon as the codec hands it over.  The caller only has to produce
+ * frames; there is no polling of dequeueOutputBuffer(), and drawing the next frame overlaps
+ * with draining the previous ones.
+ * <p>
+ * Typical use: construct, {@link #start()}, render into {@link #getInputSurface()} (or fill
+ * buffers from {@link #dequeueInputBuffer()}), optionally {@link #setEndTimeUs(long)},
+ * {@link #signalEndOfInputStream()}, {@link #awaitEndOfStream()}, {@link #release()}.
+ */
+public class AsyncEncoder {
+    private static final String TAG = "AsyncEncoder";
+    private static final boolean VERBOSE = false;
+    // queued in place of an input buffer once the codec failed or was released
+    private static final int NO_BUFFER = -1;
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final VideoMuxer mMuxer;
+    private MediaCodec mEncoder;
+    private Surface mInputSurface;
+    // buffer input: indices of input buffers the codec has handed over
+    private final LinkedBlockingQueue<Integer> mFreeInputs = new LinkedBlockingQueue<>();
+    private long mLastInputTimeUs;
+
+    // touched only on the callback thread
+    private int mTrackIndex = -1;
+    private long mLastOutputTimeUs = -1;
+    private volatile long mEndTimeUs = -1;
+    private volatile boolean mMuxerStarted;
+
+    private boolean mCodecStarted;
+    private volatile EncodeMetrics mMetrics;
+    private volatile int mEncodedFrames;
+    private volatile Exception mError;
+    private final CountDownLatch mEndOfStream = new CountDownLatch(1);
+
+    /**
+     * Creates and configures the platform's default encoder for the format's MIME type.
+     */
+    public AsyncEncoder(MediaFormat format, VideoMuxer muxer) throws IOException {
+        this(format, muxer, null);
+    }
+
+    /**
+     * Creates and configures an encoder for the given format.  The muxer is started by this
+     * object once the codec reports its output format.
+     *
+     * @param codecName encoder to use, e.g. from {@link EncoderProbe#getCodecName()}; null
+     *                  for the default one
+     */
+    public AsyncEncoder(MediaFormat format, VideoMuxer muxer, String codecName)
+            throws IOException {
+        this(format, muxer, codecName, true);
+    }
+
+    /**
+     * Same as {@link #AsyncEncoder(MediaFormat, VideoMuxer, String)}.  With surfaceInput
+     * false, frames are queued in the codec's input buffers instead, in the color format the
+     * format asks for, see {@link EncoderProbe#getYuvColorFormat()}.
+     */
+    public AsyncEncoder(final MediaFormat format, VideoMuxer muxer, final String codecName,
+                        boolean surfaceInput) throws IOException {
+        mMuxer = muxer;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        // Before API 23 callbacks are delivered on the looper of the thread that created the
+        // codec, so the codec is always created on our own thread.
+        try {
+            mEncoder = runOnEncoderThread(new Callable<MediaCodec>() {
+                @Override
+                public MediaCodec call() throws Exception {
+                    if (codecName != null) {
+                        return MediaCodec.createByCodecName(codecName);
+                    }
+                    return MediaCodec.createEncoderByType(
+                            format.getString(MediaFormat.KEY_MIME));
+                }
+            });
+        } catch (IOException ioe) {
+            mThread.quitSafely();
+            throw ioe;
+        }
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mEncoder.setCallback(mCallback, mHandler);
+            } else {
+                mEncoder.setCallback(mCallback);
+            }
+            try {
+                mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // Some encoders reject a profile, level or bitrate mode they list.  One more
+                // try with none of them before failing the job.
+                Log.w(TAG, "configure failed with " + format + ", retrying without tuning", e);
+                mEncoder.reset();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    mEncoder.setCallback(mCallback, mHandler);
+                } else {
+                    mEncoder.setCallback(mCallback);
+                }
+                mEncoder.configure(EncoderProbe.createFallbackFormat(format), null, null,
+                        MediaCodec.CONFIGURE_FLAG_ENCODE);
+            }
+            if (surfaceInput) {
+                mInputSurface = mEncoder.createInputSurface();
+            }
+        } catch (RuntimeException re) {
+            mEncoder.release();
+            mThread.quitSafely();
+            throw re;
+        }
+    }
+
+    /**
+     * Returns the Surface frames should be rendered into, or null for buffer input.  Owned by
+     * this object.
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * Format of the input buffers, with the stride and slice height the codec chose.
+     */
+    public MediaFormat getInputFormat() {
+        return mEncoder.getInputFormat();
+    }
+
+    /**
+     * Buffer input: waits for the codec to free an input buffer and returns its index.
+     * Blocks while the codec's input is full, which paces the producer.
+     *
+     * @throws RuntimeException wrapping the codec's error, if it failed meanwhile, or an
+     *                          IllegalStateException if the encoder was released
+     */
+    public int dequeueInputBuffer() throws InterruptedException {
+        int index = mFreeInputs.take();
+        if (index == NO_BUFFER) {
+            // for the next caller
+            mFreeInputs.offer(NO_BUFFER);
+            if (mError != null) {
+                throw new RuntimeException("encoder failed", mError);
+            }
+            throw new IllegalStateException("encoder released");
+        }
+        return index;
+    }
+
+    public ByteBuffer getInputBuffer(int index) {
+        return mEncoder.getInputBuffer(index);
+    }
+
+    /**
+     * Buffer input: hands size bytes of a dequeued input buffer to the codec.
+     */
+    public void queueInputBuffer(int index, int size, long presentationTimeUs) {
+        mEncoder.queueInputBuffer(index, 0, size, presentationTimeUs, 0);
+        mLastInputTimeUs = presentationTimeUs;
+    }
+
+    public void start() {
+        mEncoder.start();
+        mCodecStarted = true;
+    }
+
+    /**
+     * Reports every encoded frame, its size and muxer write time, to metrics.  The producer
+     * reports its submissions to the same object.
+     */
+    public void setMetrics(EncodeMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Asks the encoder to make the next frame it receives a sync frame.
+     */
+    public void requestSyncFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mEncoder.setParameters(params);
+    }
+
+    /**
+     * Where the track ends: the muxer is told, see {@link VideoMuxer#endTrack}, after the last
+     * frame, which then lasts until endTimeUs.  Call before {@link #signalEndOfInputStream()}.
+     */
+    public void setEndTimeUs(long endTimeUs) {
+        mEndTimeUs = endTimeUs;
+    }
+
+    /**
+     * Tells the codec no more frames are coming.  With buffer input this waits for a free
+     * input buffer to carry the end-of-stream flag.
+     */
+    public void signalEndOfInputStream() throws InterruptedException {
+        if (VERBOSE) Log.d(TAG, "sending EOS to encoder");
+        if (mInputSurface != null) {
+            mEncoder.signalEndOfInputStream();
+            return;
+        }
+        mEncoder.queueInputBuffer(dequeueInputBuffer(), 0, 0, mLastInputTimeUs,
+                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+    }
+
+    /**
+     * Blocks until the encoder has emitted its end-of-stream buffer.  Rethrows, wrapped in a
+     * RuntimeException, any error the codec or muxer reported on the callback thread.
+     */
+    public void awaitEndOfStream() throws InterruptedException {
+        mEndOfStream.await();
+        if (mError != null) {
+            throw new RuntimeException("encoder failed", mError);
+        }
+    }
+
+    /**
+     * Number of encoded frames written to the muxer so far.
+     */
+    public int getEncodedFrameCount() {
+        return mEncodedFrames;
+    }
+
+    /**
+     * Index of the encoder's track in the muxer; -1 until the codec reported its output format.
+     * Safe to read after {@link #awaitEndOfStream()}.
+     */
+    public int getTrackIndex() {
+        return mTrackIndex;
+    }
+
+    /**
+     * Presentation time, in microseconds, to give the n-th encoded frame.  The default keeps
+     * the timestamp the codec reported; subclasses can substitute their own timeline.
+     */
+    protected long getPresentationTimeUs(int frameIndex, long codecTimeUs) {
+        return codecTimeUs;
+    }
+
+    /**
+     * Releases the codec, its input Surface, the callback thread and the muxer.  May be called
+     * after partial / failed initialization.
+     */
+    public void release() {
+        if (mEncoder != null) {
+            try {
+                if (mCodecStarted) {
+                    mEncoder.stop();
+                }
+            } catch (IllegalStateException ise) {
+                Log.w(TAG, "encoder stop failed", ise);
+            }
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        mThread.quitSafely();
+        // wakes a producer waiting for an input buffer
+        mFreeInputs.offer(NO_BUFFER);
+        if (mMuxer != null) {
+            try {
+                if (mMuxerStarted) {
+                    mMuxer.stop();
+                }
+            } catch (IllegalStateException ise) {
+                Log.w(TAG, "muxer stop failed", ise);
+            }
+            mMuxer.release();
+        }
+    }
+
+    private <T> T runOnEncoderThread(Callable<T> callable) throws IOException {
+        FutureTask<T> task = new FutureTask<>(callable);
+        mHandler.post(task);
+        try {
+            return task.get();
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void fail(Exception e) {
+        Log.e(TAG, "encoder error", e);
+        if (mError == null) {
+            mError = e;
+        }
+        mFreeInputs.offer(NO_BUFFER);
+        mEndOfStream.countDown();
+    }
+
+    private final MediaCodec.Callback mCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // only called for buffer input
+            mFreeInputs.offer(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index,
+                                            MediaCodec.BufferInfo info) {
+            try {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // The codec config data was pulled out and fed to the muxer when we got
+                    // the output format.  Ignore it.
+                    if (VERBOSE) Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
+                    info.size = 0;
+                }
+
+                if (info.size != 0) {
+                    if (!mMuxerStarted) {
+                        throw new RuntimeException("muxer hasn't started");
+                    }
+                    ByteBuffer encodedData = codec.getOutputBuffer(index);
+                    if (encodedData == null) {
+                        throw new RuntimeException("encoderOutputBuffer " + index + " was null");
+                    }
+                    encodedData.position(info.offset);
+                    encodedData.limit(info.offset + info.size);
+
+                    info.presentationTimeUs =
+                            getPresentationTimeUs(mEncodedFrames, info.presentationTimeUs);
+                    long muxStart = System.nanoTime();
+                    mMuxer.writeSampleData(mTrackIndex, encodedData, info);
+                    mLastOutputTimeUs = info.presentationTimeUs;
+                    mEncodedFrames++;
+                    EncodeMetrics metrics = mMetrics;
+                    if (metrics != null) {
+                        metrics.frameEncoded(info.size, muxStart);
+                    }
+                    if (VERBOSE) Log.d(TAG, "sent " + info.size + " bytes to muxer");
+                }
+
+                codec.releaseOutputBuffer(index, false);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    if (VERBOSE) Log.d(TAG, "end of stream reached");
+                    long endTimeUs = mEndTimeUs;
+                    if (mLastOutputTimeUs >= 0 && endTimeUs > mLastOutputTimeUs) {
+                        mMuxer.endTrack(mTrackIndex, endTimeUs);
+                    }
+                    mEndOfStream.countDown();
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            fail(e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            // should happen before receiving buffers, and should only happen once
+            if (mMuxerStarted) {
+                fail(new RuntimeException("format changed twice"));
+                return;
+            }
+            Log.d(TAG, "encoder output format changed: " + format);
+            mTrackIndex = mMuxer.addTrack(format);
+            mMuxer.start();
+            mMuxerStarted = true;
+        }
+    };
+}
@@ -0,0 +1,86 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link AudioStage} for sources that are AAC already: compressed samples are copied from
+ * the extractor to the muxer as they are, with no codec involved, so the soundtrack costs
+ * little more than reading the file.
+ * <p>
+ * Trimming is to the sample: the last sample kept is the one playing at the end time.  When
+ * looping, each pass is restamped to start where the previous one ended; the encoder delay
+ * of the source is copied along, so there may be a few milliseconds of silence at the seam.
+ */
+class AudioPassthrough extends AudioStage {
+    private static final String TAG = "AudioPassthrough";
+    private static final boolean VERBOSE = false;
+    private static final int DEFAULT_MAX_SAMPLE_SIZE = 64 * 1024;
+
+    AudioPassthrough(MediaExtractor extractor, MediaFormat sourceFormat,
+                     InterleavingMuxer muxer, long endTimeUs) {
+        super(extractor, sourceFormat, muxer, endTimeUs);
+    }
+
+    @Override
+    protected void process() throws Exception {
+        int maxSize = mSourceFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? mSourceFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+                : DEFAULT_MAX_SAMPLE_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(maxSize);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        addTrack(mSourceFormat);
+
+        long firstTimeUs = -1;
+        long lastTimeUs = -1;
+        // one AAC frame, until the source shows its own sample spacing
+        long lastDurationUs = 1024 * 1000000L
+                / mSourceFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        // added to source times: where the current pass starts in the output
+        long offsetUs = 0;
+        int samples = 0;
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int size = mExtractor.readSampleData(buffer, 0);
+            if (size < 0) {
+                if (lastTimeUs < 0) {
+                    throw new IllegalStateException("audio source has no samples");
+                }
+                // go round again, starting right after the last sample of this pass
+                offsetUs += lastTimeUs + lastDurationUs - firstTimeUs;
+                lastTimeUs = -1;
+                mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                if (VERBOSE) Log.d(TAG, "looping at " + offsetUs + " us");
+                continue;
+            }
+
+            long sampleTimeUs = mExtractor.getSampleTime();
+            if (firstTimeUs < 0) {
+                firstTimeUs = sampleTimeUs;
+            }
+            if (lastTimeUs >= 0 && sampleTimeUs > lastTimeUs) {
+                lastDurationUs = sampleTimeUs - lastTimeUs;
+            }
+            lastTimeUs = sampleTimeUs;
+
+            long timeUs = sampleTimeUs - firstTimeUs + offsetUs;
+            if (timeUs >= getEndTimeUs()) {
+                break;
+            }
+            int flags = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                    ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            info.set(0, size, timeUs, flags);
+            buffer.position(0).limit(size);
+            mMuxer.writeSampleData(getTrackIndex(), buffer, info);
+            samples++;
+            mExtractor.advance();
+        }
+        Log.d(TAG, "copied " + samples + " samples");
+    }
+}
@@ -0,0 +1,177 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Produces the audio track of an encode on its own thread, alongside the video encoder, and
+ * writes it to an {@link InterleavingMuxer}.  The source is looped or trimmed to end at the
+ * end time, which need not be known when the stage starts (see {@link #finish(long)}).
+ * <p>
+ * AAC sources are copied as they are ({@link AudioPassthrough}); anything else is decoded
+ * and re-encoded ({@link AudioTranscoder}).
+ * <p>
+ * Use: {@link #create}, {@link #start()}, encode the video, {@link #finish(long)} with the
+ * video's end, then {@link #await()}; {@link #release()} in any case.  A failing stage aborts
+ * the muxer, so the video side fails with it instead of waiting for audio that never comes.
+ */
+public abstract class AudioStage {
+    private static final String TAG = "AudioStage";
+
+    protected final MediaExtractor mExtractor;
+    protected final MediaFormat mSourceFormat;
+    protected final InterleavingMuxer mMuxer;
+    // Long.MAX_VALUE until known
+    private volatile long mEndTimeUs;
+    private int mTrackIndex = -1;
+    private Thread mThread;
+    private volatile Exception mError;
+
+    /**
+     * Opens the audio track of the file at path, to be muxed into muxer.
+     *
+     * @param endTimeUs where the audio should end, or -1 if not known yet
+     * @throws IOException if the file can't be read or has no audio track
+     */
+    public static AudioStage create(String path, InterleavingMuxer muxer, long endTimeUs)
+            throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(path);
+            int track = -1;
+            for (int i = 0; i < extractor.getTrackCount() && track < 0; i++) {
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    track = i;
+                }
+            }
+            if (track < 0) {
+                throw new IOException("no audio track in " + path);
+            }
+            extractor.selectTrack(track);
+            MediaFormat format = extractor.getTrackFormat(track);
+            if (MediaFormat.MIMETYPE_AUDIO_AAC.equals(format.getString(MediaFormat.KEY_MIME))
+                    && format.containsKey("csd-0")) {
+                return new AudioPassthrough(extractor, format, muxer, endTimeUs);
+            }
+            return new AudioTranscoder(extractor, format, muxer, endTimeUs);
+        } catch (IOException | RuntimeException e) {
+            extractor.release();
+            throw e;
+        }
+    }
+
+    protected AudioStage(MediaExtractor extractor, MediaFormat sourceFormat,
+                         InterleavingMuxer muxer, long endTimeUs) {
+        mExtractor = extractor;
+        mSourceFormat = sourceFormat;
+        mMuxer = muxer;
+        mEndTimeUs = endTimeUs >= 0 ? endTimeUs : Long.MAX_VALUE;
+    }
+
+    public synchronized void start() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runStage();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Sets where the audio ends, now that the video's end is known.  Audio already produced
+     * past it is dropped.
+     */
+    public void finish(long endTimeUs) {
+        mEndTimeUs = endTimeUs;
+        mMuxer.setEndTimeUs(endTimeUs);
+    }
+
+    /**
+     * Waits for the stage to write its last sample.
+     *
+     * @throws RuntimeException wrapping what made the stage fail, if it did
+     */
+    public void await() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+        if (mError != null) {
+            throw new RuntimeException("audio failed", mError);
+        }
+    }
+
+    /**
+     * Stops the stage if it is still running and frees its codecs and extractor.
+     */
+    public void release() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mExtractor.release();
+    }
+
+    protected long getEndTimeUs() {
+        return mEndTimeUs;
+    }
+
+    /**
+     * Adds the audio track to the muxer once its final format is known.
+     */
+    protected void addTrack(MediaFormat format) {
+        mTrackIndex = mMuxer.addTrack(format);
+    }
+
+    protected int getTrackIndex() {
+        return mTrackIndex;
+    }
+
+    /**
+     * Runs the stage to the end time.  Called on the stage's thread; returns early, throwing
+     * InterruptedException, when the thread is interrupted.
+     */
+    protected abstract void process() throws Exception;
+
+    private void runStage() {
+        try {
+            process();
+        } catch (Exception e) {
+            mError = e;
+            // interrupted by release(), possibly while blocked in the muxer
+            if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                Log.i(TAG, "audio cancelled");
+            } else {
+                Log.e(TAG, "audio failed", e);
+                mMuxer.abort(e);
+            }
+        } finally {
+            // the video no longer waits for audio
+            if (mTrackIndex >= 0) {
+                mMuxer.finishTrack(mTrackIndex);
+            }
+        }
+    }
+}
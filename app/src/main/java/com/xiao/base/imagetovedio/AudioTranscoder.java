@@ -0,0 +1,242 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * {@link AudioStage} that decodes the source, whatever its codec, resamples it with
+ * {@link PcmResampler} and encodes it to AAC-LC.
+ * <p>
+ * Decoder, resampler and encoder run as one loop on the stage's thread with synchronous
+ * codecs; the PCM between them is one decoder buffer at a time.  The source is looped by
+ * seeking the extractor back to the start without flushing the decoder, so the PCM runs on
+ * without a gap, and trimmed by counting output frames.
+ */
+class AudioTranscoder extends AudioStage {
+    private static final String TAG = "AudioTranscoder";
+    private static final boolean VERBOSE = false;
+
+    private static final String OUTPUT_MIME = MediaFormat.MIMETYPE_AUDIO_AAC;
+    private static final int OUTPUT_BIT_RATE = 128000;
+    private static final long TIMEOUT_US = 10000;
+
+    private final int mOutRate;
+    private final int mOutChannels;
+
+    private MediaCodec mDecoder;
+    private MediaCodec mEncoder;
+    private PcmResampler mResampler;
+    private int mInChannels;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+    // resampled PCM waiting for the encoder: mPendingFrames frames from mPendingOffset
+    private short[] mInPcm = new short[0];
+    private short[] mPending = new short[0];
+    private int mPendingOffset;
+    private int mPendingFrames;
+
+    private long mFramesQueued;
+    private boolean mEncoderInputDone;
+    private boolean mEncoderDone;
+
+    AudioTranscoder(MediaExtractor extractor, MediaFormat sourceFormat,
+                    InterleavingMuxer muxer, long endTimeUs) {
+        super(extractor, sourceFormat, muxer, endTimeUs);
+        // 44.1 and 48 kHz are kept as they are; anything else goes to 44.1
+        int rate = sourceFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        mOutRate = rate == 48000 ? 48000 : 44100;
+        mOutChannels = sourceFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT) == 1 ? 1 : 2;
+    }
+
+    @Override
+    protected void process() throws Exception {
+        try {
+            mDecoder = MediaCodec.createDecoderByType(
+                    mSourceFormat.getString(MediaFormat.KEY_MIME));
+            mDecoder.configure(mSourceFormat, null, null, 0);
+            mDecoder.start();
+
+            MediaFormat format = MediaFormat.createAudioFormat(OUTPUT_MIME, mOutRate,
+                    mOutChannels);
+            format.setInteger(MediaFormat.KEY_AAC_PROFILE,
+                    MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, OUTPUT_BIT_RATE);
+            mEncoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mEncoder.start();
+
+            while (!mEncoderDone) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!mEncoderInputDone) {
+                    feedDecoder();
+                    if (mPendingFrames == 0) {
+                        drainDecoder();
+                    }
+                }
+                feedEncoder();
+                // once all input is in there's nothing else to do but wait for the encoder
+                drainEncoder(mEncoderInputDone ? TIMEOUT_US : 0);
+            }
+            Log.d(TAG, "encoded " + mFramesQueued + " frames at " + mOutRate + " Hz");
+        } finally {
+            if (mDecoder != null) {
+                releaseCodec(mDecoder);
+            }
+            if (mEncoder != null) {
+                releaseCodec(mEncoder);
+            }
+        }
+    }
+
+    private void feedDecoder() {
+        int index = mDecoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer buffer = mDecoder.getInputBuffer(index);
+        int size = mExtractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            // end of the source: go round again
+            mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            size = mExtractor.readSampleData(buffer, 0);
+            if (size < 0) {
+                throw new IllegalStateException("audio source has no samples");
+            }
+            if (VERBOSE) Log.d(TAG, "looping at frame " + mFramesQueued);
+        }
+        mDecoder.queueInputBuffer(index, 0, size, mExtractor.getSampleTime(), 0);
+        mExtractor.advance();
+    }
+
+    /**
+     * Takes one buffer of PCM from the decoder, if it has one, and resamples it into
+     * mPending.
+     */
+    private void drainDecoder() {
+        int index = mDecoder.dequeueOutputBuffer(mInfo, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            MediaFormat format = mDecoder.getOutputFormat();
+            Log.d(TAG, "decoding " + format);
+            createResampler(format);
+            return;
+        }
+        if (index < 0) {
+            return;
+        }
+        if (mInfo.size > 0) {
+            if (mResampler == null) {
+                createResampler(mSourceFormat);
+            }
+            ByteBuffer buffer = mDecoder.getOutputBuffer(index);
+            buffer.position(mInfo.offset).limit(mInfo.offset + mInfo.size);
+            ShortBuffer pcm = buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+            int samples = pcm.remaining();
+            if (mInPcm.length < samples) {
+                mInPcm = new short[samples];
+            }
+            pcm.get(mInPcm, 0, samples);
+            int inFrames = samples / mInChannels;
+            int maxOut = mResampler.getMaxOutputFrames(inFrames) * mOutChannels;
+            if (mPending.length < maxOut) {
+                mPending = new short[maxOut];
+            }
+            mPendingFrames = mResampler.resample(mInPcm, inFrames, mPending);
+            mPendingOffset = 0;
+        }
+        mDecoder.releaseOutputBuffer(index, false);
+    }
+
+    private void createResampler(MediaFormat pcmFormat) {
+        mInChannels = pcmFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        mResampler = new PcmResampler(pcmFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                mInChannels, mOutRate, mOutChannels);
+    }
+
+    /**
+     * Moves pending PCM into an encoder input buffer, up to the end time, then signals the end
+     * of the stream.
+     */
+    private void feedEncoder() {
+        if (mEncoderInputDone) {
+            return;
+        }
+        long endFrames = framesAt(getEndTimeUs());
+        if (mPendingFrames == 0 && mFramesQueued < endFrames) {
+            return;
+        }
+        int index = mEncoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        long timeUs = mFramesQueued * 1000000L / mOutRate;
+        if (mFramesQueued >= endFrames) {
+            mEncoder.queueInputBuffer(index, 0, 0, timeUs,
+                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            mEncoderInputDone = true;
+            return;
+        }
+        ByteBuffer buffer = mEncoder.getInputBuffer(index);
+        buffer.clear();
+        ShortBuffer pcm = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+        int frames = (int) Math.min(Math.min(mPendingFrames, pcm.remaining() / mOutChannels),
+                endFrames - mFramesQueued);
+        pcm.put(mPending, mPendingOffset * mOutChannels, frames * mOutChannels);
+        mEncoder.queueInputBuffer(index, 0, frames * mOutChannels * 2, timeUs, 0);
+        mPendingOffset += frames;
+        mPendingFrames -= frames;
+        mFramesQueued += frames;
+    }
+
+    private void drainEncoder(long timeoutUs) {
+        while (true) {
+            int index = mEncoder.dequeueOutputBuffer(mInfo, timeoutUs);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                Log.d(TAG, "encoder output format " + mEncoder.getOutputFormat());
+                addTrack(mEncoder.getOutputFormat());
+                continue;
+            }
+            if (index < 0) {
+                return;
+            }
+            if ((mInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                // in the output format's csd-0 already
+                mInfo.size = 0;
+            }
+            if (mInfo.size > 0) {
+                ByteBuffer buffer = mEncoder.getOutputBuffer(index);
+                buffer.position(mInfo.offset).limit(mInfo.offset + mInfo.size);
+                mMuxer.writeSampleData(getTrackIndex(), buffer, mInfo);
+            }
+            mEncoder.releaseOutputBuffer(index, false);
+            if ((mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mEncoderDone = true;
+                return;
+            }
+        }
+    }
+
+    private long framesAt(long timeUs) {
+        if (timeUs == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return timeUs * mOutRate / 1000000L;
+    }
+
+    private static void releaseCodec(MediaCodec codec) {
+        try {
+            codec.stop();
+        } catch (IllegalStateException ise) {
+            Log.w(TAG, "codec stop failed", ise);
+        }
+        codec.release();
+    }
+}
@@ -0,0 +1,339 @@
+package com.xiao.base.imagetovedio;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps that decodes reuse through {@link BitmapFactory.Options#inBitmap}.
+ * <p>
+ * Bitmaps are bucketed by allocation size, so any pooled bitmap at least as large as the
+ * decode needs (and not more than twice as large) can be reconfigured for it.  The pool
+ * holds at most {@code maxBytes}; the least recently returned bitmaps are recycled first when
+ * it grows past that.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    private static final long DEFAULT_MAX_BYTES = 24 * 1024 * 1024;
+
+    private static BitmapPool sShared;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<>();
+    // every pooled bitmap, oldest first, for eviction
+    private final LinkedHashSet<Bitmap> mLru = new LinkedHashSet<>();
+    private long mMaxBytes;
+    private long mBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Process-wide pool shared by the Canvas and GL encoding paths.
+     */
+    public static synchronized BitmapPool getShared() {
+        if (sShared == null) {
+            sShared = new BitmapPool(DEFAULT_MAX_BYTES);
+        }
+        return sShared;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimTo(mMaxBytes);
+    }
+
+    /**
+     * Decodes a file, reusing a pooled bitmap when one fits.  If reqWidth and reqHeight are
+     * positive, inSampleSize is chosen so the result is no smaller than that; otherwise the
+     * one in {@code options} is used.  inPreferredConfig and inDither are honoured too.
+     */
+    public Bitmap decodeFile(String filePath, BitmapFactory.Options options,
+                             int reqWidth, int reqHeight) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        options.inJustDecodeBounds = false;
+        if (reqWidth > 0 && reqHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        }
+
+        Bitmap decoded = null;
+        if (prepareReuse(options)) {
+            try {
+                decoded = BitmapFactory.decodeFile(filePath, options);
+            } catch (IllegalArgumentException iae) {
+                // the codec refused the candidate; fall back to a fresh allocation
+                recordRejected(options);
+            }
+        }
+        if (decoded == null) {
+            releaseUnused(options);
+            decoded = BitmapFactory.decodeFile(filePath, options);
+        }
+        return decoded;
+    }
+
+    /**
+     * Resource counterpart of {@link #decodeFile(String, BitmapFactory.Options, int, int)}.
+     * Also honours inScaled.
+     */
+    public Bitmap decodeResource(Resources res, int resId, BitmapFactory.Options options,
+                                 int reqWidth, int reqHeight) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(res, resId, options);
+        options.inJustDecodeBounds = false;
+        if (reqWidth > 0 && reqHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        }
+
+        Bitmap decoded = null;
+        if (prepareReuse(options)) {
+            try {
+                decoded = BitmapFactory.decodeResource(res, resId, options);
+            } catch (IllegalArgumentException iae) {
+                recordRejected(options);
+            }
+        }
+        if (decoded == null) {
+            releaseUnused(options);
+            decoded = BitmapFactory.decodeResource(res, resId, options);
+        }
+        return decoded;
+    }
+
+    /**
+     * Stream counterpart of {@link #decodeFile(String, BitmapFactory.Options, int, int)}.
+     * The bounds pass reads the stream's header under a mark, so streams that don't support
+     * mark/reset are buffered.  Does not close the stream.
+     */
+    public Bitmap decodeStream(InputStream in, BitmapFactory.Options options,
+                               int reqWidth, int reqHeight) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        in.mark(Integer.MAX_VALUE);
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(in, null, options);
+        options.inJustDecodeBounds = false;
+        in.reset();
+        if (reqWidth > 0 && reqHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        }
+
+        Bitmap decoded = null;
+        if (prepareReuse(options)) {
+            try {
+                decoded = BitmapFactory.decodeStream(in, null, options);
+            } catch (IllegalArgumentException iae) {
+                recordRejected(options);
+            }
+        }
+        if (decoded == null) {
+            releaseUnused(options);
+            in.reset();
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        return decoded;
+    }
+
+    /**
+     * Decodes rect of an image through a region decoder, subsampled by options.inSampleSize,
+     * reusing a pooled bitmap when one fits.
+     */
+    public Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect rect,
+                               BitmapFactory.Options options) {
+        options.inScaled = false;
+        options.outWidth = rect.width();
+        options.outHeight = rect.height();
+
+        Bitmap decoded = null;
+        if (prepareReuse(options)) {
+            try {
+                decoded = decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException iae) {
+                recordRejected(options);
+            }
+        }
+        if (decoded == null) {
+            releaseUnused(options);
+            decoded = decoder.decodeRegion(rect, options);
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns a bitmap to the pool once its pixels are no longer needed.  Immutable or
+     * recycled bitmaps are recycled / ignored instead.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getAllocationByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        if (!mLru.add(bitmap)) {
+            return;     // already pooled
+        }
+        int size = bitmap.getAllocationByteCount();
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.push(bitmap);
+        mBytes += size;
+        trimTo(mMaxBytes);
+    }
+
+    /**
+     * Removes and returns a pooled bitmap of at least {@code bytes} bytes, or null.
+     */
+    public synchronized Bitmap get(int bytes) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(bytes);
+        if (entry == null || entry.getKey() > 2L * bytes) {
+            mMisses++;
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().pop();
+        if (entry.getValue().isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mLru.remove(bitmap);
+        mBytes -= entry.getKey();
+        mHits++;
+        return bitmap;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Recycles every pooled bitmap.
+     */
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{bytes=" + mBytes + "/" + mMaxBytes + ", hits=" + mHits
+                + ", misses=" + mMisses + ", evictions=" + mEvictions + "}";
+    }
+
+    /**
+     * Fills in inBitmap / inMutable for a decode whose bounds are already in {@code options}.
+     * Returns false if nothing in the pool fits.
+     */
+    private boolean prepareReuse(BitmapFactory.Options options) {
+        options.inMutable = true;
+        options.inBitmap = get(decodedByteCount(options));
+        return options.inBitmap != null;
+    }
+
+    private void recordRejected(BitmapFactory.Options options) {
+        Log.w(TAG, "inBitmap rejected for " + options.outWidth + "x" + options.outHeight);
+        options.inBitmap.recycle();
+        options.inBitmap = null;
+    }
+
+    /**
+     * Hands back a candidate the decode did not end up using.
+     */
+    private void releaseUnused(BitmapFactory.Options options) {
+        if (options.inBitmap != null) {
+            put(options.inBitmap);
+            options.inBitmap = null;
+        }
+    }
+
+    private void trimTo(long maxBytes) {
+        Iterator<Bitmap> it = mLru.iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            Bitmap oldest = it.next();
+            it.remove();
+            int size = oldest.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+            bucket.remove(oldest);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(size);
+            }
+            mBytes -= size;
+            mEvictions++;
+            oldest.recycle();
+        }
+    }
+
+    /**
+     * Largest power of two sample size that keeps both decoded dimensions at or above the
+     * requested ones.
+     */
+    static int calculateInSampleSize(
+            BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        // Raw height and width of image
+        final int height = options.outHeight;
+        final int width = options.outWidth;
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            while ((halfHeight / inSampleSize) > reqHeight
+                    && (halfWidth / inSampleSize) > reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * Upper bound of the bytes a decode with these bounds and options will need.
+     */
+    private static int decodedByteCount(BitmapFactory.Options options) {
+        int sample = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sample - 1) / sample;
+        int height = (options.outHeight + sample - 1) / sample;
+        if (options.inScaled && options.inDensity != 0 && options.inTargetDensity != 0) {
+            // resources decoded for another density are scaled after sampling
+            float scale = options.inTargetDensity / (float) options.inDensity;
+            width = (int) (width * scale + 0.5f);
+            height = (int) (height * scale + 0.5f);
+        }
+        int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+        return width * height * bytesPerPixel;
+    }
+}
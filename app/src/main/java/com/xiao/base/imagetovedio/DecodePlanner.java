@@ -0,0 +1,207 @@
+package com.xiao.base.imagetovedio;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a source image at the size it will be shown at in the output, not the size it
+ * happens to be.
+ * <p>
+ * Power-of-two inSampleSize alone leaves a 48 MP photo going into a 1024x760 video at up to
+ * twice the needed size, and with {@link ScaleMode#CROP} decodes pixels that are then cut
+ * off.  So:
+ * <ul>
+ * <li>from API 28, {@link ImageDecoder} decodes straight to the exact displayed size, cropped
+ * to the visible region;</li>
+ * <li>before that, when part of the image is cut off, {@link BitmapRegionDecoder} decodes
+ * only the visible region, at the largest sample size that still covers the output;</li>
+ * <li>otherwise the image is decoded whole through {@link BitmapPool}, subsampled.</li>
+ * </ul>
+ * The result shows what the scale mode would show, so drawing it with the same mode gives
+ * the same picture; its size is within a factor of two of the output (exact with
+ * ImageDecoder), whatever the source size.
+ */
+public class DecodePlanner {
+    private static final String TAG = "DecodePlanner";
+
+    /**
+     * Decodes a file for an outWidth x outHeight output.  options supplies the config
+     * (RGB_565 is honoured on every path) and receives the bounds.
+     */
+    public static Bitmap decodeFile(final String path, int outWidth, int outHeight,
+                                    ScaleMode scaleMode, BitmapFactory.Options options) {
+        if (outWidth <= 0 || outHeight <= 0) {
+            return BitmapPool.getShared().decodeFile(path, options, outWidth, outHeight);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            try {
+                return decodeExact(ImageDecoder.createSource(new File(path)),
+                        outWidth, outHeight, scaleMode, options);
+            } catch (IOException e) {
+                Log.w(TAG, "ImageDecoder failed on " + path + ", falling back", e);
+            }
+        }
+
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inJustDecodeBounds = false;
+        Rect visible = computeVisibleRect(options.outWidth, options.outHeight,
+                outWidth, outHeight, scaleMode);
+        if (visible != null) {
+            try {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+                try {
+                    return decodeRegion(decoder, visible, outWidth, outHeight, options);
+                } finally {
+                    decoder.recycle();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "no region decoder for " + path, e);
+            }
+        }
+        return BitmapPool.getShared().decodeFile(path, options, outWidth, outHeight);
+    }
+
+    /**
+     * Resource counterpart of {@link #decodeFile}.  Resources are decoded at their own
+     * density (inScaled is ignored); the output size is what matters here.
+     */
+    public static Bitmap decodeResource(Resources res, int resId, int outWidth, int outHeight,
+                                        ScaleMode scaleMode, BitmapFactory.Options options) {
+        options.inScaled = false;
+        if (outWidth <= 0 || outHeight <= 0) {
+            return BitmapPool.getShared().decodeResource(res, resId, options,
+                    outWidth, outHeight);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            try {
+                return decodeExact(ImageDecoder.createSource(res, resId),
+                        outWidth, outHeight, scaleMode, options);
+            } catch (IOException e) {
+                Log.w(TAG, "ImageDecoder failed on resource " + resId + ", falling back", e);
+            }
+        }
+
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(res, resId, options);
+        options.inJustDecodeBounds = false;
+        Rect visible = computeVisibleRect(options.outWidth, options.outHeight,
+                outWidth, outHeight, scaleMode);
+        if (visible != null) {
+            InputStream in = null;
+            try {
+                in = res.openRawResource(resId);
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+                try {
+                    return decodeRegion(decoder, visible, outWidth, outHeight, options);
+                } finally {
+                    decoder.recycle();
+                }
+            } catch (IOException | Resources.NotFoundException e) {
+                Log.w(TAG, "no region decoder for resource " + resId, e);
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        return BitmapPool.getShared().decodeResource(res, resId, options, outWidth, outHeight);
+    }
+
+    /**
+     * The region of a srcWidth x srcHeight image that scaleMode shows in the output, or null
+     * if that is the whole image.
+     */
+    static Rect computeVisibleRect(int srcWidth, int srcHeight, int outWidth, int outHeight,
+                                   ScaleMode scaleMode) {
+        int[] region = new int[4];
+        if (!scaleMode.computeVisibleRegion(srcWidth, srcHeight, outWidth, outHeight,
+                new float[4], region)) {
+            return null;
+        }
+        return new Rect(region[0], region[1], region[0] + region[2], region[1] + region[3]);
+    }
+
+    /**
+     * Factor (at most 1) the visible region is scaled by to be shown: to fit inside the output
+     * for FIT, to cover it otherwise.
+     */
+    static float computeDisplayScale(int visibleWidth, int visibleHeight,
+                                     int outWidth, int outHeight, ScaleMode scaleMode) {
+        float sx = outWidth / (float) visibleWidth;
+        float sy = outHeight / (float) visibleHeight;
+        float scale = scaleMode == ScaleMode.FIT ? Math.min(sx, sy) : Math.max(sx, sy);
+        return Math.min(1f, scale);
+    }
+
+    private static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect visible,
+                                       int outWidth, int outHeight,
+                                       BitmapFactory.Options options) {
+        // largest power of two that keeps the region at least as large as the output
+        int sample = 1;
+        while (visible.width() / (sample * 2) >= outWidth
+                && visible.height() / (sample * 2) >= outHeight) {
+            sample *= 2;
+        }
+        options.inSampleSize = sample;
+        return BitmapPool.getShared().decodeRegion(decoder, visible, options);
+    }
+
+    @TargetApi(Build.VERSION_CODES.P)
+    private static Bitmap decodeExact(ImageDecoder.Source source,
+                                      final int outWidth, final int outHeight,
+                                      final ScaleMode scaleMode,
+                                      final BitmapFactory.Options options) throws IOException {
+        return ImageDecoder.decodeBitmap(source, new ImageDecoder.OnHeaderDecodedListener() {
+            @Override
+            public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info,
+                                        ImageDecoder.Source src) {
+                Size size = info.getSize();
+                options.outWidth = size.getWidth();
+                options.outHeight = size.getHeight();
+                Rect visible = computeVisibleRect(size.getWidth(), size.getHeight(),
+                        outWidth, outHeight, scaleMode);
+                if (visible == null) {
+                    visible = new Rect(0, 0, size.getWidth(), size.getHeight());
+                }
+                float scale = computeDisplayScale(visible.width(), visible.height(),
+                        outWidth, outHeight, scaleMode);
+                if (scale < 1f) {
+                    decoder.setTargetSize(Math.max(1, Math.round(size.getWidth() * scale)),
+                            Math.max(1, Math.round(size.getHeight() * scale)));
+                }
+                // the crop is in target-size coordinates
+                decoder.setCrop(new Rect(Math.round(visible.left * scale),
+                        Math.round(visible.top * scale),
+                        Math.round(visible.right * scale),
+                        Math.round(visible.bottom * scale)));
+                // Canvas.drawBitmap on a Surface and GLUtils need software pixels; mutable so
+                // the bitmap can go back to BitmapPool afterwards.
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                decoder.setMutableRequired(true);
+                if (options.inPreferredConfig == Bitmap.Config.RGB_565) {
+                    decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+                }
+            }
+        });
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -22,10 +22,7 @@ package com.xiao.base.imagetovedio;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
@@ -35,11 +32,14 @@ import android.opengl.EGLSurface;
 import android.opengl.GLES20;
 import android.os.Environment;
 import android.util.Log;
+import android.util.Size;
 import android.view.Surface;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 //20131106: removed hard-coded "/sdcard"
 //20131205: added alpha to EGLConfig
@@ -63,9 +63,15 @@ public class EncodeAndMuxTest {
 
     // parameters for the encoder
     private static final String MIME_TYPE = "video/avc";    // H.264 Advanced Video Coding
-    private static final int FRAME_RATE = 4;               // 15fps
+    private static final int FRAME_RATE = 4;               // 4fps inside transitions
     private static final int IFRAME_INTERVAL = 10;          // 10 seconds between I-frames
-    private static final int NUM_FRAMES = 60;               // two seconds of video
+    private static final int NUM_CLIPS = 60;                // images shown, one after another
+    private static final long CLIP_US = 3000000L;           // each on screen for three seconds
+    private static final int PREFETCH_DEPTH = 3;            // frames decoded ahead of the GL thread
+    private static final int DECODE_THREADS = 2;
+    private static final boolean FRAGMENTED_MP4 = false;    // FragmentedMp4Muxer, not MediaMuxer
+    private static final Transition TRANSITION = Transition.CROSSFADE;  // null for hard cuts
+    private static final long TRANSITION_US = 1000000L;     // last second of each blends
 
     // RGB color values for generated frames
     private static final int TEST_R0 = 0;
@@ -78,74 +84,165 @@ public class EncodeAndMuxTest {
     // size of a frame, in pixels
     private int mWidth = -1;
     private int mHeight = -1;
-    // bit rate, in bits per second
+    // bit rate, in bits per second; 0 lets EncoderProbe choose
     private int mBitRate = -1;
+    private EncoderProbe mProbe;
 
     // encoder / muxer state
-    private MediaCodec mEncoder;
+    private AsyncEncoder mEncoder;
     private CodecInputSurface mInputSurface;
-    private MediaMuxer mMuxer;
-    private int mTrackIndex;
-    private boolean mMuxerStarted;
 
-    // allocate one of these up front so we don't need to do it every time
-    private MediaCodec.BufferInfo mBufferInfo;
     private GLHelper drawer;
 
+    // optional on-screen view of the frames, and its EGL surface on our context
+    private EncodePreview mPreview;
+    private EGLSurface mPreviewSurface = EGL14.EGL_NO_SURFACE;
 
+    // frame sources, and the frames whose decode is prefetched (first use of each source)
+    private Context mContext;
+    private int[] mImages;
+    private FramePrefetcher mPrefetcher;
+    private int[] mPrefetchFrames;
+    private int mNextPrefetch;
+    private EncodeMetrics mMetrics;
 
     private Bitmap getBitmap(Context context,int[] images,int frameIndex){
-        int resId = images[frameIndex%10];
+        int resId = images[frameIndex%images.length];
         BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inScaled = false;
-        return BitmapFactory.decodeResource(context.getResources(),resId, options);
+        long t = System.nanoTime();
+        // Once the output size is known, decode no larger than it is shown at (GLHelper
+        // fits images with ScaleMode.FIT); the GPU scales the rest of the way.
+        Bitmap bitmap = DecodePlanner.decodeResource(context.getResources(), resId, mWidth,
+                mHeight, ScaleMode.FIT, options);
+        if (mMetrics != null) {
+            mMetrics.record(EncodeMetrics.Stage.DECODE, t);
+        }
+        return bitmap;
     }
+    /**
+     * Shows the frames on preview as they are encoded, or nothing if it is null.  Set before
+     * {@link #testEncodeVideoToMp4}.
+     */
+    public void setPreview(EncodePreview preview) {
+        mPreview = preview;
+    }
+
     /**
      * Tests encoding of AVC video from a Surface.  The output is saved as an MP4 file.
      */
-    public void testEncodeVideoToMp4(Context context,int[] images) {
+    public void testEncodeVideoToMp4(final Context context, final int[] images) {
+        // the first image is decoded at full size to pick the output size
+        mWidth = mHeight = -1;
         Bitmap img = getBitmap(context, images, 0);
 
-        // QVGA at 2Mbps
-        // multiple of 4.
-        mWidth = ((img.getWidth()+3)/4)*4; //640;
-        mHeight = ((img.getHeight()+3)/4)*4; //480;
-        mBitRate = 2*1024*1024;
-        img.recycle();
-
+        // The image's size, adjusted to what the encoder supports, at a bitrate (or constant
+        // quality) the probe picks for it.
+        mProbe = EncoderProbe.get(MIME_TYPE);
+        if (mProbe == null) {
+            throw new RuntimeException("no encoder for " + MIME_TYPE);
+        }
+        Size size = mProbe.alignSize(img.getWidth(), img.getHeight());
+        mWidth = size.getWidth();
+        mHeight = size.getHeight();
+        mBitRate = 0;
+        BitmapPool.getShared().put(img);
+
+        mContext = context;
+        mImages = images;
+        mMetrics = new EncodeMetrics(null);
+        boolean done = false;
+        // lets the next run, and the next process, skip shader compilation
+        ProgramCache.getShared().setCacheDir(new File(context.getCodeCacheDir(), "gl_programs"));
         try {
             prepareEncoder();
+            mEncoder.setMetrics(mMetrics);
             mInputSurface.makeCurrent();
 
             initializeGL(mWidth, mHeight);
-            for (int i = 0; i < NUM_FRAMES; i++) {
-                // Feed any pending encoder output into the muxer.
-                drainEncoder(false);
-
-
-                Bitmap bitmap = getBitmap(context,images,i);
-                /// TODO: 2018/1/5  得到当前bitmap ,需要补充将bitmap通过opengl渲染出来 
-                // Generate a new frame of input.
-                //generateSurfaceFrame(i);
-                drawBitmap(bitmap, i);
-                mInputSurface.setPresentationTime(computePresentationTimeNsec(i));
+            if (mPreview != null) {
+                mPreview.attach();
+            }
+            // Decoding happens on worker threads, ahead of the GL thread, which only uploads
+            // and swaps.  Only the first use of each image is decoded; repeats are served from
+            // GLHelper's texture cache.
+            mPrefetchFrames = planDecodes(images, NUM_CLIPS);
+            mNextPrefetch = 0;
+            mPrefetcher = new FramePrefetcher(new FramePrefetcher.FrameDecoder() {
+                @Override
+                public Bitmap decode(int n) {
+                    return getBitmap(context, images, mPrefetchFrames[n]);
+                }
+            }, mPrefetchFrames.length, PREFETCH_DEPTH, DECODE_THREADS);
+            // A frame only where the picture changes: one per image, a few per transition,
+            // stamped from the timeline, so each still costs one frame however long it shows.
+            Timeline timeline = new Timeline();
+            for (int i = 0; i < NUM_CLIPS; i++) {
+                timeline.append(CLIP_US, TRANSITION, TRANSITION_US);
+            }
+            FrameScheduler frames = new FrameScheduler(timeline, FRAME_RATE);
+            prepareFrame(0);
+            while (frames.next()) {
+                if (mPreview != null) {
+                    updatePreviewSurface();
+                }
+                long t = System.nanoTime();
+                drawFrame(frames);
+                long drawNanos = System.nanoTime() - t;
+                t += drawNanos;
+                mInputSurface.setPresentationTime(frames.getTimeUs() * 1000L);
 
                 // Submit it to the encoder.  The eglSwapBuffers call will block if the input
-                // is full, which would be bad if it stayed full until we dequeued an output
-                // buffer (which we can't do, since we're stuck here).  So long as we fully drain
-                // the encoder before supplying additional input, the system guarantees that we
-                // can supply another frame without blocking.
-                if (VERBOSE) Log.d(TAG, "sending frame " + i + " to encoder");
+                // is full; output is drained on the encoder's own thread, so it never stays
+                // full for long.
+                if (VERBOSE) Log.d(TAG, "sending frame " + frames.getFrameIndex() + " to encoder");
                 mInputSurface.swapBuffers();
+                t = mMetrics.record(EncodeMetrics.Stage.SUBMIT, t);
+                mMetrics.frameSubmitted();
+
+                if (mPreview != null) {
+                    drawPreview(frames);
+                }
+                // Queue the upload of the next image into the other texture while this one is
+                // encoded (and, first, shown on the preview).
+                if (frames.getKind() == FrameScheduler.Kind.STILL
+                        && frames.getClip() + 1 < NUM_CLIPS) {
+                    prepareFrame(frames.getClip() + 1);
+                }
+                mMetrics.recordNanos(EncodeMetrics.Stage.DRAW,
+                        drawNanos + System.nanoTime() - t);
             }
 
-            // send end-of-stream to encoder, and drain remaining output
-            drainEncoder(true);
+            // send end-of-stream to encoder, and wait for the remaining output; the closing
+            // frame lasts until the end of the timeline
+            mEncoder.setEndTimeUs(timeline.getDurationUs());
+            mEncoder.signalEndOfInputStream();
+            mEncoder.awaitEndOfStream();
+            done = true;
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "interrupted while waiting for the encoder", e);
+            Thread.currentThread().interrupt();
         } finally {
+            if (mPrefetcher != null) {
+                mPrefetcher.release();
+                mPrefetcher = null;
+            }
+            if (mPreview != null) {
+                releasePreview();
+            }
+            if (drawer != null) {
+                Log.d(TAG, "texture cache: " + drawer.getTextureCache()
+                        + ", hit rate " + drawer.getTextureCache().getHitRate());
+                drawer.release();
+                drawer = null;
+            }
+            Log.d(TAG, "bitmap pool: " + BitmapPool.getShared());
+            Log.d(TAG, "programs: " + ProgramCache.getShared());
             // release encoder, muxer, and input Surface
             releaseEncoder();
+            Log.d(TAG, mMetrics.finish(done).toString());
+            mMetrics = null;
         }
 
         // To test the result, open the file with MediaExtractor, and get the format.  Pass
@@ -157,31 +254,12 @@ public class EncodeAndMuxTest {
      * Configures encoder and muxer state, and prepares the input Surface.
      */
     private void prepareEncoder() throws IOException {
-        mBufferInfo = new MediaCodec.BufferInfo();
-
-        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
-
-        // Set some properties.  Failing to specify some of these can cause the MediaCodec
-        // configure() call to throw an unhelpful exception.
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
-                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
+        // Everything the encoder needs, checked against its capabilities, so configure()
+        // doesn't fail on an unsupported profile, size or bitrate mode.
+        MediaFormat format = mProbe.createVideoFormat(mWidth, mHeight, FRAME_RATE,
+                IFRAME_INTERVAL, mBitRate);
         if (VERBOSE) Log.d(TAG, "format: " + format);
 
-        // Create a MediaCodec encoder, and configure it with our format.  Get a Surface
-        // we can use for input and wrap it with a class that handles the EGL work.
-        //
-        // If you want to have two EGL contexts -- one for display, one for recording --
-        // you will likely want to defer instantiation of CodecInputSurface until after the
-        // "display" EGL context is created, then modify the eglCreateContext call to
-        // take eglGetCurrentContext() as the share_context argument.
-        mEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
-        mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        mInputSurface = new CodecInputSurface(mEncoder.createInputSurface());
-        mEncoder.start();
-
         // Output filename.  Ideally this would use Context.getFilesDir() rather than a
         // hard-coded output directory.
         String outputPath = new File(OUTPUT_DIR,
@@ -195,18 +273,33 @@ public class EncodeAndMuxTest {
 
         // Create a MediaMuxer.  We can't add the video track and start() the muxer here,
         // because our MediaFormat doesn't have the Magic Goodies.  These can only be
-        // obtained from the encoder after it has started processing data.
+        // obtained from the encoder after it has started processing data, so the encoder
+        // does it from its callback thread.
         //
         // We're not actually interested in multiplexing audio.  We just want to convert
         // the raw H.264 elementary stream we get from MediaCodec into a .mp4 file.
+        VideoMuxer muxer;
         try {
-            mMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer = FRAGMENTED_MP4 ? new FragmentedMp4Muxer(outputPath)
+                    : new MediaMuxerAdapter(outputPath);
         } catch (IOException ioe) {
-            throw new RuntimeException("MediaMuxer creation failed", ioe);
+            throw new RuntimeException("muxer creation failed", ioe);
         }
 
-        mTrackIndex = -1;
-        mMuxerStarted = false;
+        // Create a MediaCodec encoder, and configure it with our format.  Get a Surface
+        // we can use for input and wrap it with a class that handles the EGL work.
+        //
+        // The preview, if any, gets a second window surface on the same EGL context rather
+        // than a context of its own: the textures are then shared as they are, with no
+        // share_context, no second thread and no fences between the two.
+        try {
+            mEncoder = new AsyncEncoder(format, muxer, mProbe.getCodecName());
+        } catch (IOException | RuntimeException e) {
+            muxer.release();
+            throw e;
+        }
+        mInputSurface = new CodecInputSurface(mEncoder.getInputSurface());
+        mEncoder.start();
     }
 
     /**
@@ -214,120 +307,130 @@ public class EncodeAndMuxTest {
      */
     private void releaseEncoder() {
         if (VERBOSE) Log.d(TAG, "releasing encoder objects");
-        if (mEncoder != null) {
-            mEncoder.stop();
-            mEncoder.release();
-            mEncoder = null;
-        }
         if (mInputSurface != null) {
             mInputSurface.release();
             mInputSurface = null;
         }
-        if (mMuxer != null) {
-            mMuxer.stop();
-            mMuxer.release();
-            mMuxer = null;
+        if (mEncoder != null) {
+            mEncoder.release();
+            mEncoder = null;
         }
     }
 
+    private void initializeGL(int width, int height) {
+        drawer = new GLHelper();
+        drawer.init(width, height);
+    }
+
     /**
-     * Extracts all pending data from the encoder.
-     * <p>
-     * If endOfStream is not set, this returns when there is no more data to drain.  If it
-     * is set, we send EOS to the encoder, and then iterate until we see EOS on the output.
-     * Calling this with endOfStream set should be done once, right before stopping the muxer.
+     * Draws the frame the scheduler is at, from the textures already prepared.
      */
-    private void drainEncoder(boolean endOfStream) {
-        final int TIMEOUT_USEC = 10000;
-        if (VERBOSE) Log.d(TAG, "drainEncoder(" + endOfStream + ")");
-
-        if (endOfStream) {
-            if (VERBOSE) Log.d(TAG, "sending EOS to encoder");
-            mEncoder.signalEndOfInputStream();
+    private void drawFrame(FrameScheduler frames) {
+        if (frames.getKind() == FrameScheduler.Kind.TRANSITION) {
+            // Blend into the image prepared after the still.  Both are already textures, so
+            // these frames cost a draw call each and no decode or upload.
+            drawer.drawTransition(frames.getTransition(), frames.getProgress());
+        } else {
+            drawer.drawUploaded();
         }
+    }
 
-        ByteBuffer[] encoderOutputBuffers = mEncoder.getOutputBuffers();
-        while (true) {
-            int encoderStatus = mEncoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
-            if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                // no output available yet
-                if (!endOfStream) {
-                    break;      // out of while
-                } else {
-                    if (VERBOSE) Log.d(TAG, "no output available, spinning to await EOS");
-                }
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                // not expected for an encoder
-                encoderOutputBuffers = mEncoder.getOutputBuffers();
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                // should happen before receiving buffers, and should only happen once
-                if (mMuxerStarted) {
-                    throw new RuntimeException("format changed twice");
-                }
-                MediaFormat newFormat = mEncoder.getOutputFormat();
-                Log.d(TAG, "encoder output format changed: " + newFormat);
-
-                // now that we have the Magic Goodies, start the muxer
-                mTrackIndex = mMuxer.addTrack(newFormat);
-                mMuxer.start();
-                mMuxerStarted = true;
-            } else if (encoderStatus < 0) {
-                Log.w(TAG, "unexpected result from encoder.dequeueOutputBuffer: " +
-                        encoderStatus);
-                // let's ignore it
-            } else {
-                ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-                if (encodedData == null) {
-                    throw new RuntimeException("encoderOutputBuffer " + encoderStatus +
-                            " was null");
-                }
-
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    // The codec config data was pulled out and fed to the muxer when we got
-                    // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-                    if (VERBOSE) Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
-                    mBufferInfo.size = 0;
-                }
-
-                if (mBufferInfo.size != 0) {
-                    if (!mMuxerStarted) {
-                        throw new RuntimeException("muxer hasn't started");
-                    }
-
-                    // adjust the ByteBuffer values to match BufferInfo (not needed?)
-                    encodedData.position(mBufferInfo.offset);
-                    encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
-
-                    mMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-                    if (VERBOSE) Log.d(TAG, "sent " + mBufferInfo.size + " bytes to muxer");
-                }
+    /**
+     * Draws the frame just submitted to the encoder on the preview surface too, if a display
+     * refresh has passed since the last one, then goes back to the encoder's surface.  The
+     * textures are shared by the two surfaces, so this is one more draw call.
+     */
+    private void drawPreview(FrameScheduler frames) {
+        updatePreviewSurface();
+        if (mPreviewSurface == EGL14.EGL_NO_SURFACE || !mPreview.isDue(System.nanoTime())) {
+            return;
+        }
 
-                mEncoder.releaseOutputBuffer(encoderStatus, false);
+        if (!mInputSurface.tryMakeCurrent(mPreviewSurface)) {
+            // the window went away without clearSurface() waiting for us: drop the preview
+            Log.w(TAG, "preview surface lost");
+            mInputSurface.makeCurrent();
+            mInputSurface.destroySurface(mPreviewSurface);
+            mPreviewSurface = EGL14.EGL_NO_SURFACE;
+            return;
+        }
+        drawer.setViewport(mPreview.getWidth(), mPreview.getHeight());
+        drawFrame(frames);
+        mInputSurface.swapBuffers(mPreviewSurface);
+        drawer.setViewport(mWidth, mHeight);
+        mInputSurface.makeCurrent();
+    }
 
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    if (!endOfStream) {
-                        Log.w(TAG, "reached end of stream unexpectedly");
-                    } else {
-                        if (VERBOSE) Log.d(TAG, "end of stream reached");
-                    }
-                    break;      // out of while
+    /**
+     * Switches to the preview surface the UI thread set last, if it changed.  Called at the
+     * top of every frame, ahead of anything that may block (a prefetched decode, the encoder's
+     * input queue), so that {@link EncodePreview#clearSurface()} isn't kept waiting.
+     */
+    private void updatePreviewSurface() {
+        if (mPreview.takeChange()) {
+            if (mPreviewSurface != EGL14.EGL_NO_SURFACE) {
+                mInputSurface.destroySurface(mPreviewSurface);
+                mPreviewSurface = EGL14.EGL_NO_SURFACE;
+            }
+            if (mPreview.getSurface() != null) {
+                try {
+                    mPreviewSurface = mInputSurface.createWindowSurface(mPreview.getSurface());
+                } catch (RuntimeException re) {
+                    // the view may have been torn down already; the encode goes on without it
+                    Log.w(TAG, "can't create preview surface", re);
                 }
             }
+            mPreview.acknowledge();
         }
     }
 
+    /**
+     * Lets go of the preview surface.  Call with the GL context current.
+     */
+    private void releasePreview() {
+        if (mPreviewSurface != EGL14.EGL_NO_SURFACE) {
+            mInputSurface.destroySurface(mPreviewSurface);
+            mPreviewSurface = EGL14.EGL_NO_SURFACE;
+        }
+        mPreview.detach();
+    }
 
-
-    private void initializeGL(int width, int height) {
-        drawer = new GLHelper();
-        drawer.init(width, height);
+    /**
+     * Makes frame N's image the one the next draw uses: a texture bind if it is cached,
+     * otherwise a decode (normally already done by the prefetcher) and an upload.
+     */
+    private void prepareFrame(int frameIndex) throws InterruptedException {
+        String key = TextureCache.key(mImages[frameIndex % mImages.length], mWidth, mHeight);
+        if (drawer.useCachedTexture(key)) {
+            return;
+        }
+        Bitmap img;
+        if (mNextPrefetch < mPrefetchFrames.length
+                && mPrefetchFrames[mNextPrefetch] == frameIndex) {
+            mNextPrefetch++;
+            img = mPrefetcher.next();
+        } else {
+            // evicted since its first use
+            img = getBitmap(mContext, mImages, frameIndex);
+        }
+        drawer.uploadToCache(key, img);
+        // the pixels are in GL now; let the next decode reuse the bitmap
+        BitmapPool.getShared().put(img);
     }
 
-    private void drawBitmap(Bitmap img, int frameIndex) {
-        //float gray = (float)(frameIndex%FRAME_RATE)/FRAME_RATE;
-        //GLES20.glClearColor(gray, gray, gray, 1.0f);
-        //GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        drawer.draw(img);
+    /**
+     * Returns, in order, the frames that are the first use of their image.
+     */
+    private static int[] planDecodes(int[] images, int numFrames) {
+        Set<Integer> seen = new HashSet<>();
+        int[] frames = new int[numFrames];
+        int count = 0;
+        for (int i = 0; i < numFrames; i++) {
+            if (seen.add(images[i % images.length])) {
+                frames[count++] = i;
+            }
+        }
+        return Arrays.copyOf(frames, count);
     }
 
     /**
@@ -362,14 +465,6 @@ public class EncodeAndMuxTest {
         GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
     }
 
-    /**
-     * Generates the presentation time for frame N, in nanoseconds.
-     */
-    private static long computePresentationTimeNsec(int frameIndex) {
-        final long ONE_BILLION = 1000000000;
-        return frameIndex * ONE_BILLION / FRAME_RATE;
-    }
-
 
     /**
      * Holds state associated with a Surface used for MediaCodec encoder input.
@@ -386,6 +481,7 @@ public class EncodeAndMuxTest {
         private EGLDisplay mEGLDisplay = EGL14.EGL_NO_DISPLAY;
         private EGLContext mEGLContext = EGL14.EGL_NO_CONTEXT;
         private EGLSurface mEGLSurface = EGL14.EGL_NO_SURFACE;
+        private EGLConfig mEGLConfig;
 
         private Surface mSurface;
 
@@ -402,7 +498,8 @@ public class EncodeAndMuxTest {
         }
 
         /**
-         * Prepares EGL.  We want a GLES 2.0 context and a surface that supports recording.
+         * Prepares EGL.  We want a GLES 3.0 (or failing that 2.0) context and a surface that
+         * supports recording.
          */
         private void eglSetup() {
             mEGLDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
@@ -414,38 +511,72 @@ public class EncodeAndMuxTest {
                 throw new RuntimeException("unable to initialize EGL14");
             }
 
-            // Configure EGL for recording and OpenGL ES 2.0.
+            // Prefer OpenGL ES 3.0, which lets GLHelper stream frames through pixel buffer
+            // objects; fall back to OpenGL ES 2.0.
+            EGLConfig config = chooseConfig(EGLExt.EGL_OPENGL_ES3_BIT_KHR);
+            int clientVersion = 3;
+            if (config != null) {
+                mEGLContext = createContext(config, 3);
+            }
+            if (mEGLContext == EGL14.EGL_NO_CONTEXT) {
+                config = chooseConfig(EGL14.EGL_OPENGL_ES2_BIT);
+                if (config == null) {
+                    throw new RuntimeException("unable to find a recordable ES2 EGL config");
+                }
+                clientVersion = 2;
+                mEGLContext = createContext(config, 2);
+            }
+            checkEglError("eglCreateContext");
+            if (VERBOSE) Log.d(TAG, "created OpenGL ES " + clientVersion + " context");
+            mEGLConfig = config;
+
+            // Create a window surface, and attach it to the Surface we received.
+            int[] surfaceAttribs = {
+                    EGL14.EGL_NONE
+            };
+            mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, config, mSurface,
+                    surfaceAttribs, 0);
+            checkEglError("eglCreateWindowSurface");
+        }
+
+        /**
+         * Finds an RGBA8888 recordable config for the given renderable type, or null.
+         */
+        private EGLConfig chooseConfig(int renderableType) {
             int[] attribList = {
                     EGL14.EGL_RED_SIZE, 8,
                     EGL14.EGL_GREEN_SIZE, 8,
                     EGL14.EGL_BLUE_SIZE, 8,
                     EGL14.EGL_ALPHA_SIZE, 8,
-                    EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                    EGL14.EGL_RENDERABLE_TYPE, renderableType,
                     EGL_RECORDABLE_ANDROID, 1,
                     EGL14.EGL_NONE
             };
             EGLConfig[] configs = new EGLConfig[1];
             int[] numConfigs = new int[1];
-            EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length,
-                    numConfigs, 0);
-            checkEglError("eglCreateContext RGB888+recordable ES2");
+            if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length,
+                    numConfigs, 0) || numConfigs[0] == 0) {
+                // clear the error so that checkEglError() only reports real failures
+                EGL14.eglGetError();
+                return null;
+            }
+            return configs[0];
+        }
 
-            // Configure context for OpenGL ES 2.0.
+        /**
+         * Creates a context of the given client version, or returns EGL_NO_CONTEXT.
+         */
+        private EGLContext createContext(EGLConfig config, int clientVersion) {
             int[] attrib_list = {
-                    EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                    EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion,
                     EGL14.EGL_NONE
             };
-            mEGLContext = EGL14.eglCreateContext(mEGLDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
-                    attrib_list, 0);
-            checkEglError("eglCreateContext");
-
-            // Create a window surface, and attach it to the Surface we received.
-            int[] surfaceAttribs = {
-                    EGL14.EGL_NONE
-            };
-            mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, configs[0], mSurface,
-                    surfaceAttribs, 0);
-            checkEglError("eglCreateWindowSurface");
+            EGLContext context = EGL14.eglCreateContext(mEGLDisplay, config,
+                    EGL14.EGL_NO_CONTEXT, attrib_list, 0);
+            if (context == EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglGetError();
+            }
+            return context;
         }
 
         /**
@@ -454,6 +585,7 @@ public class EncodeAndMuxTest {
          */
         public void release() {
             if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
+                ProgramCache.getShared().releaseContext(mEGLContext);
                 EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
                         EGL14.EGL_NO_CONTEXT);
                 EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
@@ -467,6 +599,7 @@ public class EncodeAndMuxTest {
             mEGLDisplay = EGL14.EGL_NO_DISPLAY;
             mEGLContext = EGL14.EGL_NO_CONTEXT;
             mEGLSurface = EGL14.EGL_NO_SURFACE;
+            mEGLConfig = null;
 
             mSurface = null;
         }
@@ -479,6 +612,62 @@ public class EncodeAndMuxTest {
             checkEglError("eglMakeCurrent");
         }
 
+        /**
+         * Creates another window surface for our context, for a Surface on screen.  Swaps to
+         * it don't wait for the display.  Destroy it with {@link #destroySurface}.
+         */
+        public EGLSurface createWindowSurface(Surface surface) {
+            int[] surfaceAttribs = {
+                    EGL14.EGL_NONE
+            };
+            EGLSurface eglSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, mEGLConfig,
+                    surface, surfaceAttribs, 0);
+            checkEglError("eglCreateWindowSurface");
+            if (eglSurface == EGL14.EGL_NO_SURFACE) {
+                throw new RuntimeException("eglCreateWindowSurface returned no surface");
+            }
+            // The swap interval belongs to the surface current when it is set.
+            makeCurrent(eglSurface);
+            EGL14.eglSwapInterval(mEGLDisplay, 0);
+            makeCurrent();
+            return eglSurface;
+        }
+
+        /**
+         * Makes our EGL context current with another surface of it.
+         */
+        public void makeCurrent(EGLSurface eglSurface) {
+            EGL14.eglMakeCurrent(mEGLDisplay, eglSurface, eglSurface, mEGLContext);
+            checkEglError("eglMakeCurrent");
+        }
+
+        /**
+         * Same as {@link #makeCurrent(EGLSurface)}, for a surface whose window may be gone:
+         * returns false instead of throwing.
+         */
+        public boolean tryMakeCurrent(EGLSurface eglSurface) {
+            if (EGL14.eglMakeCurrent(mEGLDisplay, eglSurface, eglSurface, mEGLContext)) {
+                return true;
+            }
+            Log.w(TAG, "eglMakeCurrent: EGL error: 0x"
+                    + Integer.toHexString(EGL14.eglGetError()));
+            return false;
+        }
+
+        public boolean swapBuffers(EGLSurface eglSurface) {
+            boolean result = EGL14.eglSwapBuffers(mEGLDisplay, eglSurface);
+            if (!result) {
+                // a preview surface whose window is gone; not worth failing the encode for
+                Log.w(TAG, "eglSwapBuffers: EGL error: 0x"
+                        + Integer.toHexString(EGL14.eglGetError()));
+            }
+            return result;
+        }
+
+        public void destroySurface(EGLSurface eglSurface) {
+            EGL14.eglDestroySurface(mEGLDisplay, eglSurface);
+        }
+
         /**
          * Calls eglSwapBuffers.  Use this to "publish" the current frame.
          */
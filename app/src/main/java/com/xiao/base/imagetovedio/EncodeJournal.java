@@ -0,0 +1,242 @@
+package com.xiao.base.imagetovedio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Small append-only file that records how far a fragmented MP4 encode got, so that a job
+ * killed partway can go on from its last complete GOP instead of starting over.
+ * <p>
+ * The header identifies the job (a fingerprint of its inputs and settings) and holds the
+ * encoder's SPS and PPS, which the resumed encoder must reproduce.  Then comes one
+ * {@link Checkpoint} per fragment closed by a sync frame: frames written, the time of the
+ * next one and the file size.  Each record carries a CRC, so one torn by a crash is simply
+ * ignored, along with anything after it.
+ * <p>
+ * Nothing is forced to disk: this survives the process being killed, not the device losing
+ * power.  Plain Java, so it can be tested on the JVM.
+ */
+public class EncodeJournal implements Closeable {
+    private static final int MAGIC = 0x49564a31;        // "IVJ1"
+    // sequence, frame count, time, offset, crc
+    private static final int RECORD_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A point from which the encode can go on.
+     */
+    public static class Checkpoint {
+        /** Fragments in the file up to here. */
+        public final int sequence;
+        /** Video frames in them, which is also the index of the next frame. */
+        public final int frameCount;
+        /** Presentation time of the next frame, a sync frame. */
+        public final long nextTimeUs;
+        /** File size up to here. */
+        public final long fileOffset;
+
+        public Checkpoint(int sequence, int frameCount, long nextTimeUs, long fileOffset) {
+            this.sequence = sequence;
+            this.frameCount = frameCount;
+            this.nextTimeUs = nextTimeUs;
+            this.fileOffset = fileOffset;
+        }
+
+        @Override
+        public String toString() {
+            return "Checkpoint{fragment " + sequence + ", " + frameCount + " frames, next at "
+                    + nextTimeUs + " us, " + fileOffset + " bytes}";
+        }
+    }
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final long mFingerprint;
+    private final CRC32 mCrc = new CRC32();
+    private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+    private byte[] mSps;
+    private byte[] mPps;
+    private Checkpoint mLast;
+    // where the next record goes; 0 until the header is written
+    private long mEnd;
+
+    /**
+     * Opens the journal at file.  If it belongs to another job, or is unreadable, it is
+     * emptied, and the job starts from scratch.
+     */
+    public static EncodeJournal open(File file, long fingerprint) throws IOException {
+        EncodeJournal journal = new EncodeJournal(file, fingerprint);
+        try {
+            journal.load();
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Fingerprint of a job, from a description of everything that shapes its output: inputs,
+     * size, settings.  64-bit FNV-1a of the description's UTF-8 bytes.
+     */
+    public static long fingerprint(String description) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : description.getBytes(UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private EncodeJournal(File file, long fingerprint) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "rw");
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * The last checkpoint recorded, or null if there is none to resume from.
+     */
+    public Checkpoint getLastCheckpoint() {
+        return mLast;
+    }
+
+    /**
+     * SPS of the encode being resumed, or null if there is none.
+     */
+    public byte[] getSps() {
+        return mSps;
+    }
+
+    public byte[] getPps() {
+        return mPps;
+    }
+
+    /**
+     * Whether sps and pps are the parameter sets recorded in the journal.
+     */
+    public boolean matches(byte[] sps, byte[] pps) {
+        return Arrays.equals(mSps, sps) && Arrays.equals(mPps, pps);
+    }
+
+    /**
+     * Starts the journal of a fresh encode, dropping whatever it held.
+     */
+    public void begin(byte[] sps, byte[] pps) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 + 8 + 4 + sps.length + 4 + pps.length);
+        header.putInt(MAGIC).putLong(mFingerprint);
+        header.putInt(sps.length).put(sps);
+        header.putInt(pps.length).put(pps);
+        mRaf.setLength(0);
+        mRaf.seek(0);
+        mRaf.write(header.array());
+        mSps = sps.clone();
+        mPps = pps.clone();
+        mLast = null;
+        mEnd = header.capacity();
+    }
+
+    /**
+     * Appends a checkpoint.  The file must already hold everything up to it.
+     */
+    public void append(Checkpoint checkpoint) throws IOException {
+        if (mEnd == 0) {
+            throw new IllegalStateException("journal not begun");
+        }
+        mRecord.clear();
+        mRecord.putInt(checkpoint.sequence).putInt(checkpoint.frameCount)
+                .putLong(checkpoint.nextTimeUs).putLong(checkpoint.fileOffset);
+        mCrc.reset();
+        mCrc.update(mRecord.array(), 0, mRecord.position());
+        mRecord.putInt((int) mCrc.getValue());
+        mRaf.seek(mEnd);
+        mRaf.write(mRecord.array());
+        mEnd += RECORD_SIZE;
+        mLast = checkpoint;
+    }
+
+    /**
+     * Forgets everything recorded, for when the encode has to start over.
+     */
+    public void reset() throws IOException {
+        mRaf.setLength(0);
+        mSps = null;
+        mPps = null;
+        mLast = null;
+        mEnd = 0;
+    }
+
+    /**
+     * Closes and deletes the journal, once the encode has finished.
+     */
+    public void delete() throws IOException {
+        close();
+        if (!mFile.delete() && mFile.exists()) {
+            throw new IOException("can't delete " + mFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRaf.close();
+    }
+
+    private void load() throws IOException {
+        long length = mRaf.length();
+        if (length > Integer.MAX_VALUE) {
+            reset();
+            return;
+        }
+        byte[] bytes = new byte[(int) length];
+        mRaf.seek(0);
+        mRaf.readFully(bytes);
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+
+        if (b.remaining() < 12 || b.getInt() != MAGIC || b.getLong() != mFingerprint) {
+            reset();
+            return;
+        }
+        byte[] sps = readBytes(b);
+        byte[] pps = readBytes(b);
+        if (sps == null || pps == null) {
+            reset();
+            return;
+        }
+        mSps = sps;
+        mPps = pps;
+
+        byte[] record = new byte[RECORD_SIZE];
+        while (b.remaining() >= RECORD_SIZE) {
+            b.get(record);
+            mCrc.reset();
+            mCrc.update(record, 0, RECORD_SIZE - 4);
+            ByteBuffer r = ByteBuffer.wrap(record);
+            if (r.getInt(RECORD_SIZE - 4) != (int) mCrc.getValue()) {
+                b.position(b.position() - RECORD_SIZE);
+                break;
+            }
+            mLast = new Checkpoint(r.getInt(), r.getInt(), r.getLong(), r.getLong());
+        }
+        // a torn last record is overwritten by the next append
+        mEnd = b.position();
+    }
+
+    private static byte[] readBytes(ByteBuffer b) {
+        if (b.remaining() < 4) {
+            return null;
+        }
+        int length = b.getInt();
+        if (length < 0 || length > b.remaining()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return bytes;
+    }
+}
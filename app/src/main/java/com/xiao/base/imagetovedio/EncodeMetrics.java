@@ -0,0 +1,381 @@
+package com.xiao.base.imagetovedio;
+
+import java.util.Locale;
+
+/**
+ * Where the time of an encode goes, frame by frame: a latency histogram per {@link Stage},
+ * the encoder's queue depth, bytes written and the frame rate achieved.
+ * <p>
+ * Recording is cheap enough to leave on: a {@code System.nanoTime()} and a few array
+ * increments, no allocation, so it can sit in the per-frame loop and the codec callback.
+ * Stages are timed as {@code t = System.nanoTime(); ...; t = metrics.record(Stage.X, t);}.
+ * Histograms keep four buckets per power of two, so percentiles are within about 20%.
+ * <p>
+ * A {@link Listener} sees the live metrics after every encoded frame, and gets a
+ * {@link Report} once the job is done.
+ */
+public class EncodeMetrics {
+    /**
+     * Per-frame stages that are timed.
+     */
+    public enum Stage {
+        /** Decoding (and downsampling) a source image. */
+        DECODE,
+        /** Drawing a frame: Canvas scaling and drawing, or GL upload and draw calls. */
+        DRAW,
+        /**
+         * Handing a frame to the encoder, including any wait for it to take one:
+         * lockCanvas/unlockCanvasAndPost, or eglSwapBuffers.
+         */
+        SUBMIT,
+        /** From a frame's submission until the encoder outputs it. */
+        ENCODE,
+        /** Writing an encoded sample to the muxer, including waits for interleaving. */
+        MUX
+    }
+
+    /**
+     * Receives the metrics of a job.
+     */
+    public interface Listener {
+        /**
+         * Called on the encoder's callback thread after each encoded frame.  Read what is
+         * needed and return; the object is live, don't keep it.  For a job encoded in
+         * parallel segments, these are the metrics of the segment that encoded the frame.
+         */
+        void onFrameEncoded(EncodeMetrics metrics);
+
+        /**
+         * Called once, on the thread running the job, when it has finished or failed.
+         */
+        void onFinished(Report report);
+    }
+
+    // frames whose submission time is kept, to match them with the encoder's output
+    private static final int IN_FLIGHT = 64;
+
+    private final Listener mListener;
+    private final Histogram[] mStages = new Histogram[Stage.values().length];
+    private final Histogram mQueueDepth = new Histogram();
+    private final long[] mSubmitTimes = new long[IN_FLIGHT];
+    private final long mStartNanos;
+    private volatile int mSubmitted;
+    private volatile int mEncoded;
+    private volatile long mBytes;
+
+    public EncodeMetrics(Listener listener) {
+        mListener = listener;
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new Histogram();
+        }
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the time since startNanos under stage, and returns the current time, to start
+     * the next stage from.
+     */
+    public long record(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        mStages[stage.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Records a duration measured by the caller, e.g. a stage made of several intervals.
+     */
+    public void recordNanos(Stage stage, long nanos) {
+        mStages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Notes that a frame was handed to the encoder.  Call right after the submission.
+     */
+    public synchronized void frameSubmitted() {
+        mSubmitTimes[mSubmitted % IN_FLIGHT] = System.nanoTime();
+        mSubmitted++;
+        mQueueDepth.record(mSubmitted - mEncoded);
+    }
+
+    /**
+     * Notes that the encoder output a frame of the given size, whose write to the muxer
+     * started at muxStartNanos and has just finished.  Frames come out in the order they
+     * were submitted, which is what pairs them with their submission.
+     */
+    public void frameEncoded(int bytes, long muxStartNanos) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            int frame = mEncoded;
+            if (frame < mSubmitted && mSubmitted - frame <= IN_FLIGHT) {
+                mStages[Stage.ENCODE.ordinal()].record(
+                        muxStartNanos - mSubmitTimes[frame % IN_FLIGHT]);
+            }
+            mStages[Stage.MUX.ordinal()].record(now - muxStartNanos);
+            mBytes += bytes;
+            mEncoded = frame + 1;
+        }
+        if (mListener != null) {
+            mListener.onFrameEncoded(this);
+        }
+    }
+
+    /**
+     * Adds everything other recorded to these metrics.  Frames are paired with their
+     * submission by order, which only holds for one encoder, so each encoder of a job needs
+     * metrics of its own; this adds them up for the job's report.  other must be done
+     * recording.
+     */
+    public void merge(EncodeMetrics other) {
+        synchronized (this) {
+            for (int i = 0; i < mStages.length; i++) {
+                mStages[i].merge(other.mStages[i]);
+            }
+            mQueueDepth.merge(other.mQueueDepth);
+            mSubmitted += other.mSubmitted;
+            mEncoded += other.mEncoded;
+            mBytes += other.mBytes;
+        }
+    }
+
+    public Histogram getHistogram(Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    /**
+     * Histogram of the number of frames submitted but not yet output, sampled at each
+     * submission.
+     */
+    public Histogram getQueueDepthHistogram() {
+        return mQueueDepth;
+    }
+
+    public int getFramesSubmitted() {
+        return mSubmitted;
+    }
+
+    public int getFramesEncoded() {
+        return mEncoded;
+    }
+
+    public int getQueueDepth() {
+        return mSubmitted - mEncoded;
+    }
+
+    public long getBytesWritten() {
+        return mBytes;
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * Frames encoded per second of wall-clock time so far.
+     */
+    public double getFramesPerSecond() {
+        long elapsed = getElapsedNanos();
+        return elapsed > 0 ? mEncoded * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Takes the final report and hands it to the listener.
+     */
+    public Report finish(boolean success) {
+        Report report = new Report(this, success);
+        if (mListener != null) {
+            mListener.onFinished(report);
+        }
+        return report;
+    }
+
+    /**
+     * Histogram of non-negative values (nanoseconds, queue depths) in logarithmic buckets:
+     * values below 4 exactly, then four buckets per power of two.  Safe to record into from
+     * several threads.
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 256;
+
+        private final long[] mCounts = new long[BUCKETS];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        synchronized void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mCounts[bucket(value)]++;
+            mCount++;
+            mSum += value;
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getMax() {
+            return mMax;
+        }
+
+        public synchronized long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        public synchronized long getTotal() {
+            return mSum;
+        }
+
+        /**
+         * Value at or below which the given fraction (0..1) of the records fall, to bucket
+         * precision.
+         */
+        public synchronized long getPercentile(double fraction) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * mCount);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mCounts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(upperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        /**
+         * Adds other's records to this histogram.
+         */
+        void merge(Histogram other) {
+            // copied first, so that the two locks are never held together
+            Histogram h = other.copy();
+            synchronized (this) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    mCounts[i] += h.mCounts[i];
+                }
+                mCount += h.mCount;
+                mSum += h.mSum;
+                mMax = Math.max(mMax, h.mMax);
+            }
+        }
+
+        synchronized Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(mCounts, 0, copy.mCounts, 0, BUCKETS);
+            copy.mCount = mCount;
+            copy.mSum = mSum;
+            copy.mMax = mMax;
+            return copy;
+        }
+
+        static int bucket(long value) {
+            if (value < 4) {
+                return (int) value;
+            }
+            int msb = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (msb - 2)) & 3;
+            return (msb - 1) * 4 + sub;
+        }
+
+        /**
+         * Largest value that falls in bucket i.
+         */
+        static long upperBound(int i) {
+            if (i < 4) {
+                return i;
+            }
+            int msb = i / 4 + 1;
+            long lower = (long) (4 + i % 4) << (msb - 2);
+            return lower + (1L << (msb - 2)) - 1;
+        }
+    }
+
+    /**
+     * Final metrics of a job: copies, unaffected by anything recorded later.
+     */
+    public static class Report {
+        private final boolean mSuccess;
+        private final Histogram[] mStages;
+        private final Histogram mQueueDepth;
+        private final int mFramesSubmitted;
+        private final int mFramesEncoded;
+        private final long mBytes;
+        private final long mElapsedNanos;
+
+        Report(EncodeMetrics metrics, boolean success) {
+            mSuccess = success;
+            mStages = new Histogram[metrics.mStages.length];
+            for (int i = 0; i < mStages.length; i++) {
+                mStages[i] = metrics.mStages[i].copy();
+            }
+            mQueueDepth = metrics.mQueueDepth.copy();
+            mFramesSubmitted = metrics.mSubmitted;
+            mFramesEncoded = metrics.mEncoded;
+            mBytes = metrics.mBytes;
+            mElapsedNanos = metrics.getElapsedNanos();
+        }
+
+        public boolean isSuccess() {
+            return mSuccess;
+        }
+
+        public Histogram getHistogram(Stage stage) {
+            return mStages[stage.ordinal()];
+        }
+
+        public Histogram getQueueDepthHistogram() {
+            return mQueueDepth;
+        }
+
+        public int getFramesSubmitted() {
+            return mFramesSubmitted;
+        }
+
+        public int getFramesEncoded() {
+            return mFramesEncoded;
+        }
+
+        public long getBytesWritten() {
+            return mBytes;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        public double getFramesPerSecond() {
+            return mElapsedNanos > 0 ? mFramesEncoded * 1e9 / mElapsedNanos : 0;
+        }
+
+        /**
+         * One line per stage with count, mean, p50, p90, p99 and max in milliseconds, after
+         * a summary line.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US,
+                    "%s: %d/%d frames, %d bytes in %.1f ms, %.1f fps, queue depth p50 %d max %d",
+                    mSuccess ? "done" : "failed", mFramesEncoded, mFramesSubmitted, mBytes,
+                    mElapsedNanos / 1e6, getFramesPerSecond(),
+                    mQueueDepth.getPercentile(0.5), mQueueDepth.getMax()));
+            for (Stage stage : Stage.values()) {
+                Histogram h = mStages[stage.ordinal()];
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                sb.append(String.format(Locale.US,
+                        "\n  %-6s n=%d mean %.2f p50 %.2f p90 %.2f p99 %.2f max %.2f ms",
+                        stage, h.getCount(), h.getMean() / 1e6,
+                        h.getPercentile(0.5) / 1e6, h.getPercentile(0.9) / 1e6,
+                        h.getPercentile(0.99) / 1e6, h.getMax() / 1e6));
+            }
+            return sb.toString();
+        }
+    }
+}
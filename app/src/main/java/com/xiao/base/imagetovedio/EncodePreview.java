@@ -0,0 +1,173 @@
+package com.xiao.base.imagetovedio;
+
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * An on-screen surface, a SurfaceView's or a TextureView's, on which an encode shows the
+ * frames it renders as it goes.
+ * <p>
+ * The UI thread sets and clears the surface whenever the view's surface comes and goes; the
+ * encoder's GL thread picks the change up between frames.  It draws each frame a second time,
+ * from the textures already uploaded for the encoder, so the preview costs no decode or upload,
+ * and at most once per display refresh: frames encoded faster than that are skipped.  Swaps
+ * to the preview never wait for the display, so it can't slow the encode down.
+ */
+public class EncodePreview {
+    private static final String TAG = "EncodePreview";
+    /** Longest clearSurface() keeps the UI thread waiting, well short of an ANR. */
+    public static final long CLEAR_TIMEOUT_MS = 500;
+
+    private final Object mLock = new Object();
+    private final long mIntervalNs;
+    private Surface mSurface;
+    private int mWidth;
+    private int mHeight;
+    // bumped by every change of surface; the GL thread acknowledges each once it has switched
+    private int mGeneration;
+    private int mAcknowledged;
+    // whether a GL thread is drawing to the surface
+    private boolean mAttached;
+
+    // what the GL thread has taken of the above; GL thread only
+    private Surface mTakenSurface;
+    private int mTakenWidth;
+    private int mTakenHeight;
+    private int mTakenGeneration;
+    private long mLastFrameNs;
+
+    /**
+     * @param refreshRate frames per second of the display, Display.getRefreshRate()
+     */
+    public EncodePreview(float refreshRate) {
+        if (refreshRate <= 0) {
+            throw new IllegalArgumentException("refresh rate " + refreshRate);
+        }
+        mIntervalNs = (long) (1000000000L / refreshRate);
+    }
+
+    /**
+     * Shows the encode on surface, width x height pixels, from the next frame on.  The caller
+     * still owns the surface.
+     */
+    public void setSurface(Surface surface, int width, int height) {
+        synchronized (mLock) {
+            mSurface = surface;
+            mWidth = width;
+            mHeight = height;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * Stops drawing to the surface.  Waits for the GL thread to let go of it, so the caller
+     * can release it, or let the view destroy it, as soon as this returns; the GL thread
+     * checks at the start of every frame.  Meant for surfaceDestroyed() on the UI thread, so
+     * the wait is bounded by {@link #CLEAR_TIMEOUT_MS}, for a frame stuck behind a slow decode
+     * or a full encoder.  Past that the surface goes anyway, and the GL thread drops the
+     * preview when it finds it gone.
+     *
+     * @return whether the GL thread let go of the surface in time
+     */
+    public boolean clearSurface() {
+        boolean interrupted = false;
+        boolean released = true;
+        synchronized (mLock) {
+            mSurface = null;
+            int generation = ++mGeneration;
+            long deadline = System.nanoTime() + CLEAR_TIMEOUT_MS * 1000000L;
+            while (mAttached && mAcknowledged - generation < 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    Log.w(TAG, "GL thread didn't let go of the preview surface in time");
+                    released = false;
+                    break;
+                }
+                try {
+                    mLock.wait(left / 1000000L + 1);
+                } catch (InterruptedException ie) {
+                    // the surface is about to go away: keep waiting
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return released;
+    }
+
+    /**
+     * Called by the GL thread before it draws its first frame.
+     */
+    void attach() {
+        synchronized (mLock) {
+            mAttached = true;
+            mTakenSurface = null;
+            mTakenGeneration = mGeneration - 1;
+            mLastFrameNs = 0;
+        }
+    }
+
+    /**
+     * Called by the GL thread once it has let go of the surface for good.
+     */
+    void detach() {
+        synchronized (mLock) {
+            mAttached = false;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Whether the surface changed since the GL thread last took it.  If so, it is taken:
+     * {@link #getSurface()} and the size return the new one, null if it was cleared, and the
+     * GL thread must switch to it, then {@link #acknowledge()}.
+     */
+    boolean takeChange() {
+        synchronized (mLock) {
+            if (mTakenGeneration == mGeneration) {
+                return false;
+            }
+            mTakenSurface = mSurface;
+            mTakenWidth = mWidth;
+            mTakenHeight = mHeight;
+            mTakenGeneration = mGeneration;
+            return true;
+        }
+    }
+
+    /**
+     * Called by the GL thread once it no longer uses any surface older than the one taken.
+     */
+    void acknowledge() {
+        synchronized (mLock) {
+            mAcknowledged = mTakenGeneration;
+            mLock.notifyAll();
+        }
+    }
+
+    Surface getSurface() {
+        return mTakenSurface;
+    }
+
+    int getWidth() {
+        return mTakenWidth;
+    }
+
+    int getHeight() {
+        return mTakenHeight;
+    }
+
+    /**
+     * Whether a display refresh has passed since the last frame shown, in which case the
+     * frame about to be drawn at nowNs is.  GL thread only.
+     */
+    boolean isDue(long nowNs) {
+        if (mLastFrameNs != 0 && nowNs - mLastFrameNs < mIntervalNs) {
+            return false;
+        }
+        mLastFrameNs = nowNs;
+        return true;
+    }
+}
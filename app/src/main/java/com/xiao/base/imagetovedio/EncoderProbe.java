@@ -0,0 +1,410 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the encoder, profile, level and bitrate mode for a MIME type from the device's
+ * {@link MediaCodecInfo} capabilities, and builds formats the encoder accepts as they are.
+ * <p>
+ * Hardware encoders are preferred over software ones, then the highest profile, and VBR over
+ * CBR.  The pipeline stamps output in decode order and writes no composition offsets, so the
+ * stream must not have B-frames: High profile is only asked for from API 29, where they can be
+ * turned off, and Baseline before that (Main allows B-frames too).  The level is the lowest
+ * that fits the output size, frame rate and bitrate, not the encoder's maximum.  Sizes are
+ * rounded to the encoder's alignment and shrunk, keeping the aspect ratio, until supported,
+ * so configure() doesn't have to fail to find out.
+ * <p>
+ * Enumerating the codecs is slow, and the result only depends on the device, so the probe
+ * for each MIME type is made once per process and shared.
+ */
+public class EncoderProbe {
+    private static final String TAG = "EncoderProbe";
+
+    // bits per pixel per frame used to derive a bitrate when none is given; still images
+    // compress well, so this is on the low side
+    static final float BITS_PER_PIXEL = 0.1f;
+
+    // AVC levels (Table A-1 of H.264) with their limits: macroblocks per second, frame size in
+    // macroblocks, and Baseline/Main bitrate in kbit/s, which High may exceed by a quarter
+    private static final int[] AVC_LEVELS = {
+            MediaCodecInfo.CodecProfileLevel.AVCLevel1,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel11,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel12,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel13,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel2,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel21,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel22,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel3,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel31,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel32,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel4,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel41,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel42,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel5,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel51,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel52
+    };
+    private static final int[] AVC_MAX_MBPS = {
+            1485, 3000, 6000, 11880, 11880, 19800, 20250, 40500,
+            108000, 216000, 245760, 245760, 522240, 589824, 983040, 2073600
+    };
+    private static final int[] AVC_MAX_FS = {
+            99, 396, 396, 396, 396, 792, 1620, 1620,
+            3600, 5120, 8192, 8192, 8704, 22080, 36864, 36864
+    };
+    private static final int[] AVC_MAX_KBPS = {
+            64, 192, 384, 768, 2000, 4000, 4000, 10000,
+            14000, 20000, 20000, 50000, 50000, 135000, 240000, 240000
+    };
+
+    private static final Map<String, EncoderProbe> sProbes = new HashMap<>();
+
+    private final String mMime;
+    private final String mCodecName;
+    private final MediaCodecInfo.CodecCapabilities mCaps;
+    private final int mProfile;
+    private final int mLevel;
+    private final int mBitrateMode;
+    private final int mMaxInstances;
+
+    /**
+     * Returns the probe for the given video MIME type, or null if the device has no encoder
+     * for it.
+     */
+    public static synchronized EncoderProbe get(String mime) {
+        if (sProbes.containsKey(mime)) {
+            return sProbes.get(mime);
+        }
+        EncoderProbe probe = probe(mime);
+        sProbes.put(mime, probe);
+        if (probe != null) {
+            Log.d(TAG, "probed " + probe);
+        } else {
+            Log.w(TAG, "no encoder for " + mime);
+        }
+        return probe;
+    }
+
+    private EncoderProbe(String mime, String codecName, MediaCodecInfo.CodecCapabilities caps) {
+        mMime = mime;
+        mCodecName = codecName;
+        mCaps = caps;
+
+        // B-frames can only be turned off from API 29; before that, a profile without them
+        int maxRank = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? 4 : 1;
+        int profile = -1;
+        int level = -1;
+        for (MediaCodecInfo.CodecProfileLevel pl : caps.profileLevels) {
+            int rank = profileRank(pl.profile);
+            if (rank > maxRank) {
+                continue;
+            }
+            if (rank > profileRank(profile)
+                    || (pl.profile == profile && pl.level > level)) {
+                profile = pl.profile;
+                level = pl.level;
+            }
+        }
+        mProfile = profile;
+        mLevel = level;
+
+        MediaCodecInfo.EncoderCapabilities encoderCaps = caps.getEncoderCapabilities();
+        if (encoderCaps.isBitrateModeSupported(
+                MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR)) {
+            mBitrateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+        } else if (encoderCaps.isBitrateModeSupported(
+                MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR)) {
+            mBitrateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+        } else {
+            mBitrateMode = -1;
+        }
+        mMaxInstances = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? caps.getMaxSupportedInstances() : 1;
+    }
+
+    public String getCodecName() {
+        return mCodecName;
+    }
+
+    /**
+     * How many instances of the encoder can run at once, as it reports it; 1 before API 23,
+     * which has no way to ask.
+     */
+    public int getMaxSupportedInstances() {
+        return mMaxInstances;
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * Highest level the encoder supports with {@link #getProfile()}.  Formats ask for the
+     * lowest one the output needs, see {@link #avcLevelFor}.
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Whether {@link #createVideoFormat} can ask for constant quality instead of a bitrate.
+     */
+    public boolean isConstantQualitySupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                && mCaps.getEncoderCapabilities().isBitrateModeSupported(
+                        MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
+    }
+
+    /**
+     * Returns the YUV layout the encoder takes in its input buffers: NV12
+     * (COLOR_FormatYUV420SemiPlanar) if it lists it, else I420 (COLOR_FormatYUV420Planar),
+     * else -1.
+     */
+    public int getYuvColorFormat() {
+        int planar = -1;
+        for (int format : mCaps.colorFormats) {
+            if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+                return format;
+            }
+            if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+                planar = format;
+            }
+        }
+        return planar;
+    }
+
+    /**
+     * Returns the size closest to width x height that the encoder supports: rounded to its
+     * alignment, and scaled down, keeping the aspect ratio, if larger than it can encode.
+     */
+    public Size alignSize(int width, int height) {
+        MediaCodecInfo.VideoCapabilities video = mCaps.getVideoCapabilities();
+        int wAlign = video.getWidthAlignment();
+        int hAlign = video.getHeightAlignment();
+        int w = roundTo(width, wAlign);
+        int h = roundTo(height, hAlign);
+        while (!video.isSizeSupported(w, h) && w > wAlign && h > hAlign) {
+            // shrink by one alignment step along the longer side, the other in proportion
+            if (w >= h) {
+                w -= wAlign;
+                h = roundTo(Math.round((float) height * w / width), hAlign);
+            } else {
+                h -= hAlign;
+                w = roundTo(Math.round((float) width * h / height), wAlign);
+            }
+        }
+        if (w != width || h != height) {
+            Log.d(TAG, width + "x" + height + " adjusted to " + w + "x" + h);
+        }
+        return new Size(w, h);
+    }
+
+    /**
+     * Builds a Surface-input format for the encoder.  width and height should come from
+     * {@link #alignSize(int, int)}.  The frame rate is capped at what the encoder supports at
+     * that size, if it supports the size at all.  With bitRate <= 0 the encoder runs at
+     * constant quality if it can, and otherwise at a bitrate derived from the size and frame
+     * rate.
+     */
+    public MediaFormat createVideoFormat(int width, int height, int frameRate,
+                                         int iFrameInterval, int bitRate) {
+        return createVideoFormat(width, height, frameRate, iFrameInterval, bitRate,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+    }
+
+    /**
+     * Same as {@link #createVideoFormat(int, int, int, int, int)}, for the given input color
+     * format, e.g. {@link #getYuvColorFormat()} for buffer input.
+     */
+    public MediaFormat createVideoFormat(int width, int height, int frameRate,
+                                         int iFrameInterval, int bitRate, int colorFormat) {
+        MediaCodecInfo.VideoCapabilities video = mCaps.getVideoCapabilities();
+        MediaFormat format = MediaFormat.createVideoFormat(mMime, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+
+        if (!video.isSizeSupported(width, height)) {
+            // getSupportedFrameRatesFor() would throw; configure() gets to decide
+            Log.w(TAG, width + "x" + height + " not supported by " + mCodecName);
+        } else if (!video.areSizeAndRateSupported(width, height, frameRate)) {
+            int max = video.getSupportedFrameRatesFor(width, height).getUpper().intValue();
+            Log.d(TAG, frameRate + " fps not supported at " + width + "x" + height
+                    + ", using " + max);
+            frameRate = Math.max(1, max);
+        }
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
+
+        if (bitRate <= 0 && isConstantQualitySupported()) {
+            format.setInteger(MediaFormat.KEY_BITRATE_MODE,
+                    MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
+            Range<Integer> quality = mCaps.getEncoderCapabilities().getQualityRange();
+            // three quarters of the way up: near-transparent for stills, well below the max
+            format.setInteger(MediaFormat.KEY_QUALITY,
+                    quality.getLower() + (quality.getUpper() - quality.getLower()) * 3 / 4);
+        } else {
+            if (bitRate <= 0) {
+                bitRate = (int) (width * height * frameRate * BITS_PER_PIXEL);
+            }
+            format.setInteger(MediaFormat.KEY_BIT_RATE, video.getBitrateRange().clamp(bitRate));
+            if (mBitrateMode >= 0) {
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, mBitrateMode);
+            }
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // output order has to be presentation order, see the class comment
+            format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0);
+        }
+
+        // Profile and level are only honoured reliably from API 23, and some older encoders
+        // fail to configure with them.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && profileRank(mProfile) > 0
+                && MediaFormat.MIMETYPE_VIDEO_AVC.equalsIgnoreCase(mMime)) {
+            format.setInteger(MediaFormat.KEY_PROFILE, mProfile);
+            boolean high = profileRank(mProfile) == 4;
+            int level = avcLevelFor(width, height, frameRate,
+                    format.containsKey(MediaFormat.KEY_BIT_RATE)
+                            ? format.getInteger(MediaFormat.KEY_BIT_RATE) : 0, high);
+            // a stream the encoder can't label correctly is still better labelled too high
+            format.setInteger(MediaFormat.KEY_LEVEL, level < 0 || level > mLevel ? mLevel : level);
+        }
+        return format;
+    }
+
+    /**
+     * Returns a copy of format with only what every encoder accepts: size, color format,
+     * frame rate, key frame interval and a plain bitrate, and B-frames still off.  No
+     * profile, level or bitrate mode.  For retrying a configure() that failed with format.
+     */
+    static MediaFormat createFallbackFormat(MediaFormat format) {
+        int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        MediaFormat fallback = MediaFormat.createVideoFormat(
+                format.getString(MediaFormat.KEY_MIME), width, height);
+        String[] keys = {
+                MediaFormat.KEY_COLOR_FORMAT, MediaFormat.KEY_FRAME_RATE,
+                MediaFormat.KEY_I_FRAME_INTERVAL, MediaFormat.KEY_BIT_RATE
+        };
+        for (String key : keys) {
+            if (format.containsKey(key)) {
+                fallback.setInteger(key, format.getInteger(key));
+            }
+        }
+        if (!fallback.containsKey(MediaFormat.KEY_BIT_RATE)) {
+            // constant quality asked for no bitrate
+            int frameRate = fallback.containsKey(MediaFormat.KEY_FRAME_RATE)
+                    ? fallback.getInteger(MediaFormat.KEY_FRAME_RATE) : 30;
+            fallback.setInteger(MediaFormat.KEY_BIT_RATE,
+                    (int) (width * height * frameRate * BITS_PER_PIXEL));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            fallback.setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0);
+        }
+        return fallback;
+    }
+
+    /**
+     * Lowest AVC level whose limits take width x height at frameRate and bitRate (bits per
+     * second, 0 if not known), or -1 if even the highest doesn't.
+     *
+     * @param high whether the profile is High, which allows a quarter more bitrate
+     */
+    static int avcLevelFor(int width, int height, int frameRate, int bitRate, boolean high) {
+        long widthMbs = (width + 15) / 16;
+        long heightMbs = (height + 15) / 16;
+        long frameSize = widthMbs * heightMbs;
+        long mbps = frameSize * frameRate;
+        long kbps = (bitRate + 999L) / 1000;
+        for (int i = 0; i < AVC_LEVELS.length; i++) {
+            long maxKbps = high ? AVC_MAX_KBPS[i] * 5L / 4 : AVC_MAX_KBPS[i];
+            // neither side may be longer than sqrt(8 * MaxFS) macroblocks
+            if (frameSize <= AVC_MAX_FS[i] && mbps <= AVC_MAX_MBPS[i] && kbps <= maxKbps
+                    && widthMbs * widthMbs <= 8L * AVC_MAX_FS[i]
+                    && heightMbs * heightMbs <= 8L * AVC_MAX_FS[i]) {
+                return AVC_LEVELS[i];
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderProbe{" + mCodecName + ", profile=" + mProfile + ", level=" + mLevel
+                + ", bitrateMode=" + mBitrateMode + ", instances=" + mMaxInstances + "}";
+    }
+
+    private static EncoderProbe probe(String mime) {
+        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        EncoderProbe best = null;
+        int bestScore = Integer.MIN_VALUE;
+        for (MediaCodecInfo info : codecList.getCodecInfos()) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(mime)) {
+                    continue;
+                }
+                MediaCodecInfo.CodecCapabilities caps = info.getCapabilitiesForType(type);
+                if (caps.getVideoCapabilities() == null) {
+                    continue;
+                }
+                EncoderProbe candidate = new EncoderProbe(mime, info.getName(), caps);
+                // hardware beats any profile; among equals, the first listed wins
+                int score = (isHardware(info) ? 1000 : 0) + profileRank(candidate.mProfile);
+                if (score > bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean isHardware(MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return info.isHardwareAccelerated();
+        }
+        String name = info.getName().toLowerCase(Locale.ROOT);
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.")
+                && !name.contains(".sw.");
+    }
+
+    /**
+     * Orders AVC profiles by compression efficiency: Baseline < Main < High.  Profiles we
+     * don't want to ask for (10-bit, 4:2:2, other codecs') rank 0 and are left to the
+     * encoder's default; -1 is no profile at all.
+     */
+    private static int profileRank(int profile) {
+        switch (profile) {
+            case -1:
+                return -1;
+            case MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline:
+            case MediaCodecInfo.CodecProfileLevel.AVCProfileConstrainedBaseline:
+                return 1;
+            case MediaCodecInfo.CodecProfileLevel.AVCProfileExtended:
+                return 2;
+            case MediaCodecInfo.CodecProfileLevel.AVCProfileMain:
+                return 3;
+            case MediaCodecInfo.CodecProfileLevel.AVCProfileHigh:
+            case MediaCodecInfo.CodecProfileLevel.AVCProfileConstrainedHigh:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private static int roundTo(int value, int alignment) {
+        return Math.max(alignment, (value + alignment / 2) / alignment * alignment);
+    }
+}
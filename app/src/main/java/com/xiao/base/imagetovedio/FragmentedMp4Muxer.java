@@ -0,0 +1,178 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VideoMuxer} writing a fragmented MP4 through {@link FragmentedMp4Writer}.
+ * <p>
+ * Unlike MediaMuxer, memory use does not grow with the length of the video, and the file
+ * plays up to the last complete fragment even if the process dies before {@link #stop()}.
+ * Supports one H.264 track and optionally one AAC track.
+ * <p>
+ * With an {@link EncodeJournal} each checkpoint of the writer is recorded, and if the
+ * journal already holds one the file is cut back to it and written on from there: the
+ * encoder must then start again at the checkpoint's frame, with the same parameter sets.
+ * Resuming is video only.
+ */
+public class FragmentedMp4Muxer implements VideoMuxer {
+    private static final String TAG = "FragmentedMp4Muxer";
+
+    private final RandomAccessFile mFile;
+    private final FragmentedMp4Writer mWriter;
+    private final EncodeJournal mJournal;
+    private final EncodeJournal.Checkpoint mResumeFrom;
+    private MediaFormat mFormat;
+    private boolean mHasAudio;
+
+    public FragmentedMp4Muxer(String path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * @param journal where to record checkpoints, and where to find the one to resume from;
+     *                may be null
+     */
+    public FragmentedMp4Muxer(String path, EncodeJournal journal) throws IOException {
+        mFile = new RandomAccessFile(path, "rw");
+        mWriter = new FragmentedMp4Writer(mFile.getChannel());
+        mJournal = journal;
+
+        EncodeJournal.Checkpoint checkpoint =
+                journal != null ? journal.getLastCheckpoint() : null;
+        if (checkpoint != null && mFile.length() < checkpoint.fileOffset) {
+            Log.w(TAG, "file shorter than " + checkpoint + ", starting over");
+            journal.reset();
+            checkpoint = null;
+        }
+        if (checkpoint != null) {
+            mFile.setLength(checkpoint.fileOffset);
+            mFile.seek(checkpoint.fileOffset);
+        } else {
+            mFile.setLength(0);
+        }
+        mResumeFrom = checkpoint;
+
+        if (journal != null) {
+            mWriter.setCheckpointListener(new FragmentedMp4Writer.CheckpointListener() {
+                @Override
+                public void onCheckpoint(int sequence, int videoSamples, long nextVideoTimeUs,
+                                         long fileOffset) throws IOException {
+                    mJournal.append(new EncodeJournal.Checkpoint(sequence, videoSamples,
+                            nextVideoTimeUs, fileOffset));
+                }
+            });
+        }
+    }
+
+    /**
+     * The checkpoint the file was cut back to, or null if it is written from the start.
+     * The first frame written must be its {@link EncodeJournal.Checkpoint#frameCount
+     * frameCount}th, a sync frame.
+     */
+    public EncodeJournal.Checkpoint getResumePoint() {
+        return mResumeFrom;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (MediaFormat.MIMETYPE_AUDIO_AAC.equals(mime)) {
+            if (mHasAudio) {
+                throw new IllegalStateException("only one audio track is supported");
+            }
+            if (mResumeFrom != null) {
+                throw new IllegalStateException("can't resume with an audio track");
+            }
+            mHasAudio = true;
+            return mWriter.addAudioTrack(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                    toArray(format.getByteBuffer("csd-0")));
+        }
+        if (!MediaFormat.MIMETYPE_VIDEO_AVC.equals(mime)) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        if (mFormat != null) {
+            throw new IllegalStateException("only one video track is supported");
+        }
+        mFormat = format;
+        return FragmentedMp4Writer.VIDEO_TRACK;
+    }
+
+    @Override
+    public void start() {
+        if (mFormat == null) {
+            throw new IllegalStateException("no video track added");
+        }
+        byte[] sps = toArray(mFormat.getByteBuffer("csd-0"));
+        byte[] pps = toArray(mFormat.getByteBuffer("csd-1"));
+        try {
+            if (mResumeFrom != null) {
+                // the fragments on disk refer to the parameter sets in the header
+                if (!mJournal.matches(sps, pps)) {
+                    // the next attempt starts over
+                    mJournal.reset();
+                    throw new IllegalStateException("encoder config changed, can't resume");
+                }
+                mWriter.resume(mResumeFrom.sequence, mResumeFrom.frameCount);
+                return;
+            }
+            mWriter.start(mFormat.getInteger(MediaFormat.KEY_WIDTH),
+                    mFormat.getInteger(MediaFormat.KEY_HEIGHT), sps, pps);
+            if (mJournal != null) {
+                mJournal.begin(sps, pps);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("writing header failed", ioe);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        try {
+            mWriter.writeSample(trackIndex, data, info.presentationTimeUs,
+                    (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException ioe) {
+            throw new RuntimeException("writing sample failed", ioe);
+        }
+    }
+
+    @Override
+    public void endTrack(int trackIndex, long endTimeUs) {
+        mWriter.endTrack(trackIndex, endTimeUs);
+    }
+
+    @Override
+    public void stop() {
+        try {
+            mWriter.finish();
+        } catch (IOException ioe) {
+            throw new RuntimeException("writing last fragment failed", ioe);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            mFile.close();
+        } catch (IOException ioe) {
+            Log.w(TAG, "close failed", ioe);
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("format has no codec config data");
+        }
+        ByteBuffer copy = buffer.duplicate();
+        copy.rewind();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return bytes;
+    }
+}
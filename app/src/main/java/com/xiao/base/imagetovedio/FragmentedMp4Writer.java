@@ -0,0 +1,702 @@
+package com.xiao.base.imagetovedio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes an H.264 track, and optionally an AAC track, as a fragmented MP4 (ISO BMFF with
+ * movie fragments).
+ * <p>
+ * {@link #start} writes {@code ftyp} and a {@code moov} with empty sample tables.  Samples are
+ * then collected into a fragment, which is written as a {@code moof}/{@code mdat} pair before
+ * every video sync sample (and whenever the pending data exceeds MAX_FRAGMENT_BYTES).  The
+ * audio samples that arrived meanwhile go into the same fragment, after the video.  Only one
+ * fragment is held in memory at a time, and everything before it on disk is a complete,
+ * playable file.
+ * <p>
+ * Video samples are Annex B access units, as MediaCodec produces them; they are stored with
+ * four-byte length prefixes.  They must arrive in presentation order (no B-frames), since
+ * no composition offsets are written.  Audio samples are raw AAC frames.  Each sample lasts
+ * until the next one of its track, and the last one until the time given to
+ * {@link #endTrack}.  Plain Java, so it can be tested on the JVM.
+ * <p>
+ * Each fragment closed by a video sync sample is a checkpoint: with a
+ * {@link CheckpointListener} the caller can note where it ends, and after a crash cut the
+ * file back to it and {@link #resume} writing there, from that sync sample on.
+ */
+public class FragmentedMp4Writer {
+    /** Media timescale, in ticks per second. */
+    public static final int TIMESCALE = 90000;
+    public static final int VIDEO_TRACK = 0;
+    public static final int AUDIO_TRACK = 1;
+    private static final int MAX_FRAGMENT_BYTES = 4 << 20;
+    // duration of the last sample when there is no previous one to copy: a frame at 30 fps,
+    // one AAC frame
+    private static final long DEFAULT_VIDEO_DURATION = TIMESCALE / 30;
+    private static final long DEFAULT_AUDIO_DURATION = 1024;
+
+    // trun sample_flags: sample_depends_on, sample_is_non_sync_sample
+    private static final int SYNC_SAMPLE_FLAGS = 0x02000000;
+    private static final int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_SAMPLE_DURATION = 0x000100;
+    private static final int TRUN_SAMPLE_SIZE = 0x000200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x000400;
+
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int NAL_AUD = 9;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final FileChannel mChannel;
+    private final Track[] mTracks = new Track[2];
+    private boolean mStarted;
+    private int mSequence;
+    private ByteBuffer mHeader = ByteBuffer.allocate(1024);
+
+    // AAC track settings, when there is one
+    private int mSampleRate;
+    private int mChannelCount;
+    private byte[] mAudioConfig;
+
+    private int mFragments;
+    private int mSamples;
+    // video samples in the fragments written so far
+    private int mVideoSamplesWritten;
+    private CheckpointListener mCheckpointListener;
+
+    /**
+     * Told each time a fragment closed by a video sync sample has been written: the point
+     * from which an interrupted file can be {@link #resume resumed}.
+     */
+    public interface CheckpointListener {
+        /**
+         * @param sequence        fragments in the file so far
+         * @param videoSamples    video samples in them
+         * @param nextVideoTimeUs presentation time of the sync sample that starts the next
+         *                        fragment
+         * @param fileOffset      position of the channel, at the end of the fragment
+         */
+        void onCheckpoint(int sequence, int videoSamples, long nextVideoTimeUs,
+                          long fileOffset) throws IOException;
+    }
+
+    /**
+     * The pending fragment of one track: sample data, and per-sample size, time, sync.
+     */
+    private static class Track {
+        final int id;
+        final int timescale;
+        ByteBuffer data;
+        int[] sizes = new int[64];
+        long[] times = new long[64];
+        boolean[] sync = new boolean[64];
+        int count;
+        long lastDuration;
+        // where the track ends, set once its last sample is in; -1 until then
+        long endTime = -1;
+        int dataOffsetPosition;
+
+        Track(int id, int timescale, int capacity, long defaultDuration) {
+            this.id = id;
+            this.timescale = timescale;
+            data = ByteBuffer.allocate(capacity);
+            lastDuration = defaultDuration;
+        }
+
+        long toTicks(long timeUs) {
+            return (timeUs * timescale + 500000L) / 1000000L;
+        }
+
+        void add(int size, long time, boolean isSync) {
+            if (count == sizes.length) {
+                int capacity = count * 2;
+                sizes = Arrays.copyOf(sizes, capacity);
+                times = Arrays.copyOf(times, capacity);
+                sync = Arrays.copyOf(sync, capacity);
+            }
+            sizes[count] = size;
+            times[count] = time;
+            sync[count] = isSync;
+            count++;
+        }
+
+        void ensureRemaining(int bytes) {
+            if (data.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(data.capacity() * 2, data.position() + bytes));
+                data.flip();
+                grown.put(data);
+                data = grown;
+            }
+        }
+    }
+
+    public FragmentedMp4Writer(FileChannel channel) {
+        mChannel = channel;
+    }
+
+    public void setCheckpointListener(CheckpointListener listener) {
+        mCheckpointListener = listener;
+    }
+
+    /**
+     * Adds an AAC track.  Must be called before {@link #start}.
+     *
+     * @param audioSpecificConfig the AudioSpecificConfig, MediaFormat's csd-0
+     * @return the track's index, {@link #AUDIO_TRACK}
+     */
+    public int addAudioTrack(int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        if (mStarted) {
+            throw new IllegalStateException("already started");
+        }
+        if (mAudioConfig != null) {
+            throw new IllegalStateException("only one audio track is supported");
+        }
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mAudioConfig = audioSpecificConfig;
+        return AUDIO_TRACK;
+    }
+
+    /**
+     * Writes the file header.  sps and pps may carry an Annex B start code.
+     */
+    public void start(int width, int height, byte[] sps, byte[] pps) throws IOException {
+        if (mStarted) {
+            throw new IllegalStateException("already started");
+        }
+        sps = stripStartCode(sps);
+        pps = stripStartCode(pps);
+        if (sps.length < 4 || pps.length == 0) {
+            throw new IllegalArgumentException("bad parameter sets");
+        }
+        int trackCount = mAudioConfig != null ? 2 : 1;
+
+        ByteBuffer b = ByteBuffer.allocate(2048 + sps.length + pps.length
+                + (mAudioConfig != null ? mAudioConfig.length : 0));
+        int ftyp = begin(b, "ftyp");
+        putType(b, "isom");
+        b.putInt(0x200);
+        putType(b, "isom");
+        putType(b, "iso6");
+        putType(b, "avc1");
+        putType(b, "mp41");
+        end(b, ftyp);
+
+        int moov = begin(b, "moov");
+        int mvhd = beginFull(b, "mvhd", 0, 0);
+        b.putInt(0).putInt(0);              // creation, modification time
+        b.putInt(TIMESCALE);
+        b.putInt(0);                        // duration: unknown, it's in the fragments
+        b.putInt(0x00010000);               // rate 1.0
+        b.putShort((short) 0x0100);         // volume 1.0
+        b.put(new byte[10]);
+        putMatrix(b);
+        b.put(new byte[24]);
+        b.putInt(trackCount + 1);           // next_track_ID
+        end(b, mvhd);
+
+        putVideoTrak(b, width, height, sps, pps);
+        if (mAudioConfig != null) {
+            putAudioTrak(b);
+        }
+
+        int mvex = begin(b, "mvex");
+        for (int i = 0; i < trackCount; i++) {
+            int trex = beginFull(b, "trex", 0, 0);
+            b.putInt(i + 1);                // track_ID
+            b.putInt(1);                    // default_sample_description_index
+            b.putInt(0).putInt(0).putInt(0);    // default duration, size, flags
+            end(b, trex);
+        }
+        end(b, mvex);
+        end(b, moov);
+
+        b.flip();
+        writeFully(b);
+        createTracks();
+    }
+
+    /**
+     * Instead of {@link #start}: goes on with a file cut back to a checkpoint, whose values
+     * are given here.  The channel must be positioned at the checkpoint's offset, and the
+     * first sample written must be the video sync sample the checkpoint reported.  Video only.
+     */
+    public void resume(int sequence, int videoSamples) {
+        if (mStarted) {
+            throw new IllegalStateException("already started");
+        }
+        if (mAudioConfig != null) {
+            throw new IllegalStateException("can't resume with an audio track");
+        }
+        mSequence = sequence;
+        mVideoSamplesWritten = videoSamples;
+        createTracks();
+    }
+
+    private void createTracks() {
+        mTracks[VIDEO_TRACK] = new Track(VIDEO_TRACK + 1, TIMESCALE, 256 * 1024,
+                DEFAULT_VIDEO_DURATION);
+        if (mAudioConfig != null) {
+            mTracks[AUDIO_TRACK] = new Track(AUDIO_TRACK + 1, mSampleRate, 16 * 1024,
+                    DEFAULT_AUDIO_DURATION);
+        }
+        mStarted = true;
+    }
+
+    private static void putVideoTrak(ByteBuffer b, int width, int height,
+                                     byte[] sps, byte[] pps) {
+        int trak = begin(b, "trak");
+        putTkhd(b, VIDEO_TRACK + 1, 0, width, height);
+
+        int mdia = begin(b, "mdia");
+        putMdhd(b, TIMESCALE);
+        putHdlr(b, "vide", "VideoHandler");
+
+        int minf = begin(b, "minf");
+        int vmhd = beginFull(b, "vmhd", 0, 0x1);
+        b.put(new byte[8]);                 // graphicsmode, opcolor
+        end(b, vmhd);
+        putDinf(b);
+
+        int stbl = begin(b, "stbl");
+        int stsd = beginFull(b, "stsd", 0, 0);
+        b.putInt(1);
+        int avc1 = begin(b, "avc1");
+        b.put(new byte[6]);
+        b.putShort((short) 1);              // data_reference_index
+        b.put(new byte[16]);
+        b.putShort((short) width).putShort((short) height);
+        b.putInt(0x00480000).putInt(0x00480000);    // 72 dpi
+        b.putInt(0);
+        b.putShort((short) 1);              // frame_count
+        b.put(new byte[32]);                // compressorname
+        b.putShort((short) 0x0018);         // depth
+        b.putShort((short) -1);
+        int avcC = begin(b, "avcC");
+        b.put((byte) 1);                    // configurationVersion
+        b.put(sps[1]).put(sps[2]).put(sps[3]);      // profile, compatibility, level
+        b.put((byte) 0xff);                 // 4-byte NAL lengths
+        b.put((byte) 0xe1);                 // one SPS
+        b.putShort((short) sps.length).put(sps);
+        b.put((byte) 1);                    // one PPS
+        b.putShort((short) pps.length).put(pps);
+        end(b, avcC);
+        end(b, avc1);
+        end(b, stsd);
+        putEmptySampleTables(b);
+        end(b, stbl);
+        end(b, minf);
+        end(b, mdia);
+        end(b, trak);
+    }
+
+    private void putAudioTrak(ByteBuffer b) {
+        int trak = begin(b, "trak");
+        putTkhd(b, AUDIO_TRACK + 1, 0x0100, 0, 0);
+
+        int mdia = begin(b, "mdia");
+        putMdhd(b, mSampleRate);
+        putHdlr(b, "soun", "SoundHandler");
+
+        int minf = begin(b, "minf");
+        int smhd = beginFull(b, "smhd", 0, 0);
+        b.putInt(0);                        // balance, reserved
+        end(b, smhd);
+        putDinf(b);
+
+        int stbl = begin(b, "stbl");
+        int stsd = beginFull(b, "stsd", 0, 0);
+        b.putInt(1);
+        int mp4a = begin(b, "mp4a");
+        b.put(new byte[6]);
+        b.putShort((short) 1);              // data_reference_index
+        b.put(new byte[8]);
+        b.putShort((short) mChannelCount);
+        b.putShort((short) 16);             // samplesize
+        b.putInt(0);                        // pre_defined, reserved
+        b.putInt(mSampleRate << 16);
+        int esds = beginFull(b, "esds", 0, 0);
+        int config = mAudioConfig.length;
+        b.put((byte) 0x03).put((byte) (23 + config));      // ES_Descriptor
+        b.putShort((short) 0);              // ES_ID
+        b.put((byte) 0);                    // flags, stream priority
+        b.put((byte) 0x04).put((byte) (15 + config));      // DecoderConfigDescriptor
+        b.put((byte) 0x40);                 // MPEG-4 audio
+        b.put((byte) 0x15);                 // audio stream
+        b.put(new byte[3]);                 // bufferSizeDB
+        b.putInt(0).putInt(0);              // max, average bitrate: unknown
+        b.put((byte) 0x05).put((byte) config);             // DecoderSpecificInfo
+        b.put(mAudioConfig);
+        b.put((byte) 0x06).put((byte) 1).put((byte) 0x02); // SLConfigDescriptor: MP4
+        end(b, esds);
+        end(b, mp4a);
+        end(b, stsd);
+        putEmptySampleTables(b);
+        end(b, stbl);
+        end(b, minf);
+        end(b, mdia);
+        end(b, trak);
+    }
+
+    private static void putTkhd(ByteBuffer b, int trackId, int volume, int width, int height) {
+        int tkhd = beginFull(b, "tkhd", 0, 0x3);    // enabled, in movie
+        b.putInt(0).putInt(0);
+        b.putInt(trackId);
+        b.putInt(0);
+        b.putInt(0);                        // duration
+        b.put(new byte[8]);
+        b.putShort((short) 0).putShort((short) 0);  // layer, alternate_group
+        b.putShort((short) volume).putShort((short) 0);
+        putMatrix(b);
+        b.putInt(width << 16).putInt(height << 16);
+        end(b, tkhd);
+    }
+
+    private static void putMdhd(ByteBuffer b, int timescale) {
+        int mdhd = beginFull(b, "mdhd", 0, 0);
+        b.putInt(0).putInt(0);
+        b.putInt(timescale);
+        b.putInt(0);
+        b.putShort((short) 0x55c4);         // language "und"
+        b.putShort((short) 0);
+        end(b, mdhd);
+    }
+
+    private static void putHdlr(ByteBuffer b, String handler, String name) {
+        int hdlr = beginFull(b, "hdlr", 0, 0);
+        b.putInt(0);
+        putType(b, handler);
+        b.put(new byte[12]);
+        b.put(name.getBytes(ASCII)).put((byte) 0);
+        end(b, hdlr);
+    }
+
+    private static void putDinf(ByteBuffer b) {
+        int dinf = begin(b, "dinf");
+        int dref = beginFull(b, "dref", 0, 0);
+        b.putInt(1);
+        end(b, beginFull(b, "url ", 0, 0x1));      // media is in this file
+        end(b, dref);
+        end(b, dinf);
+    }
+
+    /**
+     * The sample tables are empty; all samples live in the fragments.
+     */
+    private static void putEmptySampleTables(ByteBuffer b) {
+        int stts = beginFull(b, "stts", 0, 0);
+        b.putInt(0);
+        end(b, stts);
+        int stsc = beginFull(b, "stsc", 0, 0);
+        b.putInt(0);
+        end(b, stsc);
+        int stsz = beginFull(b, "stsz", 0, 0);
+        b.putInt(0).putInt(0);
+        end(b, stsz);
+        int stco = beginFull(b, "stco", 0, 0);
+        b.putInt(0);
+        end(b, stco);
+    }
+
+    /**
+     * Adds one video access unit, presented at presentationTimeUs.  Consumes the buffer between
+     * its position and limit.  A sync sample closes the pending fragment and starts a new one.
+     */
+    public void writeSample(ByteBuffer accessUnit, long presentationTimeUs, boolean sync)
+            throws IOException {
+        writeSample(VIDEO_TRACK, accessUnit, presentationTimeUs, sync);
+    }
+
+    /**
+     * Adds one sample to a track: an access unit for {@link #VIDEO_TRACK}, an AAC frame for
+     * {@link #AUDIO_TRACK}.  Samples of each track must come in presentation order.
+     */
+    public void writeSample(int trackIndex, ByteBuffer sample, long presentationTimeUs,
+                            boolean sync) throws IOException {
+        if (!mStarted) {
+            throw new IllegalStateException("not started");
+        }
+        Track track = trackIndex >= 0 && trackIndex < mTracks.length
+                ? mTracks[trackIndex] : null;
+        if (track == null) {
+            throw new IllegalArgumentException("no track " + trackIndex);
+        }
+        if (track.endTime >= 0) {
+            throw new IllegalStateException("track " + trackIndex + " already ended");
+        }
+        long time = track.toTicks(presentationTimeUs);
+        boolean video = trackIndex == VIDEO_TRACK;
+        if (video && sync && track.count > 0) {
+            flushFragment(time);
+            if (mCheckpointListener != null) {
+                mCheckpointListener.onCheckpoint(mSequence, mVideoSamplesWritten,
+                        presentationTimeUs, mChannel.position());
+            }
+        } else if (pendingBytes() + sample.remaining() > MAX_FRAGMENT_BYTES) {
+            flushFragment(video ? time : -1);
+        }
+
+        int size;
+        if (video) {
+            size = appendAnnexB(track, sample);
+        } else {
+            size = sample.remaining();
+            track.ensureRemaining(size);
+            track.data.put(sample);
+        }
+        // every AAC frame decodes on its own, whatever the flags say
+        track.add(size, time, sync || !video);
+        mSamples++;
+    }
+
+    /**
+     * Ends a track at endTimeUs, once its last sample is written: that sample lasts until
+     * then.  Without it, the last sample of a track lasts as long as the one before it, a
+     * guess that is only right at a constant frame rate.
+     */
+    public void endTrack(int trackIndex, long endTimeUs) {
+        if (!mStarted) {
+            throw new IllegalStateException("not started");
+        }
+        Track track = trackIndex >= 0 && trackIndex < mTracks.length
+                ? mTracks[trackIndex] : null;
+        if (track == null) {
+            throw new IllegalArgumentException("no track " + trackIndex);
+        }
+        track.endTime = track.toTicks(endTimeUs);
+    }
+
+    /**
+     * Writes the pending fragment.  The file is complete afterwards; the channel is left open.
+     */
+    public void finish() throws IOException {
+        flushFragment(-1);
+    }
+
+    public int getFragmentCount() {
+        return mFragments;
+    }
+
+    public int getSampleCount() {
+        return mSamples;
+    }
+
+    private int pendingBytes() {
+        int bytes = 0;
+        for (Track track : mTracks) {
+            if (track != null) {
+                bytes += track.data.position();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the pending samples of all tracks as one moof/mdat pair.  nextVideoTime is the
+     * time of the video sample following them, which gives the last one its duration, or -1
+     * if there is none yet.  The last sample of an ended track lasts until its end, and any
+     * other last sample as long as the previous one.
+     */
+    private void flushFragment(long nextVideoTime) throws IOException {
+        int needed = 128;
+        int tracks = 0;
+        for (Track track : mTracks) {
+            if (track != null && track.count > 0) {
+                needed += 64 + 12 * track.count;
+                tracks++;
+            }
+        }
+        if (tracks == 0) {
+            return;
+        }
+        if (mHeader.capacity() < needed) {
+            mHeader = ByteBuffer.allocate(needed * 2);
+        }
+        ByteBuffer b = mHeader;
+        b.clear();
+
+        int moof = begin(b, "moof");
+        int mfhd = beginFull(b, "mfhd", 0, 0);
+        b.putInt(++mSequence);
+        end(b, mfhd);
+        for (Track track : mTracks) {
+            if (track == null || track.count == 0) {
+                continue;
+            }
+            int traf = begin(b, "traf");
+            int tfhd = beginFull(b, "tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+            b.putInt(track.id);
+            end(b, tfhd);
+            int tfdt = beginFull(b, "tfdt", 1, 0);
+            b.putLong(track.times[0]);
+            end(b, tfdt);
+            int trun = beginFull(b, "trun", 0, TRUN_DATA_OFFSET | TRUN_SAMPLE_DURATION
+                    | TRUN_SAMPLE_SIZE | TRUN_SAMPLE_FLAGS);
+            b.putInt(track.count);
+            track.dataOffsetPosition = b.position();
+            b.putInt(0);
+            long nextTime = track.id == VIDEO_TRACK + 1 ? nextVideoTime : -1;
+            for (int i = 0; i < track.count; i++) {
+                long duration;
+                if (i + 1 < track.count) {
+                    duration = track.times[i + 1] - track.times[i];
+                } else if (nextTime >= 0) {
+                    duration = nextTime - track.times[i];
+                } else if (track.endTime >= 0) {
+                    duration = track.endTime - track.times[i];
+                } else {
+                    duration = track.lastDuration;
+                }
+                if (duration > 0) {
+                    track.lastDuration = duration;
+                } else {
+                    duration = 1;
+                }
+                b.putInt((int) duration);
+                b.putInt(track.sizes[i]);
+                b.putInt(track.sync[i] ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+            }
+            end(b, trun);
+            end(b, traf);
+        }
+        end(b, moof);
+
+        // each track's samples follow the previous track's in the mdat
+        ByteBuffer[] buffers = new ByteBuffer[tracks + 1];
+        buffers[0] = b;
+        int offset = b.position() + 8;
+        int n = 1;
+        for (Track track : mTracks) {
+            if (track == null || track.count == 0) {
+                continue;
+            }
+            b.putInt(track.dataOffsetPosition, offset);
+            offset += track.data.position();
+            track.data.flip();
+            buffers[n++] = track.data;
+        }
+        b.putInt(offset - b.position());
+        putType(b, "mdat");
+
+        b.flip();
+        writeFully(buffers);
+        if (mTracks[VIDEO_TRACK] != null) {
+            mVideoSamplesWritten += mTracks[VIDEO_TRACK].count;
+        }
+        for (Track track : mTracks) {
+            if (track != null && track.count > 0) {
+                track.data.clear();
+                track.count = 0;
+            }
+        }
+        mFragments++;
+    }
+
+    /**
+     * Copies an Annex B access unit into the track's data as length-prefixed NAL units, dropping
+     * parameter sets and access unit delimiters.  Returns the number of bytes added.
+     */
+    private static int appendAnnexB(Track track, ByteBuffer src) {
+        int limit = src.limit();
+        int start = findStartCode(src, src.position(), limit);
+        int added = 0;
+        if (start < 0) {
+            // no start code: take the buffer as a single NAL unit
+            added = appendNal(track, src, src.position(), limit);
+        }
+        while (start >= 0) {
+            int nalStart = start + 3;
+            int next = findStartCode(src, nalStart, limit);
+            int nalEnd = next < 0 ? limit : next;
+            // trailing zeros belong to the next start code
+            while (nalEnd > nalStart && src.get(nalEnd - 1) == 0) {
+                nalEnd--;
+            }
+            if (nalEnd > nalStart) {
+                int type = src.get(nalStart) & 0x1f;
+                if (type != NAL_SPS && type != NAL_PPS && type != NAL_AUD) {
+                    added += appendNal(track, src, nalStart, nalEnd);
+                }
+            }
+            start = next;
+        }
+        src.position(limit);
+        return added;
+    }
+
+    private static int appendNal(Track track, ByteBuffer src, int from, int to) {
+        int length = to - from;
+        track.ensureRemaining(4 + length);
+        track.data.putInt(length);
+        ByteBuffer nal = src.duplicate();
+        nal.limit(to).position(from);
+        track.data.put(nal);
+        return 4 + length;
+    }
+
+    /**
+     * Returns the index of the next 00 00 01 in [from, to), or -1.
+     */
+    private static int findStartCode(ByteBuffer b, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            if (b.get(i) == 0 && b.get(i + 1) == 0 && b.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static byte[] stripStartCode(byte[] nal) {
+        int i = 0;
+        while (i < nal.length && nal[i] == 0) {
+            i++;
+        }
+        if (i >= 2 && i < nal.length && nal[i] == 1) {
+            return Arrays.copyOfRange(nal, i + 1, nal.length);
+        }
+        return nal;
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        // a gathering write drains the buffers in order, so the last one is drained last
+        ByteBuffer last = buffers[buffers.length - 1];
+        do {
+            mChannel.write(buffers);
+        } while (last.hasRemaining());
+    }
+
+    private static int begin(ByteBuffer b, String type) {
+        int start = b.position();
+        b.putInt(0);
+        putType(b, type);
+        return start;
+    }
+
+    private static int beginFull(ByteBuffer b, String type, int version, int flags) {
+        int start = begin(b, type);
+        b.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private static void end(ByteBuffer b, int start) {
+        b.putInt(start, b.position() - start);
+    }
+
+    private static void putType(ByteBuffer b, String type) {
+        b.put(type.getBytes(ASCII));
+    }
+
+    private static void putMatrix(ByteBuffer b) {
+        b.putInt(0x00010000).putInt(0).putInt(0);
+        b.putInt(0).putInt(0x00010000).putInt(0);
+        b.putInt(0).putInt(0).putInt(0x40000000);
+    }
+}
@@ -0,0 +1,113 @@
+package com.xiao.base.imagetovedio;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes frames ahead of the thread that renders them.
+ * <p>
+ * Worker threads decode up to {@code depth} frames past the one the consumer is currently
+ * drawing, so the EGL thread only has to upload and swap.  Frames are handed out strictly in
+ * order; once the ring is full the workers wait for the consumer to take a frame.
+ */
+public class FramePrefetcher {
+    private static final String TAG = "FramePrefetcher";
+
+    /**
+     * Produces the bitmap for one frame.  Called on a worker thread.
+     */
+    public interface FrameDecoder {
+        Bitmap decode(int frameIndex);
+    }
+
+    private final FrameDecoder mDecoder;
+    private final int mFrameCount;
+    private final ExecutorService mExecutor;
+    private final ArrayDeque<Future<Bitmap>> mReady = new ArrayDeque<>();
+    private int mNextToSubmit;
+
+    /**
+     * @param decoder    decodes and scales a single frame
+     * @param frameCount total number of frames that will be requested
+     * @param depth      how many frames may be decoded ahead of the consumer
+     * @param threads    number of decode worker threads
+     */
+    public FramePrefetcher(FrameDecoder decoder, int frameCount, int depth, int threads) {
+        if (depth < 1 || threads < 1) {
+            throw new IllegalArgumentException("depth and threads must be positive");
+        }
+        mDecoder = decoder;
+        mFrameCount = frameCount;
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, TAG + "-" + mCount.getAndIncrement());
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        });
+        while (mNextToSubmit < frameCount && mReady.size() < depth) {
+            submitNext();
+        }
+    }
+
+    /**
+     * Returns the next frame in order, waiting for its decode to finish if needed, and
+     * schedules the decode of the frame {@code depth} steps further on.
+     */
+    public Bitmap next() throws InterruptedException {
+        Future<Bitmap> head = mReady.poll();
+        if (head == null) {
+            throw new IllegalStateException("all " + mFrameCount + " frames already taken");
+        }
+        if (mNextToSubmit < mFrameCount) {
+            submitNext();
+        }
+        try {
+            return head.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("frame decode failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the workers and recycles any frame that was decoded but never taken.
+     */
+    public void release() {
+        mExecutor.shutdownNow();
+        for (Future<Bitmap> pending : mReady) {
+            if (!pending.cancel(true)) {
+                try {
+                    Bitmap bitmap = pending.get();
+                    if (bitmap != null) {
+                        bitmap.recycle();
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "discarding failed prefetch", e);
+                }
+            }
+        }
+        mReady.clear();
+    }
+
+    private void submitNext() {
+        final int frameIndex = mNextToSubmit++;
+        mReady.add(mExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return mDecoder.decode(frameIndex);
+            }
+        }));
+    }
+}
@@ -0,0 +1,130 @@
+package com.xiao.base.imagetovedio;
+
+/**
+ * Walks a {@link Timeline} and yields a frame only where the picture changes: one when each
+ * clip starts, one per 1/frameRate during a transition, and a closing frame halfway through
+ * the last clip.  A still costs one frame however long it is shown, and the output is a
+ * variable frame rate stream.  With the encoder told to end the track at
+ * {@link Timeline#getDurationUs()}, {@link AsyncEncoder#setEndTimeUs}, or a muxer that gives
+ * the last sample the duration of the one before it, the video ends with the timeline, see
+ * {@link FrameTiming#computeClosingTime}.
+ * <p>
+ * Timestamps are computed in long microseconds from the clip times, not accumulated, so they
+ * stay exact for any length.  Use as a cursor: {@link #next()}, then the getters, until next()
+ * returns false.  Allocates nothing per frame.
+ */
+public class FrameScheduler {
+
+    public enum Kind {
+        /** The first frame of clip {@link #getClip()}. */
+        STILL,
+        /** Clip {@link #getClip()} blending into the next, {@link #getProgress()} of the way. */
+        TRANSITION,
+        /** The closing frame, halfway through the last clip and still showing it. */
+        END
+    }
+
+    private final Timeline mTimeline;
+    private final int mFrameRate;
+    private Kind mKind;
+    private int mClip = -1;
+    private int mStep;
+    private long mTimeUs;
+    private float mProgress;
+    private int mFrameIndex = -1;
+
+    /**
+     * @param frameRate rate of the frames inside transitions, in frames per second
+     */
+    public FrameScheduler(Timeline timeline, int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frame rate " + frameRate);
+        }
+        mTimeline = timeline;
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * Moves to the next frame.  Returns false once past the closing frame.
+     */
+    public boolean next() {
+        int clips = mTimeline.getClipCount();
+        if (mKind == Kind.END || clips == 0) {
+            return false;
+        }
+        mFrameIndex++;
+        if (mKind == null) {
+            still(0);
+            return true;
+        }
+
+        Timeline.Clip clip = mTimeline.getClip(mClip);
+        boolean last = mClip + 1 == clips;
+        if (!last && clip.transition != null) {
+            long startUs = clip.getEndUs() - clip.transitionUs;
+            int step = mKind == Kind.STILL ? 1 : mStep + 1;
+            // on the frame rate grid from the start of the transition; the frame at its start
+            // looks like the still
+            long timeUs = startUs + step * 1000000L / mFrameRate;
+            if (timeUs < clip.getEndUs()) {
+                mKind = Kind.TRANSITION;
+                mStep = step;
+                mTimeUs = timeUs;
+                mProgress = (float) (timeUs - startUs) / clip.transitionUs;
+                return true;
+            }
+        }
+        if (!last) {
+            still(mClip + 1);
+        } else {
+            mKind = Kind.END;
+            mTimeUs = FrameTiming.computeClosingTime(clip.startUs, clip.getEndUs());
+            mProgress = 0;
+        }
+        return true;
+    }
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * Clip shown, or blending into the next one.
+     */
+    public int getClip() {
+        return mClip;
+    }
+
+    /**
+     * How far the transition has got, between 0 and 1 exclusive; 0 outside transitions.
+     */
+    public float getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * The transition in progress, or null outside transitions.
+     */
+    public Transition getTransition() {
+        return mKind == Kind.TRANSITION ? mTimeline.getClip(mClip).transition : null;
+    }
+
+    public long getTimeUs() {
+        return mTimeUs;
+    }
+
+    /**
+     * Number of frames before this one.
+     */
+    public int getFrameIndex() {
+        return mFrameIndex;
+    }
+
+    private void still(int clip) {
+        mKind = Kind.STILL;
+        mClip = clip;
+        mStep = 0;
+        mTimeUs = mTimeline.getClip(clip).startUs;
+        mProgress = 0;
+    }
+}
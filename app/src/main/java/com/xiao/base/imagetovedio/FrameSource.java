@@ -0,0 +1,214 @@
+package com.xiao.base.imagetovedio;
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * A sequence of images decoded one at a time, when the encoder asks for the next.
+ * <p>
+ * Only the image being drawn is ever decoded, into a bitmap from {@link BitmapPool}, so
+ * memory use is the same for ten images as for ten thousand.  Sources hold names, URIs or
+ * streams, never pixels.
+ * <p>
+ * Use: while {@link #hasNext()}, {@link #next}, draw the bitmap, hand it back to the pool;
+ * then {@link #close()}.
+ */
+public abstract class FrameSource implements Closeable {
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".bmp"};
+
+    /**
+     * Number of images, or -1 if not known before the end is reached.
+     */
+    public int getCount() {
+        return -1;
+    }
+
+    public abstract boolean hasNext();
+
+    /**
+     * Decodes the next image, through {@link BitmapPool#getShared()}, no smaller than
+     * reqWidth x reqHeight when those are positive.  Put the bitmap back into the pool when
+     * done with it.
+     *
+     * @throws IOException if the image can't be read or decoded
+     */
+    public abstract Bitmap next(BitmapFactory.Options options, int reqWidth, int reqHeight)
+            throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * The image files of a directory, in name order.  Only names are listed up front.
+     */
+    public static FrameSource fromDirectory(File dir) throws IOException {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                String lower = name.toLowerCase(Locale.US);
+                for (String ext : IMAGE_EXTENSIONS) {
+                    if (lower.endsWith(ext)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+        if (names == null) {
+            throw new FileNotFoundException(dir + " is not a readable directory");
+        }
+        Arrays.sort(names);
+        String[] paths = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            paths[i] = new File(dir, names[i]).getPath();
+        }
+        return fromFiles(Arrays.asList(paths));
+    }
+
+    public static FrameSource fromFiles(final List<String> paths) {
+        return new IndexedSource(paths.size()) {
+            @Override
+            Bitmap decode(int index, BitmapFactory.Options options, int reqWidth, int reqHeight)
+                    throws IOException {
+                return BitmapPool.getShared().decodeFile(paths.get(index), options,
+                        reqWidth, reqHeight);
+            }
+
+            @Override
+            String describe(int index) {
+                return paths.get(index);
+            }
+        };
+    }
+
+    /**
+     * Images behind content:// (or file://) URIs, opened one at a time.
+     */
+    public static FrameSource fromUris(final ContentResolver resolver, final List<Uri> uris) {
+        return new IndexedSource(uris.size()) {
+            @Override
+            Bitmap decode(int index, BitmapFactory.Options options, int reqWidth, int reqHeight)
+                    throws IOException {
+                InputStream in = resolver.openInputStream(uris.get(index));
+                if (in == null) {
+                    return null;
+                }
+                try {
+                    return BitmapPool.getShared().decodeStream(in, options, reqWidth, reqHeight);
+                } finally {
+                    in.close();
+                }
+            }
+
+            @Override
+            String describe(int index) {
+                return uris.get(index).toString();
+            }
+        };
+    }
+
+    /**
+     * Drawable resources; what the GL sample feeds in as an int[].
+     */
+    public static FrameSource fromResources(final Resources res, final int[] resIds) {
+        return new IndexedSource(resIds.length) {
+            @Override
+            Bitmap decode(int index, BitmapFactory.Options options, int reqWidth, int reqHeight) {
+                return BitmapPool.getShared().decodeResource(res, resIds[index], options,
+                        reqWidth, reqHeight);
+            }
+
+            @Override
+            String describe(int index) {
+                return "resource 0x" + Integer.toHexString(resIds[index]);
+            }
+        };
+    }
+
+    /**
+     * One image per stream, e.g. as they arrive over the network.  A stream is only pulled
+     * from the iterator when its image is needed, and is closed once decoded; streams never
+     * pulled are left to the iterator.  The count is unknown.
+     */
+    public static FrameSource fromStreams(final Iterator<? extends InputStream> streams) {
+        return new FrameSource() {
+            @Override
+            public boolean hasNext() {
+                return streams.hasNext();
+            }
+
+            @Override
+            public Bitmap next(BitmapFactory.Options options, int reqWidth, int reqHeight)
+                    throws IOException {
+                InputStream in = streams.next();
+                try {
+                    Bitmap bitmap = BitmapPool.getShared().decodeStream(in, options,
+                            reqWidth, reqHeight);
+                    if (bitmap == null) {
+                        throw new IOException("can't decode image from stream");
+                    }
+                    return bitmap;
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Source over a known number of images, addressed by index.
+     */
+    private abstract static class IndexedSource extends FrameSource {
+        private final int mCount;
+        private int mNext;
+
+        IndexedSource(int count) {
+            mCount = count;
+        }
+
+        abstract Bitmap decode(int index, BitmapFactory.Options options,
+                               int reqWidth, int reqHeight) throws IOException;
+
+        abstract String describe(int index);
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mCount;
+        }
+
+        @Override
+        public Bitmap next(BitmapFactory.Options options, int reqWidth, int reqHeight)
+                throws IOException {
+            if (mNext >= mCount) {
+                throw new NoSuchElementException();
+            }
+            int index = mNext++;
+            Bitmap bitmap = decode(index, options, reqWidth, reqHeight);
+            if (bitmap == null) {
+                throw new IOException("can't decode " + describe(index));
+            }
+            return bitmap;
+        }
+    }
+}
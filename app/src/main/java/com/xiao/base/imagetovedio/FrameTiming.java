@@ -0,0 +1,127 @@
+package com.xiao.base.imagetovedio;
+
+import java.util.Arrays;
+
+/**
+ * When the frames of a slideshow are shown: the arithmetic behind
+ * {@link ImageVideoConverter}'s frame loops, kept free of Android types so it can be
+ * benchmarked on a desktop JVM.
+ */
+final class FrameTiming {
+    private FrameTiming() {
+    }
+
+    /**
+     * Time of frame frameIndex at a constant frame rate, in microseconds.  In longs: in ints
+     * frameIndex * 1000000 overflows after 2147 frames, 71 seconds at 30 fps.
+     */
+    static long computePresentationTime(int frameIndex, int frameRate) {
+        return frameIndex * 1000000L / frameRate;
+    }
+
+    /**
+     * Frame index at which each slide ends when frames are pushed every 1/frameRate; the last
+     * slide gets the closing frame, so the last entry is the total number of frames.
+     *
+     * @param durations slide durations in seconds
+     */
+    static int[] computeSlideEndFrames(float[] durations, int frameRate) {
+        int[] endFrames = new int[durations.length];
+        float elapsed = 0;
+        for (int i = 0; i < durations.length; i++) {
+            elapsed += durations[i];
+            endFrames[i] = (int)(elapsed * (float)frameRate);
+        }
+        if (durations.length > 0)
+            endFrames[durations.length - 1]++;
+        return endFrames;
+    }
+
+    /**
+     * Frame index at which each slide starts when frames are pushed every 1/frameRate,
+     * followed by the total number of frames.  Every slide gets at least one frame, and the
+     * last one the closing frame, as {@link #computeSlideEndFrames} has it.
+     *
+     * @param durations slide durations in seconds
+     */
+    static int[] computeSlideStartFrames(float[] durations, int frameRate) {
+        int[] endFrames = computeSlideEndFrames(durations, frameRate);
+        int[] startFrames = new int[durations.length + 1];
+        for (int i = 0; i < durations.length; i++) {
+            startFrames[i + 1] = Math.max(startFrames[i] + 1, endFrames[i]);
+        }
+        return startFrames;
+    }
+
+    /**
+     * Cuts a video into at most segments runs of whole slides with about the same number of
+     * frames each.  Returns the frame index at which each run starts, followed by the total.
+     *
+     * @param startFrames the frame at which each slide starts, followed by the total, as
+     *                    from {@link #computeSlideStartFrames}
+     */
+    static int[] splitSegments(int[] startFrames, int segments) {
+        int slides = startFrames.length - 1;
+        int total = startFrames[slides];
+        segments = Math.max(1, Math.min(segments, slides));
+        int[] cuts = new int[segments + 1];
+        int count = 1;
+        int slide = 0;
+        for (int k = 1; k < segments; k++) {
+            long target = (long) total * k / segments;
+            // the first slide boundary at or after the target, past the previous cut
+            while (slide < slides && (startFrames[slide] <= cuts[count - 1]
+                    || startFrames[slide] < target))
+                slide++;
+            if (slide == slides)
+                break;
+            // or the one before it, if that is closer
+            if (startFrames[slide - 1] > cuts[count - 1]
+                    && target - startFrames[slide - 1] < startFrames[slide] - target)
+                slide--;
+            cuts[count++] = startFrames[slide];
+        }
+        cuts[count++] = total;
+        return count == cuts.length ? cuts : Arrays.copyOf(cuts, count);
+    }
+
+    /**
+     * Start time of every slide, followed by the end time of the last one.
+     *
+     * @param durations slide durations in seconds
+     */
+    static long[] computeHoldTimes(float[] durations) {
+        long[] timesUs = new long[durations.length + 1];
+        long elapsedUs = 0;
+        for (int i = 0; i < durations.length; i++) {
+            timesUs[i] = elapsedUs;
+            elapsedUs += (long)(durations[i] * 1000000L);
+        }
+        timesUs[durations.length] = elapsedUs;
+        return timesUs;
+    }
+
+    /**
+     * Time of every frame of a held slideshow: the start of each slide, then the closing
+     * frame, see {@link #computeClosingTime}.
+     *
+     * @param durations slide durations in seconds
+     */
+    static long[] computeHeldFrameTimes(float[] durations) {
+        long[] timesUs = computeHoldTimes(durations);
+        int last = durations.length;
+        if (last > 0)
+            timesUs[last] = computeClosingTime(timesUs[last - 1], timesUs[last]);
+        return timesUs;
+    }
+
+    /**
+     * Time of the closing frame of a still shown from lastUs to endUs: halfway.  A sample
+     * lasts until the next one, so the last sample of a track can only be given its length
+     * by the muxer, from an end time or, failing that, by repeating the length of the sample
+     * before it.  Halfway, the video ends at endUs either way.
+     */
+    static long computeClosingTime(long lastUs, long endUs) {
+        return lastUs + (endUs - lastUs + 1) / 2;
+    }
+}
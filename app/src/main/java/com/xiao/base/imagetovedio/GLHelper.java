@@ -2,24 +2,93 @@ package com.xiao.base.imagetovedio;
 
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.EnumMap;
 
 /**
  * Created by Chenrs on 2018/01/09.
+ * <p>
+ * Geometry, attribute and program state is set up once in {@link #init(int, int)}; a frame
+ * only binds a texture and issues one draw call.  Frames are uploaded into one of two
+ * textures, so {@link #upload(Bitmap)} of frame N+1 can be queued while frame N is still
+ * being drawn and encoded.  On a GLES 3.0 context the upload goes through a pair of pixel
+ * buffer objects, letting the driver copy the pixels to the texture asynchronously;
+ * on GLES 2.0 it falls back to GLUtils.texSubImage2D().
+ * <p>
+ * Frames are uploaded at whatever size they were decoded at.  Fitting them into the output
+ * ({@link ScaleMode}) is done by the vertex shader, through the MVP matrix for letterboxing
+ * and the texture coordinates for cropping.
+ * <p>
+ * The frame shown before the current one stays in its texture, so
+ * {@link #drawTransition(Transition, float)} can blend the two on the GPU.
  */
-
 public class GLHelper {
     private int mProgram;
     private int mPositionHandle;
     private int mTexCoordLoc;
     private int mMatrixLoc;
+    private int mTexScaleLoc;
+    private int mTexOffsetLoc;
     private int mSamplerLoc;
     private int[] mTexIds;
+    // size of what is in each streamed texture
+    private int[][] mTexSizes;
+
+    private int mViewWidth;
+    private int mViewHeight;
+    private ScaleMode mScaleMode = ScaleMode.FIT;
+    private final float[] mMvpMatrix = new float[16];
+    private final float[] mScale = new float[4];
+
+    // vertex / index buffer objects, and the vertex array object on GLES 3.0
+    private int[] mBufferIds;
+    private int[] mVaoIds;
+
+    // GLES 3.0 pixel unpack buffers, one per texture
+    private boolean mUsePbo;
+    private int[] mPboIds;
+    private int[] mPboSizes;
+
+    // index in mTexIds of the most recent streamed upload, and the texture the next draw uses
+    private int mCurrentTex = -1;
+    private int mCurrentTexId;
+    private int mCurrentTexWidth;
+    private int mCurrentTexHeight;
+    // the texture current before it: the outgoing image of a transition
+    private int mPrevTexId;
+    private int mPrevTexWidth;
+    private int mPrevTexHeight;
+    private int mIndexCount;
+
+    private final EnumMap<Transition, TransitionProgram> mTransitionPrograms =
+            new EnumMap<>(Transition.class);
+    private final float[] mFromRect = new float[4];
+    private final float[] mToRect = new float[4];
+
+    /**
+     * A compiled transition and its uniform locations.
+     */
+    private static class TransitionProgram {
+        int program;
+        int fromRectLoc;
+        int toRectLoc;
+        int progressLoc;
+    }
+
+    // attribute locations, the same in every program so they share the vertex setup
+    private static final String[] ATTRIBUTES = {"vPosition", "a_texCoord"};
+    private static final int POSITION_LOC = 0;
+    private static final int TEX_COORD_LOC = 1;
+
+    private static final long DEFAULT_TEXTURE_CACHE_BYTES = 32 * 1024 * 1024;
+    private TextureCache mTextureCache;
 
     private float IDENTITY[] = {
             1.0f, 0.0f, 0.0f, 0.0f,
@@ -28,22 +97,16 @@ public class GLHelper {
             0.0f, 0.0f, 0.0f, 1.0f
     };
 
-    // Geometric variables
-    //private float vertices[];
-    //private short indices[];
-    //private float uvs[];
-    private FloatBuffer vertexBuffer;
-    private ShortBuffer drawListBuffer;
-    private FloatBuffer uvBuffer;
-
     public static final String vs_Image =
             "uniform mat4 uMVPMatrix;" +
+            "uniform vec2 uTexScale;" +
+            "uniform vec2 uTexOffset;" +
             "attribute vec4 vPosition;" +
             "attribute vec2 a_texCoord;" +
             "varying vec2 v_texCoord;" +
             "void main() {" +
             "  gl_Position = uMVPMatrix * vPosition;" +
-            "  v_texCoord = a_texCoord;" +
+            "  v_texCoord = a_texCoord * uTexScale + uTexOffset;" +
             "}";
 
     public static final String fs_Image =
@@ -54,132 +117,338 @@ public class GLHelper {
             "  gl_FragColor = texture2D( s_texture, v_texCoord );" +
             "}";
 
-    private int loadShader(int type, String shaderCode){
-        // create a vertex shader type (GLES20.GL_VERTEX_SHADER)
-        // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-        int shader = GLES20.glCreateShader(type);
-
-        // add the source code to the shader and compile it
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
-
-        // return the shader
-        return shader;
+    public int init(int imgWidth, int imgHeight) {
+        return init(imgWidth, imgHeight, DEFAULT_TEXTURE_CACHE_BYTES);
     }
 
-    public int init(int imgWidth, int imgHeight) {
-        // Create the shaders, images
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vs_Image);
-        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fs_Image);
+    /**
+     * @param textureCacheBytes budget of the cache used by {@link #useCachedTexture(String)}
+     *                          and {@link #uploadToCache(String, Bitmap)}
+     */
+    public int init(int imgWidth, int imgHeight, long textureCacheBytes) {
+        mTextureCache = new TextureCache(textureCacheBytes);
 
-        mProgram = GLES20.glCreateProgram();             // create empty OpenGL ES Program
-        GLES20.glAttachShader(mProgram, vertexShader);   // add the vertex shader to program
-        GLES20.glAttachShader(mProgram, fragmentShader); // add the fragment shader to program
-        GLES20.glLinkProgram(mProgram);                  // creates OpenGL ES program executables
+        // Compiled once per context, or loaded from a stored program binary.
+        mProgram = ProgramCache.getShared().getProgram(vs_Image, fs_Image, ATTRIBUTES);
 
         GLES20.glUseProgram(mProgram);
-        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        mTexCoordLoc = GLES20.glGetAttribLocation(mProgram, "a_texCoord" );
+        mPositionHandle = POSITION_LOC;
+        mTexCoordLoc = TEX_COORD_LOC;
         mMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        mTexScaleLoc = GLES20.glGetUniformLocation(mProgram, "uTexScale");
+        mTexOffsetLoc = GLES20.glGetUniformLocation(mProgram, "uTexOffset");
         mSamplerLoc = GLES20.glGetUniformLocation (mProgram, "s_texture" );
 
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mUsePbo = version != null && version.startsWith("OpenGL ES 3");
+
+        // Interleaved x, y, z, u, v.
         float[] vertices = new float[] {
-                    -1.0f, 1.0f, 0.0f,
-                    -1.0f, -1.0f, 0.0f,
-                    1.0f,  -1.0f, 0.0f,
-                    1.0f,  1.0f, 0.0f
+                    -1.0f, 1.0f, 0.0f,   0.0f, 0.0f,
+                    -1.0f, -1.0f, 0.0f,  0.0f, 1.0f,
+                    1.0f,  -1.0f, 0.0f,  1.0f, 1.0f,
+                    1.0f,  1.0f, 0.0f,   1.0f, 0.0f
                 };
 
         short[] indices = new short[] {0, 1, 2, 0, 2, 3}; // The order
+        mIndexCount = indices.length;
 
-        // The vertex buffer.
         ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * 4);
         bb.order(ByteOrder.nativeOrder());
-        vertexBuffer = bb.asFloatBuffer();
+        FloatBuffer vertexBuffer = bb.asFloatBuffer();
         vertexBuffer.put(vertices);
         vertexBuffer.position(0);
 
-        // initialize byte buffer for the draw list
         ByteBuffer dlb = ByteBuffer.allocateDirect(indices.length * 2);
         dlb.order(ByteOrder.nativeOrder());
-        drawListBuffer = dlb.asShortBuffer();
+        ShortBuffer drawListBuffer = dlb.asShortBuffer();
         drawListBuffer.put(indices);
         drawListBuffer.position(0);
 
-        // Create our UV coordinates.
-        float [] uvs = new float[] {
-                0.0f, 0.0f,
-                0.0f, 1.0f,
-                1.0f, 1.0f,
-                1.0f, 0.0f
-        };
-
-        // The texture buffer
-        ByteBuffer bb2 = ByteBuffer.allocateDirect(uvs.length * 4);
-        bb2.order(ByteOrder.nativeOrder());
-        uvBuffer = bb2.asFloatBuffer();
-        uvBuffer.put(uvs);
-        uvBuffer.position(0);
-
-        // Generate Textures, if more needed, alter these numbers.
-        mTexIds = new int[1];
-        GLES20.glGenTextures(1, mTexIds, 0);
+        if (mUsePbo) {
+            // Everything bound below is recorded in the VAO.
+            mVaoIds = new int[1];
+            GLES30.glGenVertexArrays(1, mVaoIds, 0);
+            GLES30.glBindVertexArray(mVaoIds[0]);
+        }
+
+        mBufferIds = new int[2];
+        GLES20.glGenBuffers(2, mBufferIds, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferIds[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4, vertexBuffer,
+                GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferIds[1]);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, drawListBuffer,
+                GLES20.GL_STATIC_DRAW);
+
+        final int stride = 5 * 4;
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false, stride, 0);
+        GLES20.glEnableVertexAttribArray(mTexCoordLoc);
+        GLES20.glVertexAttribPointer(mTexCoordLoc, 2, GLES20.GL_FLOAT, false, stride, 3 * 4);
+
+        GLES20.glUniformMatrix4fv(mMatrixLoc, 1, false, IDENTITY, 0);
+        GLES20.glUniform2f(mTexScaleLoc, 1f, 1f);
+        GLES20.glUniform2f(mTexOffsetLoc, 0f, 0f);
+        // Set the sampler texture unit to 0, where we keep the frame texture.
+        GLES20.glUniform1i(mSamplerLoc, 0);
+
+        // Two textures, so the next frame can be uploaded while the current one is drawn.
+        mTexIds = new int[2];
+        mTexSizes = new int[2][2];
+        GLES20.glGenTextures(2, mTexIds, 0);
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexIds[0]);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
-                imgWidth, imgHeight, 0,
-                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        for (int i = 0; i < mTexIds.length; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexIds[i]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
+                    imgWidth, imgHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            mTexSizes[i][0] = imgWidth;
+            mTexSizes[i][1] = imgHeight;
+        }
+
+        if (mUsePbo) {
+            mPboIds = new int[2];
+            mPboSizes = new int[2];
+            GLES20.glGenBuffers(2, mPboIds, 0);
+        }
 
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         GLES20.glViewport(0, 0, imgWidth, imgHeight);
+        mViewWidth = imgWidth;
+        mViewHeight = imgHeight;
         return 0;
     }
 
-    public int draw(Bitmap img) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    /**
+     * Sets the size of the surface drawn to, and the viewport, for when the same frames are
+     * drawn to a second surface of another size.  Images are fitted to it.
+     */
+    public void setViewport(int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        mViewWidth = width;
+        mViewHeight = height;
+    }
 
-        GLES20.glUseProgram(mProgram);
+    /**
+     * Sets how frames whose aspect ratio differs from the output are fitted.  Defaults to
+     * {@link ScaleMode#FIT}.
+     */
+    public void setScaleMode(ScaleMode scaleMode) {
+        mScaleMode = scaleMode;
+    }
 
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
+    /**
+     * Uploads a frame into the texture that is not currently being drawn, and makes it the
+     * one {@link #drawUploaded()} uses.  The bitmap may be reused as soon as this returns.
+     */
+    public void upload(Bitmap img) {
+        int next = (mCurrentTex + 1) % mTexIds.length;
 
-        // Prepare the triangle coordinate data
-        GLES20.glVertexAttribPointer(mPositionHandle, 3,
-                GLES20.GL_FLOAT, false,
-                0, vertexBuffer);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexIds[next]);
+        if (mTexSizes[next][0] != img.getWidth() || mTexSizes[next][1] != img.getHeight()) {
+            // a frame of another size: reallocate, the upload below fills it
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
+                    img.getWidth(), img.getHeight(), 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            mTexSizes[next][0] = img.getWidth();
+            mTexSizes[next][1] = img.getHeight();
+        }
+        if (!mUsePbo || !uploadThroughPbo(img, next)) {
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, img);
+        }
+        mCurrentTex = next;
+        setCurrentTexture(mTexIds[next], img.getWidth(), img.getHeight());
+    }
 
-        // Enable generic vertex attribute array
-        GLES20.glEnableVertexAttribArray ( mTexCoordLoc );
+    /**
+     * Makes the texture cached under key the one {@link #drawUploaded()} uses.  Returns false,
+     * leaving the current texture alone, if it is not cached.
+     */
+    public boolean useCachedTexture(String key) {
+        TextureCache.Texture texture = mTextureCache.get(key);
+        if (texture == null) {
+            return false;
+        }
+        setCurrentTexture(texture.texId, texture.width, texture.height);
+        return true;
+    }
 
-        // Prepare the texturecoordinates
-        GLES20.glVertexAttribPointer ( mTexCoordLoc, 2, GLES20.GL_FLOAT,
-                false,
-                0, uvBuffer);
+    /**
+     * Uploads a frame into the texture cache under key and makes it the one
+     * {@link #drawUploaded()} uses.  Frames too large for the cache are streamed through
+     * {@link #upload(Bitmap)} instead.
+     */
+    public void uploadToCache(String key, Bitmap img) {
+        TextureCache.Texture texture = mTextureCache.put(key, img);
+        if (texture == null) {
+            upload(img);
+        } else {
+            setCurrentTexture(texture.texId, texture.width, texture.height);
+        }
+    }
 
-        GLES20.glUniformMatrix4fv(mMatrixLoc, 1, false, IDENTITY, 0);
+    private void setCurrentTexture(int texId, int width, int height) {
+        mPrevTexId = mCurrentTexId;
+        mPrevTexWidth = mCurrentTexWidth;
+        mPrevTexHeight = mCurrentTexHeight;
+        mCurrentTexId = texId;
+        mCurrentTexWidth = width;
+        mCurrentTexHeight = height;
+    }
+
+    public TextureCache getTextureCache() {
+        return mTextureCache;
+    }
+
+    /**
+     * Deletes the textures held by the cache.  Call with the GL context current.  Programs
+     * belong to {@link ProgramCache} and outlive this object.
+     */
+    public void release() {
+        if (mTextureCache != null) {
+            mTextureCache.release();
+        }
+        mTransitionPrograms.clear();
+    }
+
+    /**
+     * Draws the most recently uploaded frame.
+     */
+    public int drawUploaded() {
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexIds[0]);
-        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0,
-                            img);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mCurrentTexId);
+
+        // Letterbox by shrinking the quad, crop by narrowing the sampled texture range.
+        mScaleMode.computeScale(mCurrentTexWidth, mCurrentTexHeight,
+                mViewWidth, mViewHeight, mScale);
+        System.arraycopy(IDENTITY, 0, mMvpMatrix, 0, 16);
+        mMvpMatrix[0] = mScale[0];
+        mMvpMatrix[5] = mScale[1];
+        GLES20.glUniformMatrix4fv(mMatrixLoc, 1, false, mMvpMatrix, 0);
+        GLES20.glUniform2f(mTexScaleLoc, mScale[2], mScale[3]);
+        GLES20.glUniform2f(mTexOffsetLoc, (1f - mScale[2]) / 2f, (1f - mScale[3]) / 2f);
+
+        // Draw the quad
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+
+        return 0;
+    }
+
+    public int draw(Bitmap img) {
+        upload(img);
+        return drawUploaded();
+    }
 
-        // Set the sampler texture unit to 0, where we have saved the texture.
-        GLES20.glUniform1i ( mSamplerLoc, 0);
+    /**
+     * Draws one frame of a transition from the previous frame's texture to the current one
+     * (the last two set by {@link #upload(Bitmap)}, {@link #uploadToCache(String, Bitmap)} or
+     * {@link #useCachedTexture(String)}).  progress runs from 0, the previous image, to 1,
+     * the current one.  Both are fitted with the current {@link ScaleMode}.
+     * <p>
+     * The previous texture has to survive the upload of the current one: with the texture
+     * cache that means a budget of at least two images.
+     */
+    public int drawTransition(Transition transition, float progress) {
+        TransitionProgram tp = mTransitionPrograms.get(transition);
+        if (tp == null) {
+            tp = createTransitionProgram(transition);
+            mTransitionPrograms.put(transition, tp);
+        }
+        GLES20.glUseProgram(tp.program);
 
-        // Draw the triangle
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, vertexBuffer.limit(),
-                GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPrevTexId);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mCurrentTexId);
 
-        // Disable vertex array
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
-        GLES20.glDisableVertexAttribArray(mTexCoordLoc);
+        computeFitRect(mPrevTexWidth, mPrevTexHeight, mFromRect);
+        computeFitRect(mCurrentTexWidth, mCurrentTexHeight, mToRect);
+        GLES20.glUniform4fv(tp.fromRectLoc, 1, mFromRect, 0);
+        GLES20.glUniform4fv(tp.toRectLoc, 1, mToRect, 0);
+        GLES20.glUniform1f(tp.progressLoc, Math.max(0f, Math.min(1f, progress)));
 
-        GLES20.glUseProgram(0);
+        // every pixel is written, no clear needed
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+                GLES20.GL_UNSIGNED_SHORT, 0);
 
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glUseProgram(mProgram);
         return 0;
     }
+
+    /**
+     * Computes the mapping from frame position (0..1) to texture coordinates that fits a
+     * width x height image into the output with the current ScaleMode: {scaleX, scaleY,
+     * offsetX, offsetY}.
+     */
+    private void computeFitRect(int width, int height, float[] rect) {
+        mScaleMode.computeScale(width, height, mViewWidth, mViewHeight, mScale);
+        for (int i = 0; i < 2; i++) {
+            float frame = mScale[i];
+            float source = mScale[i + 2];
+            rect[i] = source / frame;
+            rect[i + 2] = (1f - source) / 2f - (1f - frame) / 2f * rect[i];
+        }
+    }
+
+    private TransitionProgram createTransitionProgram(Transition transition) {
+        TransitionProgram tp = new TransitionProgram();
+        // Same attribute locations as the image program, so the attribute setup made in
+        // init() (and recorded in the VAO) serves both.
+        tp.program = ProgramCache.getShared().getProgram(Transition.VERTEX_SHADER,
+                transition.getFragmentShader(), ATTRIBUTES);
+
+        GLES20.glUseProgram(tp.program);
+        tp.fromRectLoc = GLES20.glGetUniformLocation(tp.program, "uFromRect");
+        tp.toRectLoc = GLES20.glGetUniformLocation(tp.program, "uToRect");
+        tp.progressLoc = GLES20.glGetUniformLocation(tp.program, "uProgress");
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(tp.program, "uFrom"), 0);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(tp.program, "uTo"), 1);
+        return tp;
+    }
+
+    /**
+     * Copies the bitmap into the pixel buffer paired with texture {@code index} and starts
+     * the buffer-to-texture transfer.  Returns false if the caller has to upload the bitmap
+     * some other way.
+     */
+    private boolean uploadThroughPbo(Bitmap img, int index) {
+        // Bitmap ARGB_8888 is laid out as RGBA bytes, matching the texture's format; other
+        // configs would need a conversion that GLUtils already does for us.
+        if (img.getConfig() != Bitmap.Config.ARGB_8888) {
+            return false;
+        }
+
+        int size = img.getByteCount();
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mPboIds[index]);
+        if (mPboSizes[index] < size) {
+            GLES20.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, size, null, GLES20.GL_STREAM_DRAW);
+            mPboSizes[index] = size;
+        }
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            return false;
+        }
+        img.copyPixelsToBuffer(mapped);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+
+        // With a PBO bound the pixel pointer is an offset into it, not client memory.  The
+        // Java bindings have no offset overload for this call; null is offset 0.
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, img.getWidth(), img.getHeight(),
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        return true;
+    }
 }
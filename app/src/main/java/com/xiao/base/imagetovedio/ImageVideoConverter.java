@@ -7,319 +7,1041 @@ package com.xiao.base.imagetovedio;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.util.Log;
+import android.util.Size;
 import android.view.Surface;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ImageVideoConverter {
     private static final String TAG = "ImageVideoConverter";
     private static final String OUTPUT_MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
-    private static final int TIMEOUT_USEC = 10000;
     private static final int frameRate = 30;
-    private static final int bitrate = 700000;
     private static final int keyFrameInternal = 1;
 
+    /**
+     * Reports encode progress.  Called on the encoding thread.  framesTotal is -1 while the
+     * total isn't known (a {@link FrameSource} of unknown length).
+     */
+    public interface ProgressListener {
+        void onProgress(int framesDone, int framesTotal);
+    }
+
+    /**
+     * Optional settings of {@link #convertImagesToVideo(List, int, int, String, Options)}.
+     * Modelled on BitmapFactory.Options: create one, set the fields you need, pass it in.
+     */
+    public static class Options {
+        /**
+         * Encode each slide once and let its sample last for the whole slide, see
+         * {@link #convertImagesToVideo(List, int, int, String, boolean)}.
+         */
+        public boolean holdFrames;
+        /**
+         * Write a fragmented MP4 ({@link FragmentedMp4Muxer}) instead of using MediaMuxer.
+         * Memory use stays flat however long the video, and an interrupted encode still
+         * leaves a playable file.
+         */
+        public boolean fragmentedMp4;
+        /**
+         * Keep a journal next to the output ({@link EncodeJournal}, the output path plus
+         * ".journal") so that an encode that was killed or cancelled goes on from its last
+         * complete GOP when started again with the same slides and settings.  Implies
+         * fragmentedMp4.  The journal is deleted once the video is complete.  A cancelled
+         * {@link VideoJobScheduler.Job} keeps its partial output and journal for this, unless
+         * {@link VideoJobScheduler.Job#discard() discarded}.  Only slides given as file paths,
+         * without a soundtrack, can be resumed; otherwise this is ignored.
+         */
+        public boolean resumable;
+        /**
+         * Split the slideshow at slide boundaries into up to this many segments, encode them
+         * at the same time on encoders of their own, and join them into the output without
+         * re-encoding.  Capped by {@link VideoJobScheduler#getMaxEncoderInstances}; 0 or 1
+         * encodes serially.  Segments are spooled to files next to the output until joined.
+         * Ignored for resumable encodes and {@link FrameSource}s.
+         */
+        public int parallelSegments;
+        /**
+         * Target bitrate in bits per second.  0 lets {@link EncoderProbe} choose: constant
+         * quality where the encoder supports it, otherwise a rate for the output size.
+         */
+        public int bitRate;
+        /**
+         * Feed the encoder YUV frames through its input buffers ({@link YuvFrameSink})
+         * instead of drawing on its input Surface, for devices whose encoder Surface or
+         * lockCanvas() is broken.  Costs a color conversion per drawn frame.
+         */
+        public boolean yuvInput;
+        /**
+         * Audio or video file whose audio track becomes the video's soundtrack, looped if
+         * shorter than the video and cut at its end.  AAC (MP4/M4A) is copied without
+         * re-encoding; other formats are re-encoded to AAC.  Produced on its own thread while
+         * the video encodes.  null for a silent video.
+         */
+        public String audioPath;
+        public ProgressListener progressListener;
+        /**
+         * Receives per-stage timings, queue depth, bytes written and frame rate as the job
+         * runs, and a {@link EncodeMetrics.Report} at the end.  The report is also logged.
+         */
+        public EncodeMetrics.Listener metricsListener;
+
+        /**
+         * A copy of these options, for a job that changes its own without touching the
+         * caller's, which may be shared with other jobs.
+         */
+        Options copy() {
+            Options copy = new Options();
+            copy.holdFrames = holdFrames;
+            copy.fragmentedMp4 = fragmentedMp4;
+            copy.resumable = resumable;
+            copy.parallelSegments = parallelSegments;
+            copy.bitRate = bitRate;
+            copy.yuvInput = yuvInput;
+            copy.audioPath = audioPath;
+            copy.progressListener = progressListener;
+            copy.metricsListener = metricsListener;
+            return copy;
+        }
+    }
+
+    /**
+     * One still image of a slideshow and how long, in seconds, it stays on screen.
+     * Either a file path (decoded when its turn comes) or an already decoded bitmap;
+     * both are scaled to the output size, according to the slide's {@link ScaleMode},
+     * when drawn.
+     */
+    public static class Slide {
+        final String filePath;
+        final Bitmap bitmap;
+        final float duration;
+        final ScaleMode scaleMode;
+
+        public Slide(String filePath, float duration) {
+            this(filePath, duration, ScaleMode.STRETCH);
+        }
+
+        public Slide(Bitmap bitmap, float duration) {
+            this(bitmap, duration, ScaleMode.STRETCH);
+        }
+
+        public Slide(String filePath, float duration, ScaleMode scaleMode) {
+            this.filePath = filePath;
+            this.bitmap = null;
+            this.duration = duration;
+            this.scaleMode = scaleMode;
+        }
+
+        public Slide(Bitmap bitmap, float duration, ScaleMode scaleMode) {
+            this.filePath = null;
+            this.bitmap = bitmap;
+            this.duration = duration;
+            this.scaleMode = scaleMode;
+        }
+    }
+
     public static void convertImageToVideo(String filePath,
                                            float duration,
                                            int width,
                                            int height,
                                            final String videoFilePath ) {
+        convertImagesToVideo(Collections.singletonList(new Slide(filePath, duration)),
+                width, height, videoFilePath);
+    }
 
-        int nbFrames = (int)(duration * (float)frameRate) + 1;
+    public static void convertImageToVideo(Bitmap frame,
+                                           float duration,
+                                           int width,
+                                           int height,
+                                           final String videoFilePath ) {
+        convertImagesToVideo(Collections.singletonList(new Slide(frame, duration)),
+                width, height, videoFilePath);
+    }
+
+    /**
+     * Encodes a whole slideshow into one file.  A single encoder and muxer are kept for
+     * the entire sequence, and presentation times run on continuously from one slide to
+     * the next.
+     */
+    public static boolean convertImagesToVideo(List<Slide> slides,
+                                               int width,
+                                               int height,
+                                               final String videoFilePath ) {
+        return convertImagesToVideo(slides, width, height, videoFilePath, new Options());
+    }
 
-        MediaMuxer muxer = null;
-        MediaCodec codec = null;
-        boolean muxerStarted = false;
-        boolean codecStarted = false;
-        int videoTrackIndex = -1;
+    /**
+     * Same as {@link #convertImagesToVideo(List, int, int, String)}.  With holdFrames set,
+     * each slide is encoded exactly once as a key frame and its MP4 sample is left to last
+     * until the next slide starts (a variable frame rate stream), so encode time and file
+     * size no longer grow with the slide durations.
+     */
+    public static boolean convertImagesToVideo(List<Slide> slides,
+                                               int width,
+                                               int height,
+                                               final String videoFilePath,
+                                               boolean holdFrames) {
+        Options options = new Options();
+        options.holdFrames = holdFrames;
+        return convertImagesToVideo(slides, width, height, videoFilePath, options);
+    }
+
+    /**
+     * Same as {@link #convertImagesToVideo(List, int, int, String)}, with optional settings.
+     * Interrupting the calling thread cancels the encode.
+     *
+     * @return true if the whole slideshow was written
+     */
+    public static boolean convertImagesToVideo(final List<Slide> slides,
+                                               int width,
+                                               int height,
+                                               final String videoFilePath,
+                                               final Options options) {
+        // Canvas frames carry wall-clock timestamps, so every encoded frame is restamped
+        // from the slide timeline instead.
+        final long durationUs = FrameTiming.computeHoldTimes(durationsOf(slides))[slides.size()];
+        final long[] timesUs = options.holdFrames
+                ? FrameTiming.computeHeldFrameTimes(durationsOf(slides)) : null;
+        return encode(width, height, videoFilePath, options, new EncodeJob() {
+            @Override
+            public long getDurationUs() {
+                return durationUs;
+            }
+
+            @Override
+            public int[] getSlideStartFrames() {
+                if (!options.holdFrames)
+                    return FrameTiming.computeSlideStartFrames(durationsOf(slides), frameRate);
+                // a frame per slide, and the closing frame with the last one
+                int[] startFrames = new int[slides.size() + 1];
+                for (int i = 0; i < startFrames.length; i++)
+                    startFrames[i] = i;
+                if (!slides.isEmpty())
+                    startFrames[slides.size()]++;
+                return startFrames;
+            }
+
+            @Override
+            public String getDescription() {
+                StringBuilder description = new StringBuilder("slides");
+                for (Slide slide : slides) {
+                    // decoded bitmaps can't be told apart from one run to the next
+                    if (slide.filePath == null)
+                        return null;
+                    description.append('\n').append(slide.filePath).append('|')
+                            .append(slide.duration).append('|').append(slide.scaleMode);
+                }
+                return description.toString();
+            }
+
+            @Override
+            public long getPresentationTimeUs(int frameIndex) {
+                if (timesUs != null)
+                    return timesUs[Math.min(frameIndex, timesUs.length - 1)];
+                return FrameTiming.computePresentationTime(frameIndex, frameRate);
+            }
+
+            @Override
+            public void run(AsyncEncoder encoder, FrameSink sink, int firstFrame, int endFrame,
+                            ProgressListener listener, int width, int height,
+                            EncodeMetrics metrics)
+                    throws InterruptedException {
+                if (options.holdFrames) {
+                    encodeHeldSlides(encoder, sink, slides, firstFrame, endFrame,
+                            width, height, listener, metrics);
+                } else {
+                    encodeRepeatedSlides(sink, slides, firstFrame, endFrame,
+                            width, height, listener, metrics);
+                }
+            }
+        });
+    }
 
+    /**
+     * Encodes a sequence of images that each stay on screen for frameDuration seconds.  The
+     * images are decoded one at a time, just before they are drawn, so any number of them
+     * can be encoded in constant memory.  The source is closed when done.  Progress reports a
+     * total of -1 when the source does not know its count.
+     *
+     * @return true if every image was written
+     */
+    public static boolean convertFramesToVideo(final FrameSource source,
+                                               final float frameDuration,
+                                               final ScaleMode scaleMode,
+                                               int width,
+                                               int height,
+                                               final String videoFilePath,
+                                               final Options options) {
+        final long frameUs = (long)(frameDuration * 1000000L);
+        final int count = source.getCount();
+        final int framesPerImage = Math.max(1, Math.round(frameDuration * frameRate));
+        // images taken from the source, each counted before it is drawn
+        final AtomicInteger drawn = new AtomicInteger();
         try {
-            MediaFormat mediaFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, width, height);
+            return encode(width, height, videoFilePath, options, new EncodeJob() {
+                private volatile boolean mDone;
 
-            muxer = new MediaMuxer(videoFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-            codec = MediaCodec.createEncoderByType(OUTPUT_MIME);
+                @Override
+                public long getDurationUs() {
+                    int images = count >= 0 ? count : mDone ? drawn.get() : -1;
+                    if (images < 0)
+                        return -1;
+                    if (options.holdFrames)
+                        return images * frameUs;
+                    return images * framesPerImage * 1000000L / frameRate;
+                }
+
+                @Override
+                public int[] getSlideStartFrames() {
+                    // a source is read once, in order
+                    return null;
+                }
+
+                @Override
+                public String getDescription() {
+                    return null;
+                }
 
-            mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
-            mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
-            mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-            mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameInternal);
+                @Override
+                public long getPresentationTimeUs(int frameIndex) {
+                    if (!options.holdFrames)
+                        return FrameTiming.computePresentationTime(frameIndex, frameRate);
+                    // a frame past the images drawn can only be the closing frame
+                    if (frameIndex > 0 && frameIndex >= drawn.get())
+                        return FrameTiming.computeClosingTime((frameIndex - 1) * frameUs,
+                                frameIndex * frameUs);
+                    return frameIndex * frameUs;
+                }
 
+                @Override
+                public void run(AsyncEncoder encoder, FrameSink sink, int firstFrame,
+                                int endFrame, ProgressListener listener,
+                                int width, int height, EncodeMetrics metrics)
+                        throws InterruptedException, IOException {
+                    encodeSource(encoder, sink, source, frameDuration, scaleMode,
+                            width, height, options.holdFrames, drawn, listener, metrics);
+                    mDone = true;
+                }
+            });
+        } finally {
             try {
-                codec.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            }
-            catch(Exception ce) {
-                Log.e(TAG, ce.getMessage());
+                source.close();
+            } catch (IOException e) {
+                Log.w(TAG, "closing frame source failed", e);
             }
+        }
+    }
 
-            Surface surface = codec.createInputSurface();
-            codec.start();
-            codecStarted = true;
-
-            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
-            int outputBufferIndex;
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            boolean outputDone = false;
-            int nbEncoded = 0;
-
-            Bitmap frame = getBitmapFromImage(filePath, width, height);
-            Canvas canvas = surface.lockCanvas(new Rect(0,0, width, height));
-
-            canvas.drawBitmap(frame, 0, 0, new Paint());
-            surface.unlockCanvasAndPost(canvas);
-
-            while (!outputDone) {
-                canvas = surface.lockCanvas(new Rect(0,0, 0, 0));
-                surface.unlockCanvasAndPost(canvas);
-
-                outputBufferIndex = codec.dequeueOutputBuffer(info, TIMEOUT_USEC);
-                if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // no output available yet
-                    Log.d(TAG, "no output from encoder available");
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    // not expected for an encoder
-                    outputBuffers = codec.getOutputBuffers();
-                    Log.d(TAG, "encoder output buffers changed");
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    if(muxerStarted)
-                        throwException("format changed twice");
-                    MediaFormat newFormat = codec.getOutputFormat();
-                    videoTrackIndex = muxer.addTrack(newFormat);
-                    muxer.start();
-                    muxerStarted = true;
-                } else if (outputBufferIndex < 0) {
-                    throwException("unexpected result from encoder.dequeueOutputBuffer: " + outputBufferIndex);
-                } else { // encoderStatus >= 0
-                    ByteBuffer encodedData = outputBuffers[outputBufferIndex];
-                    if (encodedData == null) {
-                        throwException("encoderOutputBuffer " + outputBufferIndex + " was null");
-                    }
+    /**
+     * What {@link #encode} runs between starting and draining the encoder.
+     */
+    private interface EncodeJob {
+        /**
+         * Length of the video, or -1 until it is known, once all frames are pushed.
+         */
+        long getDurationUs();
 
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // The codec config data was pulled out and fed to the muxer when we got
-                        // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-                        Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
-                        info.size = 0;
-                    }
+        /**
+         * Frame index at which each slide starts, followed by the total number of frames;
+         * null if not known up front.  The job can only be split at these frames.
+         */
+        int[] getSlideStartFrames();
 
-                    if (info.size != 0) {
-                        if (!muxerStarted)
-                            throwException("muxer hasn't started");
+        /**
+         * Everything about the job's input that shapes its frames, to tell whether a journal
+         * belongs to it; null if the job can't be resumed.
+         */
+        String getDescription();
 
-                        info.presentationTimeUs = computePresentationTime(nbEncoded, frameRate);
+        long getPresentationTimeUs(int frameIndex);
 
-                        if(videoTrackIndex == -1)
-                            throwException("video track not set yet");
+        /**
+         * Pushes the job's frames from frame firstFrame up to endFrame, exclusive, or to the
+         * end with Integer.MAX_VALUE.  firstFrame is 0, where a resumed encode left off, or
+         * the start of a segment; it becomes a sync frame.  Progress goes to listener, which
+         * may be null.
+         */
+        void run(AsyncEncoder encoder, FrameSink sink, int firstFrame, int endFrame,
+                 ProgressListener listener, int width, int height, EncodeMetrics metrics)
+                throws InterruptedException, IOException;
+    }
 
-                        muxer.writeSampleData(videoTrackIndex, encodedData, info);
+    /**
+     * Where a job's frames go: the encoder's input Surface, or its input buffers.
+     */
+    interface FrameSink {
+        /**
+         * Draws frame as the next frame, scaled to the output size according to scaleMode.
+         */
+        void drawBitmap(Bitmap frame, ScaleMode scaleMode, EncodeMetrics metrics)
+                throws InterruptedException;
 
-                        nbEncoded++;
+        /**
+         * Posts what was drawn last once more.
+         */
+        void repeatFrame(EncodeMetrics metrics) throws InterruptedException;
 
-                        if(nbEncoded == nbFrames)
-                            outputDone = true;
-                    }
+        void release();
+    }
 
-                    // It's usually necessary to adjust the ByteBuffer values to match BufferInfo.
-                    codec.releaseOutputBuffer(outputBufferIndex, false);
-                }
-            }
+    /**
+     * Draws with the Canvas of the encoder's input Surface.
+     */
+    private static class SurfaceFrameSink implements FrameSink {
+        private final Surface mSurface;
+        private final int mWidth;
+        private final int mHeight;
+        private final Paint mPaint = new Paint();
 
-            if (codec != null) {
-                if (codecStarted) {codec.stop();}
-                codec.release();
-            }
-            if (muxer != null) {
-                if (muxerStarted) {muxer.stop();}
-                muxer.release();
-            }
+        SurfaceFrameSink(Surface surface, int width, int height) {
+            mSurface = surface;
+            mWidth = width;
+            mHeight = height;
+        }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Encoding exception: " + e.toString());
+        @Override
+        public void drawBitmap(Bitmap frame, ScaleMode scaleMode, EncodeMetrics metrics) {
+            // lockCanvas() may wait for the encoder to free a buffer: that counts as submission
+            long t = System.nanoTime();
+            Canvas canvas = mSurface.lockCanvas(new Rect(0,0, mWidth, mHeight));
+            long locked = System.nanoTime();
+            drawScaled(canvas, frame, scaleMode, mWidth, mHeight, mPaint);
+            long drawn = metrics.record(EncodeMetrics.Stage.DRAW, locked);
+            mSurface.unlockCanvasAndPost(canvas);
+            metrics.recordNanos(EncodeMetrics.Stage.SUBMIT,
+                    (locked - t) + (System.nanoTime() - drawn));
+            metrics.frameSubmitted();
         }
-    }
 
-    public static void convertImageToVideo(Bitmap frame,
-                                           float duration,
-                                           int width,
-                                           int height,
-                                           final String videoFilePath ) {
+        @Override
+        public void repeatFrame(EncodeMetrics metrics) {
+            // lockCanvas() blocks while the encoder's input queue is full.
+            long t = System.nanoTime();
+            Canvas canvas = mSurface.lockCanvas(new Rect(0,0, 0, 0));
+            mSurface.unlockCanvasAndPost(canvas);
+            metrics.record(EncodeMetrics.Stage.SUBMIT, t);
+            metrics.frameSubmitted();
+        }
 
-        int nbFrames = (int)(duration * (float)frameRate) + 1;
+        @Override
+        public void release() {
+            // the Surface belongs to the encoder
+        }
+    }
 
-        MediaMuxer muxer = null;
-        MediaCodec codec = null;
-        boolean muxerStarted = false;
-        boolean codecStarted = false;
-        int videoTrackIndex = -1;
+    private static boolean encode(int width,
+                                  int height,
+                                  final String videoFilePath,
+                                  Options options,
+                                  final EncodeJob job) {
+        EncodeMetrics metrics = new EncodeMetrics(options.metricsListener);
+        boolean done = false;
 
         try {
-            MediaFormat mediaFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, width, height);
+            EncoderProbe probe = EncoderProbe.get(OUTPUT_MIME);
+            if (probe == null)
+                throw new RuntimeException("no encoder for " + OUTPUT_MIME);
+            // Frames are drawn at the size the encoder actually supports.
+            Size size = probe.alignSize(width, height);
+            width = size.getWidth();
+            height = size.getHeight();
+            int colorFormat = -1;
+            if (options.yuvInput) {
+                colorFormat = probe.getYuvColorFormat();
+                if (colorFormat < 0)
+                    throw new RuntimeException("no YUV input for " + probe.getCodecName());
+            }
+            MediaFormat mediaFormat = colorFormat < 0
+                    ? probe.createVideoFormat(width, height, frameRate, keyFrameInternal,
+                            options.bitRate)
+                    : probe.createVideoFormat(width, height, frameRate, keyFrameInternal,
+                            options.bitRate, colorFormat);
 
-            muxer = new MediaMuxer(videoFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-            codec = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            int[] cuts = planSegments(options, job);
+            if (cuts == null || !encodeSegments(cuts, mediaFormat, probe.getCodecName(),
+                    colorFormat, width, height, videoFilePath, options, job, metrics)) {
+                encodeSerially(mediaFormat, probe.getCodecName(), colorFormat, width, height,
+                        videoFilePath, options, job, metrics);
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Encoding cancelled");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "Encoding exception", e);
+        }
+        Log.d(TAG, metrics.finish(done).toString());
+        return done;
+    }
 
-            mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
-            mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
-            mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-            mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameInternal);
+    /**
+     * Encodes the whole job on one encoder, straight into the output.
+     */
+    private static void encodeSerially(MediaFormat mediaFormat, String codecName,
+                                       int colorFormat, int width, int height,
+                                       String videoFilePath, Options options,
+                                       final EncodeJob job, EncodeMetrics metrics)
+            throws InterruptedException, IOException {
+        AsyncEncoder encoder = null;
+        FrameSink sink = null;
+        AudioStage audio = null;
+        EncodeJournal journal = null;
 
-            try {
-                codec.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        try {
+            if (options.resumable)
+                journal = openJournal(videoFilePath, width, height, options, job);
+            int firstFrame = 0;
+            VideoMuxer muxer;
+            if (journal != null) {
+                FragmentedMp4Muxer fragmented = new FragmentedMp4Muxer(videoFilePath, journal);
+                EncodeJournal.Checkpoint checkpoint = fragmented.getResumePoint();
+                if (checkpoint != null) {
+                    Log.i(TAG, "Resuming from " + checkpoint);
+                    firstFrame = checkpoint.frameCount;
+                }
+                muxer = fragmented;
+            } else if (options.fragmentedMp4) {
+                muxer = new FragmentedMp4Muxer(videoFilePath);
+            } else {
+                muxer = new MediaMuxerAdapter(videoFilePath);
             }
-            catch(Exception ce) {
-                Log.e(TAG, ce.getMessage());
+            final int firstTimestamp = firstFrame;
+            InterleavingMuxer interleaver = null;
+            try {
+                if (options.audioPath != null) {
+                    // video and audio write from their own threads, interleaved by time
+                    interleaver = new InterleavingMuxer(muxer, 2);
+                    muxer = interleaver;
+                    audio = AudioStage.create(options.audioPath, interleaver,
+                            job.getDurationUs());
+                }
+                encoder = new AsyncEncoder(mediaFormat, muxer, codecName, !options.yuvInput) {
+                    @Override
+                    protected long getPresentationTimeUs(int frameIndex, long codecTimeUs) {
+                        return job.getPresentationTimeUs(firstTimestamp + frameIndex);
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                muxer.release();
+                throw e;
             }
+            encoder.setMetrics(metrics);
+            sink = options.yuvInput
+                    ? new YuvFrameSink(encoder, width, height, colorFormat, frameRate)
+                    : new SurfaceFrameSink(encoder.getInputSurface(), width, height);
+            encoder.start();
+            if (audio != null)
+                audio.start();
 
-            Surface surface = codec.createInputSurface();
-            codec.start();
-            codecStarted = true;
-
-            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
-            int outputBufferIndex;
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            boolean outputDone = false;
-            int nbEncoded = 0;
-
-            Canvas canvas = surface.lockCanvas(new Rect(0,0, width, height));
-
-            canvas.drawBitmap(frame, 0, 0, new Paint());
-            surface.unlockCanvasAndPost(canvas);
-
-            while (!outputDone) {
-
-                canvas = surface.lockCanvas(new Rect(0,0, 0, 0));
-                surface.unlockCanvasAndPost(canvas);
-
-                outputBufferIndex = codec.dequeueOutputBuffer(info, TIMEOUT_USEC);
-                if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // no output available yet
-                    Log.d(TAG, "no output from encoder available");
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    // not expected for an encoder
-                    outputBuffers = codec.getOutputBuffers();
-                    Log.d(TAG, "encoder output buffers changed");
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    if(muxerStarted)
-                        throwException("format changed twice");
-                    MediaFormat newFormat = codec.getOutputFormat();
-                    videoTrackIndex = muxer.addTrack(newFormat);
-                    muxer.start();
-                    muxerStarted = true;
-                } else if (outputBufferIndex < 0) {
-                    throwException("unexpected result from encoder.dequeueOutputBuffer: " + outputBufferIndex);
-                } else { // encoderStatus >= 0
-                    ByteBuffer encodedData = outputBuffers[outputBufferIndex];
-                    if (encodedData == null) {
-                        throwException("encoderOutputBuffer " + outputBufferIndex + " was null");
-                    }
+            job.run(encoder, sink, firstFrame, Integer.MAX_VALUE, options.progressListener,
+                    width, height, metrics);
 
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // The codec config data was pulled out and fed to the muxer when we got
-                        // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-                        Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
-                        info.size = 0;
-                    }
+            long endTimeUs = job.getDurationUs();
+            if (endTimeUs >= 0)
+                encoder.setEndTimeUs(endTimeUs);
+            encoder.signalEndOfInputStream();
+            encoder.awaitEndOfStream();
+            if (audio != null) {
+                long durationUs = endTimeUs;
+                if (durationUs < 0)
+                    durationUs = interleaver.getLastTimeUs(encoder.getTrackIndex());
+                audio.finish(durationUs);
+                interleaver.finishTrack(encoder.getTrackIndex());
+                audio.await();
+            }
+            if (journal != null) {
+                // the video is complete: there is nothing left to resume
+                journal.delete();
+                journal = null;
+            }
+        } finally {
+            // the audio thread is stopped first, as releasing the encoder stops the muxer
+            if (audio != null)
+                audio.release();
+            if (encoder != null)
+                encoder.release();
+            if (sink != null)
+                sink.release();
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "closing journal failed", e);
+                }
+            }
+        }
+    }
 
-                    if (info.size != 0) {
-                        if (!muxerStarted)
-                            throwException("muxer hasn't started");
+    /**
+     * Where to split the job for {@link Options#parallelSegments}: the first frame of each
+     * segment, followed by the total; null to encode it serially.
+     */
+    private static int[] planSegments(Options options, EncodeJob job) {
+        if (options.parallelSegments < 2)
+            return null;
+        if (options.resumable) {
+            Log.w(TAG, "Resumable encodes are not split into segments");
+            return null;
+        }
+        int[] startFrames = job.getSlideStartFrames();
+        if (startFrames == null)
+            return null;
+        int segments = Math.min(options.parallelSegments,
+                VideoJobScheduler.getMaxEncoderInstances());
+        int[] cuts = FrameTiming.splitSegments(startFrames, segments);
+        return cuts.length > 2 ? cuts : null;
+    }
 
-                        info.presentationTimeUs = computePresentationTime(nbEncoded, frameRate);
+    /**
+     * Encodes the segments of a job at the same time, each on its own encoder and thread,
+     * spooled to a {@link SegmentMuxer}; then joins them into the output, with the
+     * soundtrack if there is one.  Returns false, having written nothing, if the encoders
+     * came up with different parameter sets, so that the segments can't be joined.
+     *
+     * @param cuts the first frame of each segment, followed by the total
+     */
+    private static boolean encodeSegments(final int[] cuts, final MediaFormat mediaFormat,
+                                          final String codecName, final int colorFormat,
+                                          final int width, final int height,
+                                          String videoFilePath, final Options options,
+                                          final EncodeJob job, final EncodeMetrics metrics)
+            throws InterruptedException, IOException {
+        int count = cuts.length - 1;
+        Log.d(TAG, "Encoding " + count + " segments in parallel");
+        final SegmentProgress progress = options.progressListener != null
+                ? new SegmentProgress(options.progressListener, cuts) : null;
+        final List<SegmentMuxer> segments = new ArrayList<>();
+        // one per encoder: EncodeMetrics pairs output frames with submissions by order
+        final List<EncodeMetrics> segmentMetrics = new ArrayList<>();
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(count);
+            try {
+                List<Future<Void>> results = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    final int segment = i;
+                    final SegmentMuxer spool =
+                            new SegmentMuxer(new File(videoFilePath + ".part" + i));
+                    segments.add(spool);
+                    final EncodeMetrics metricsForSegment =
+                            new EncodeMetrics(segmentListener(options.metricsListener));
+                    segmentMetrics.add(metricsForSegment);
+                    // the others end where the next one starts
+                    final long endTimeUs = segment == count - 1 ? job.getDurationUs() : -1;
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            encodeSegment(spool, cuts[segment], cuts[segment + 1], endTimeUs,
+                                    mediaFormat, codecName, colorFormat, width, height,
+                                    options.yuvInput, job,
+                                    progress != null ? progress.forSegment(segment) : null,
+                                    metricsForSegment);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> result : results) {
+                    try {
+                        result.get();
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException("segment encode failed", e.getCause());
+                    }
+                }
+            } finally {
+                // stops the other segments if one failed, or we were cancelled
+                executor.shutdownNow();
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                    Log.w(TAG, "segment encoders still running");
+            }
 
-                        if(videoTrackIndex == -1)
-                            throwException("video track not set yet");
+            if (!SegmentMuxer.haveSameConfig(segments)) {
+                Log.w(TAG, "Segments have different parameter sets, encoding serially");
+                return false;
+            }
+            // the job's report covers the segments, not a serial encode that replaces them
+            for (EncodeMetrics m : segmentMetrics)
+                metrics.merge(m);
+            joinSegments(segments, videoFilePath, options, job);
+            return true;
+        } finally {
+            for (SegmentMuxer segment : segments)
+                segment.delete();
+        }
+    }
 
-                        muxer.writeSampleData(videoTrackIndex, encodedData, info);
+    /**
+     * Listener for the metrics of one segment: passes each encoded frame on to the job's
+     * listener, and keeps the report to the job.
+     */
+    private static EncodeMetrics.Listener segmentListener(
+            final EncodeMetrics.Listener jobListener) {
+        if (jobListener == null)
+            return null;
+        return new EncodeMetrics.Listener() {
+            @Override
+            public void onFrameEncoded(EncodeMetrics metrics) {
+                jobListener.onFrameEncoded(metrics);
+            }
 
-                        nbEncoded++;
-                        Log.d(TAG, "nbEncoded="+nbEncoded);
-                        Log.d(TAG, "nbFrames="+nbFrames);
-                        if(nbEncoded == nbFrames)
-                            outputDone = true;
-                    }
+            @Override
+            public void onFinished(EncodeMetrics.Report report) {
+            }
+        };
+    }
 
-                    // It's usually necessary to adjust the ByteBuffer values to match BufferInfo.
-                    codec.releaseOutputBuffer(outputBufferIndex, false);
+    /**
+     * Encodes frames firstFrame to endFrame of the job into spool, ending it at endTimeUs
+     * unless that is -1.
+     */
+    private static void encodeSegment(SegmentMuxer spool, final int firstFrame, int endFrame,
+                                      long endTimeUs, MediaFormat mediaFormat, String codecName,
+                                      int colorFormat, int width, int height,
+                                      boolean yuvInput, final EncodeJob job,
+                                      ProgressListener listener, EncodeMetrics metrics)
+            throws InterruptedException, IOException {
+        AsyncEncoder encoder = null;
+        FrameSink sink = null;
+        try {
+            encoder = new AsyncEncoder(mediaFormat, spool, codecName, !yuvInput) {
+                @Override
+                protected long getPresentationTimeUs(int frameIndex, long codecTimeUs) {
+                    // on the timeline of the whole video
+                    return job.getPresentationTimeUs(firstFrame + frameIndex);
                 }
-            }
+            };
+            encoder.setMetrics(metrics);
+            sink = yuvInput
+                    ? new YuvFrameSink(encoder, width, height, colorFormat, frameRate)
+                    : new SurfaceFrameSink(encoder.getInputSurface(), width, height);
+            encoder.start();
+            job.run(encoder, sink, firstFrame, endFrame, listener, width, height, metrics);
+            if (endTimeUs >= 0)
+                encoder.setEndTimeUs(endTimeUs);
+            encoder.signalEndOfInputStream();
+            encoder.awaitEndOfStream();
+            if (spool.getSampleCount() != endFrame - firstFrame)
+                Log.w(TAG, "Segment at frame " + firstFrame + ": " + spool.getSampleCount()
+                        + " of " + (endFrame - firstFrame) + " frames encoded");
+        } finally {
+            if (encoder != null)
+                encoder.release();
+            if (sink != null)
+                sink.release();
+        }
+    }
 
-            if (codec != null) {
-                if (codecStarted) {codec.stop();}
-                codec.release();
+    /**
+     * Writes the encoded segments, one after the other, as the output's video track.
+     */
+    private static void joinSegments(List<SegmentMuxer> segments, String videoFilePath,
+                                     Options options, EncodeJob job)
+            throws InterruptedException, IOException {
+        VideoMuxer muxer = options.fragmentedMp4
+                ? new FragmentedMp4Muxer(videoFilePath)
+                : new MediaMuxerAdapter(videoFilePath);
+        InterleavingMuxer interleaver = null;
+        AudioStage audio = null;
+        try {
+            if (options.audioPath != null) {
+                interleaver = new InterleavingMuxer(muxer, 2);
+                muxer = interleaver;
+                audio = AudioStage.create(options.audioPath, interleaver,
+                        job.getDurationUs());
+                audio.start();
             }
-            if (muxer != null) {
-                if (muxerStarted) {muxer.stop();}
-                muxer.release();
+            int track = SegmentMuxer.concat(segments, muxer);
+            if (audio != null) {
+                audio.finish(job.getDurationUs());
+                interleaver.finishTrack(track);
+                audio.await();
             }
+            muxer.stop();
+        } finally {
+            if (audio != null)
+                audio.release();
+            muxer.release();
+        }
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Encoding exception: " + e.toString());
+    /**
+     * Adds up the progress of segments encoding at the same time into the progress of the
+     * whole video.
+     */
+    private static class SegmentProgress {
+        private final ProgressListener mListener;
+        private final int[] mCuts;
+        private final int[] mDone;
+
+        SegmentProgress(ProgressListener listener, int[] cuts) {
+            mListener = listener;
+            mCuts = cuts;
+            mDone = new int[cuts.length - 1];
         }
+
+        /**
+         * Listener for one segment, which reports frame indices of the whole video.
+         */
+        ProgressListener forSegment(final int segment) {
+            return new ProgressListener() {
+                @Override
+                public void onProgress(int framesDone, int framesTotal) {
+                    report(segment, framesDone - mCuts[segment]);
+                }
+            };
+        }
+
+        private synchronized void report(int segment, int framesDone) {
+            mDone[segment] = framesDone;
+            int done = 0;
+            for (int frames : mDone)
+                done += frames;
+            mListener.onProgress(done, mCuts[mCuts.length - 1]);
+        }
+    }
+
+    /**
+     * Opens the journal for a resumable job, or returns null if the job can't be resumed.
+     */
+    private static EncodeJournal openJournal(String videoFilePath, int width, int height,
+                                             Options options, EncodeJob job)
+            throws IOException {
+        if (options.audioPath != null) {
+            Log.w(TAG, "Encodes with a soundtrack can't be resumed");
+            return null;
+        }
+        String description = job.getDescription();
+        if (description == null) {
+            Log.w(TAG, "This job can't be resumed");
+            return null;
+        }
+        // the settings that change the frames, or the encoder's parameter sets
+        description += "\n" + width + "x" + height + "@" + frameRate + "|" + keyFrameInternal
+                + "|" + options.holdFrames + "|" + options.bitRate + "|" + options.yuvInput;
+        return EncodeJournal.open(journalFileFor(videoFilePath),
+                EncodeJournal.fingerprint(description));
     }
 
-    private static long computePresentationTime(int frameIndex, int frameRate) {
-        return frameIndex * 1000000 / frameRate;
+    /**
+     * Where the journal of a resumable encode to videoFilePath is kept.
+     */
+    static File journalFileFor(String videoFilePath) {
+        return new File(videoFilePath + ".journal");
     }
 
-    private static Bitmap getBitmapFromImage(String inputFilePath, int width, int height) {
-        Bitmap bitmap = decodeSampledBitmapFromFile(inputFilePath, width, height);
+    /**
+     * Whether an encode to videoFilePath stopped short and left a journal to resume from.
+     */
+    static boolean canResume(String videoFilePath) {
+        return journalFileFor(videoFilePath).exists();
+    }
 
-        if(bitmap.getWidth() != width || bitmap.getHeight() != height) {
-            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, false);
-            bitmap.recycle();
-            return scaled;
+    /**
+     * Deletes the output of an encode to videoFilePath, and its journal if it has one.
+     */
+    static void deleteOutput(String videoFilePath) {
+        new File(videoFilePath).delete();
+        journalFileFor(videoFilePath).delete();
+    }
+
+    /**
+     * Draws the source's images in turn, each decoded right before it is drawn and handed
+     * back to the pool right after.  With holdFrames, one key frame per image plus a closing
+     * frame; otherwise a frame per 1/frameRate.  drawn is incremented before each image is
+     * drawn, so the encoder can tell the closing frame from the images.
+     */
+    private static void encodeSource(AsyncEncoder encoder, FrameSink sink, FrameSource source,
+                                     float frameDuration, ScaleMode scaleMode,
+                                     int width, int height, boolean holdFrames,
+                                     AtomicInteger drawn, ProgressListener listener,
+                                     EncodeMetrics metrics)
+            throws InterruptedException, IOException {
+        int count = source.getCount();
+        int framesPerImage = Math.max(1, Math.round(frameDuration * frameRate));
+        int nbTotal = count < 0 ? -1
+                : holdFrames ? count + 1 : count * framesPerImage + 1;
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        Bitmap last = null;
+        int nbPosted = 0;
+
+        while (source.hasNext()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            // the previous image is in the encoder already; its bitmap can take the decode
+            if (last != null)
+                BitmapPool.getShared().put(last);
+            last = null;
+            decodeOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+            decodeOptions.inDither = true;
+            long t = System.nanoTime();
+            Bitmap frame = source.next(decodeOptions, width, height);
+            metrics.record(EncodeMetrics.Stage.DECODE, t);
+            last = frame;
+
+            if (holdFrames)
+                encoder.requestSyncFrame();
+            drawn.incrementAndGet();
+            sink.drawBitmap(frame, scaleMode, metrics);
+            nbPosted++;
+            if (!holdFrames)
+                nbPosted += repeatLastFrame(sink, framesPerImage - 1, metrics);
+            if (listener != null)
+                listener.onProgress(nbPosted, nbTotal);
         }
-        else {
-            return bitmap;
+
+        if (last != null) {
+            // The closing frame lets the last image last until the end, see
+            // FrameTiming.computeClosingTime().
+            sink.drawBitmap(last, scaleMode, metrics);
+            BitmapPool.getShared().put(last);
+            nbPosted++;
+            if (listener != null)
+                listener.onProgress(nbPosted, nbPosted);
         }
     }
 
-    private static Bitmap decodeSampledBitmapFromFile(String filePath,
-                                                      int reqWidth,
-                                                      int reqHeight) {
+    /**
+     * Pushes a frame to the encoder for every 1/frameRate of slide time, from frame
+     * firstFrame up to endFrame: the slides outside are skipped, and those cut by either end
+     * drawn for their frames inside.
+     */
+    private static void encodeRepeatedSlides(FrameSink sink, List<Slide> slides,
+                                             int firstFrame, int endFrame,
+                                             int width, int height,
+                                             ProgressListener listener,
+                                             EncodeMetrics metrics)
+            throws InterruptedException {
+        int[] startFrames = FrameTiming.computeSlideStartFrames(durationsOf(slides), frameRate);
+        int nbTotal = slides.isEmpty() ? 1 : startFrames[slides.size()];
 
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        // Calculate inSampleSize
-        // First decode with inJustDecodeBounds=true to check dimensions
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(filePath, options);
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
-        options.inPreferredConfig = Bitmap.Config.RGB_565;
-        options.inDither = true;
-        return BitmapFactory.decodeFile(filePath, options);
+        for (int i = 0; i < slides.size(); i++) {
+            int from = Math.max(startFrames[i], firstFrame);
+            int to = Math.min(startFrames[i + 1], endFrame);
+            if (from >= to)
+                continue;
+
+            drawSlide(sink, slides.get(i), width, height, metrics);
+            repeatLastFrame(sink, to - from - 1, metrics);
+            if (listener != null)
+                listener.onProgress(to, nbTotal);
+        }
+    }
+
+    /**
+     * Posts count more frames showing what was drawn last.  Returns count.
+     */
+    private static int repeatLastFrame(FrameSink sink, int count, EncodeMetrics metrics)
+            throws InterruptedException {
+        // Both sinks block while the encoder's input queue is full, which paces us.
+        for (int i = 0; i < count; i++) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            sink.repeatFrame(metrics);
+        }
+        return Math.max(0, count);
     }
 
-    private static int calculateInSampleSize(
-            BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
+    /**
+     * Pushes one key frame per slide plus a closing frame.  Together with
+     * {@link FrameTiming#computeHeldFrameTimes(float[])} each frame is stamped with the time
+     * its slide starts, and the muxer derives every sample's duration from the next timestamp,
+     * so a slide costs one frame however long it is held.  The closing frame, halfway through
+     * the last slide, has the video end with it, see {@link FrameTiming#computeClosingTime}.
+     */
+    private static void encodeHeldSlides(AsyncEncoder encoder, FrameSink sink,
+                                         List<Slide> slides, int firstFrame, int endFrame,
+                                         int width, int height,
+                                         ProgressListener listener,
+                                         EncodeMetrics metrics)
+            throws InterruptedException {
+        if (slides.isEmpty())
+            return;
 
-        if (height > reqHeight || width > reqWidth) {
+        // one frame per slide, so frame indices are slide indices
+        for (int i = firstFrame; i < Math.min(slides.size(), endFrame); i++) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            encoder.requestSyncFrame();
+            drawSlide(sink, slides.get(i), width, height, metrics);
+            if (listener != null)
+                listener.onProgress(i + 1, slides.size() + 1);
+        }
 
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+        // The closing frame shows the last slide's second half.
+        if (endFrame <= slides.size())
+            return;
+        drawSlide(sink, slides.get(slides.size() - 1), width, height, metrics);
+        if (listener != null)
+            listener.onProgress(slides.size() + 1, slides.size() + 1);
+    }
 
-            while ((halfHeight / inSampleSize) > reqHeight
-                    && (halfWidth / inSampleSize) > reqWidth) {
-                inSampleSize *= 2;
-            }
+    private static float[] durationsOf(List<Slide> slides) {
+        float[] durations = new float[slides.size()];
+        for (int i = 0; i < durations.length; i++)
+            durations[i] = slides.get(i).duration;
+        return durations;
+    }
+
+    private static void drawSlide(FrameSink sink, Slide slide, int width, int height,
+                                  EncodeMetrics metrics) throws InterruptedException {
+        Bitmap frame = slide.bitmap;
+        if (frame == null) {
+            long t = System.nanoTime();
+            frame = decodeSampledBitmapFromFile(slide.filePath, width, height, slide.scaleMode);
+            metrics.record(EncodeMetrics.Stage.DECODE, t);
         }
+        sink.drawBitmap(frame, slide.scaleMode, metrics);
+        if (slide.bitmap == null)
+            BitmapPool.getShared().put(frame);
+    }
+
+    /**
+     * Draws frame into a width x height canvas, scaled according to scaleMode.  Scaled while
+     * drawing, so no intermediate full-size bitmap is needed.
+     */
+    static void drawScaled(Canvas canvas, Bitmap frame, ScaleMode scaleMode,
+                           int width, int height, Paint paint) {
+        float[] scale = new float[4];
+        scaleMode.computeScale(frame.getWidth(), frame.getHeight(), width, height, scale);
+        Rect dst = centeredRect(width, height, scale[0], scale[1]);
+        Rect src = centeredRect(frame.getWidth(), frame.getHeight(), scale[2], scale[3]);
+        if (scale[0] < 1f || scale[1] < 1f)
+            canvas.drawColor(Color.BLACK);
+        canvas.drawBitmap(frame, src, dst, paint);
+    }
 
-        return inSampleSize;
+    private static Rect centeredRect(int width, int height, float scaleX, float scaleY) {
+        int w = Math.round(width * scaleX);
+        int h = Math.round(height * scaleY);
+        int left = (width - w) / 2;
+        int top = (height - h) / 2;
+        return new Rect(left, top, left + w, top + h);
     }
 
-    private static void throwException(String exp) {
-        throw new RuntimeException(exp);
+    private static Bitmap decodeSampledBitmapFromFile(String filePath,
+                                                      int reqWidth,
+                                                      int reqHeight,
+                                                      ScaleMode scaleMode) {
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        // Only the part of the image the scale mode shows is decoded, at about the output
+        // size, so large photos cost no more than small ones.
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inDither = true;
+        return DecodePlanner.decodeFile(filePath, reqWidth, reqHeight, scaleMode, options);
     }
-}
\ No newline at end of file
+}
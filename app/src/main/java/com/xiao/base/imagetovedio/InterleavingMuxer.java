@@ -0,0 +1,311 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link VideoMuxer} in front of another one that takes samples from several producers
+ * (the video encoder, the audio stage), each on its own thread, and passes them on in
+ * timestamp order.
+ * <p>
+ * The wrapped muxer is started once all the expected tracks have been added, however late
+ * the slowest producer reports its format; samples written before then are held.  A sample is
+ * written as soon as no other track can still produce an earlier one, so the output is
+ * interleaved by time and only a short window of samples is ever held in memory.  A producer
+ * running more than MAX_LEAD_US ahead of another track blocks in
+ * {@link #writeSampleData} until that track catches up.  Audio is much cheaper to produce than
+ * video, so in practice it is the audio thread that waits; the video encoder never waits for
+ * audio unless the audio stage stalls.
+ * <p>
+ * Track indices returned by {@link #addTrack} are those of the wrapped muxer.
+ */
+public class InterleavingMuxer implements VideoMuxer {
+    private static final String TAG = "InterleavingMuxer";
+    private static final long MAX_LEAD_US = 1000000L;
+
+    private final VideoMuxer mMuxer;
+    private final int mTrackCount;
+    // per track, by order of addTrack(); slots past mAdded are tracks still to come
+    private final int[] mTargetIndex;
+    private final long[] mLastTimeUs;
+    private final boolean[] mFinished;
+    // end times given to endTrack(), passed on once the track's samples are all written
+    private final long[] mTrackEndUs;
+    private final List<ArrayDeque<Sample>> mQueues;
+    private int mAdded;
+    private boolean mStarted;
+    private boolean mStopped;
+    private long mEndTimeUs = Long.MAX_VALUE;
+    private RuntimeException mAbortCause;
+
+    /**
+     * A sample held until it is its turn; owns a copy of the data.
+     */
+    private static class Sample {
+        final ByteBuffer data;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        Sample(ByteBuffer src, MediaCodec.BufferInfo srcInfo) {
+            data = ByteBuffer.allocateDirect(src.remaining());
+            data.put(src.duplicate()).flip();
+            info.set(0, srcInfo.size, srcInfo.presentationTimeUs, srcInfo.flags);
+        }
+    }
+
+    /**
+     * @param trackCount number of tracks that will be added; the wrapped muxer starts when
+     *                   the last of them is
+     */
+    @SuppressWarnings("unchecked")
+    public InterleavingMuxer(VideoMuxer muxer, int trackCount) {
+        mMuxer = muxer;
+        mTrackCount = trackCount;
+        mTargetIndex = new int[trackCount];
+        mLastTimeUs = new long[trackCount];
+        mFinished = new boolean[trackCount];
+        mTrackEndUs = new long[trackCount];
+        Arrays.fill(mTrackEndUs, -1);
+        mQueues = new ArrayList<>(trackCount);
+        for (int i = 0; i < trackCount; i++) {
+            mQueues.add(new ArrayDeque<Sample>());
+        }
+    }
+
+    @Override
+    public synchronized int addTrack(MediaFormat format) {
+        checkNotAborted();
+        if (mAdded == mTrackCount) {
+            throw new IllegalStateException("all " + mTrackCount + " tracks already added");
+        }
+        int index = mMuxer.addTrack(format);
+        mTargetIndex[mAdded++] = index;
+        if (mAdded == mTrackCount) {
+            mMuxer.start();
+            mStarted = true;
+            drain();
+        }
+        notifyAll();
+        return index;
+    }
+
+    /**
+     * Does nothing: the wrapped muxer is started by the last {@link #addTrack}.
+     */
+    @Override
+    public void start() {
+    }
+
+    /**
+     * Writes, or holds for later, one sample.  Blocks while the track is too far ahead of
+     * another.
+     *
+     * @throws IllegalStateException if the muxer was aborted or released meanwhile
+     */
+    @Override
+    public synchronized void writeSampleData(int trackIndex, ByteBuffer data,
+                                             MediaCodec.BufferInfo info) {
+        int track = localIndex(trackIndex);
+        long timeUs = info.presentationTimeUs;
+        checkNotAborted();
+        if (mFinished[track] || timeUs >= mEndTimeUs) {
+            return;
+        }
+        // Recorded before waiting: this track won't produce anything earlier, which is what
+        // the others may be waiting to learn.  Two tracks can then never wait for each other.
+        mLastTimeUs[track] = Math.max(mLastTimeUs[track], timeUs);
+        notifyAll();
+        try {
+            while (isTooFarAhead(track, timeUs)) {
+                wait();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for other tracks", ie);
+        }
+        checkNotAborted();
+        if (mFinished[track] || timeUs >= mEndTimeUs) {
+            return;
+        }
+
+        if (mStarted && mQueues.get(track).isEmpty() && isNext(track, timeUs)) {
+            // nothing to reorder: straight through, no copy
+            mMuxer.writeSampleData(trackIndex, data, info);
+        } else {
+            mQueues.get(track).add(new Sample(data, info));
+            drain();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Marks a track as complete, so the others no longer wait for it.  Samples it writes
+     * afterwards are dropped.
+     */
+    public synchronized void finishTrack(int trackIndex) {
+        mFinished[localIndex(trackIndex)] = true;
+        drain();
+        notifyAll();
+    }
+
+    /**
+     * Passed on to the wrapped muxer by {@link #stop()}, after the samples still held.
+     */
+    @Override
+    public synchronized void endTrack(int trackIndex, long endTimeUs) {
+        mTrackEndUs[localIndex(trackIndex)] = endTimeUs;
+    }
+
+    /**
+     * Drops every sample, held or still to come, presented at or after endTimeUs; e.g. audio
+     * running past the end of the video.
+     */
+    public synchronized void setEndTimeUs(long endTimeUs) {
+        mEndTimeUs = endTimeUs;
+        for (ArrayDeque<Sample> queue : mQueues) {
+            while (!queue.isEmpty() && queue.peekLast().info.presentationTimeUs >= endTimeUs) {
+                queue.pollLast();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Latest presentation time given for a track so far, 0 if none.
+     */
+    public synchronized long getLastTimeUs(int trackIndex) {
+        return mLastTimeUs[localIndex(trackIndex)];
+    }
+
+    /**
+     * Fails the muxer on behalf of a producer that can't go on: producers blocked in, or
+     * later calling, {@link #writeSampleData} get an IllegalStateException.
+     */
+    public synchronized void abort(Exception cause) {
+        if (mAbortCause == null) {
+            mAbortCause = new IllegalStateException("muxer aborted", cause);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Writes everything held, whatever is still missing, and stops the wrapped muxer.
+     */
+    @Override
+    public synchronized void stop() {
+        if (mStopped) {
+            return;
+        }
+        mStopped = true;
+        if (!mStarted) {
+            Log.w(TAG, "stopped with " + (mTrackCount - mAdded) + " track(s) never added");
+            notifyAll();
+            return;
+        }
+        for (int i = 0; i < mTrackCount; i++) {
+            mFinished[i] = true;
+        }
+        drain();
+        for (int i = 0; i < mTrackCount; i++) {
+            if (mTrackEndUs[i] >= 0) {
+                mMuxer.endTrack(mTargetIndex[i], Math.min(mTrackEndUs[i], mEndTimeUs));
+            }
+        }
+        mMuxer.stop();
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void release() {
+        if (mAbortCause == null) {
+            mAbortCause = new IllegalStateException("muxer released");
+        }
+        for (ArrayDeque<Sample> queue : mQueues) {
+            queue.clear();
+        }
+        notifyAll();
+        mMuxer.release();
+    }
+
+    private int localIndex(int trackIndex) {
+        for (int i = 0; i < mAdded; i++) {
+            if (mTargetIndex[i] == trackIndex) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown track " + trackIndex);
+    }
+
+    private void checkNotAborted() {
+        if (mAbortCause != null) {
+            throw mAbortCause;
+        }
+    }
+
+    /**
+     * Whether a sample of track at timeUs is more than MAX_LEAD_US ahead of some other track
+     * that may still produce samples.  Tracks not added yet count as being at time 0.
+     */
+    private boolean isTooFarAhead(int track, long timeUs) {
+        if (mAbortCause != null || mStopped) {
+            return false;
+        }
+        for (int i = 0; i < mTrackCount; i++) {
+            if (i != track && !mFinished[i] && timeUs - mLastTimeUs[i] > MAX_LEAD_US) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a sample of track at timeUs can be written now: every other track that isn't
+     * finished has a later sample held, so can't produce an earlier one any more.
+     */
+    private boolean isNext(int track, long timeUs) {
+        for (int i = 0; i < mTrackCount; i++) {
+            if (i == track || (mFinished[i] && mQueues.get(i).isEmpty())) {
+                continue;
+            }
+            Sample head = mQueues.get(i).peek();
+            if (head == null || head.info.presentationTimeUs < timeUs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes held samples, earliest first, for as long as the earliest one is safe to write.
+     */
+    private void drain() {
+        if (!mStarted) {
+            return;
+        }
+        while (true) {
+            int earliest = -1;
+            for (int i = 0; i < mTrackCount; i++) {
+                Sample head = mQueues.get(i).peek();
+                if (head != null && (earliest < 0 || head.info.presentationTimeUs
+                        < mQueues.get(earliest).peek().info.presentationTimeUs)) {
+                    earliest = i;
+                }
+            }
+            if (earliest < 0) {
+                return;
+            }
+            Sample sample = mQueues.get(earliest).peek();
+            if (!isNext(earliest, sample.info.presentationTimeUs)) {
+                return;
+            }
+            mQueues.get(earliest).poll();
+            mMuxer.writeSampleData(mTargetIndex[earliest], sample.data, sample.info);
+        }
+    }
+}
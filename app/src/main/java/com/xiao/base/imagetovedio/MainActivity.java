@@ -2,19 +2,21 @@ package com.xiao.base.imagetovedio;
 
 import android.Manifest;
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.IBinder;
 import android.provider.Settings;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -23,7 +25,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class MainActivity extends AppCompatActivity {
     private static final int MY_PERMISSION_REQUEST_CODE = 333;
@@ -38,10 +40,63 @@ public class MainActivity extends AppCompatActivity {
     private static final File OUTPUT_DIR = Environment.getExternalStorageDirectory();
 
     Button btn_image_to_video;
+    TextView tv_progress;
+
+    // 编码在 VideoEncodeService 的工作线程上进行, Activity 重建时任务不受影响
+    private VideoEncodeService mService;
+    private boolean mPendingBackup;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((VideoEncodeService.LocalBinder) binder).getService();
+            mService.addListener(mJobListener);
+            if (!mService.getJobs().isEmpty()) {
+                tv_progress.setText("正在生成视频...");
+            }
+            if (mPendingBackup) {
+                mPendingBackup = false;
+                test();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+
+    // 在主线程回调, 进度更新频率已由服务限制
+    private final VideoJobScheduler.Listener mJobListener = new VideoJobScheduler.Listener() {
+        @Override
+        public void onProgress(VideoJobScheduler.Job job, int framesDone, int framesTotal) {
+            tv_progress.setText(framesTotal > 0 ? framesDone * 100 / framesTotal + "%"
+                    : framesDone + " 帧");
+        }
+
+        @Override
+        public void onFinished(VideoJobScheduler.Job job, boolean success) {
+            tv_progress.setText(success ? "已保存到 " + job.getOutputPath() : "生成失败");
+        }
+
+        @Override
+        public void onCancelled(VideoJobScheduler.Job job) {
+            tv_progress.setText("已取消");
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        tv_progress = findViewById(R.id.tv_progress);
+        btn_image_to_video = findViewById(R.id.btn_image_to_video);
+        btn_image_to_video.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                doBackup();
+            }
+        });
 
         /**
          * 第 1 步: 检查是否有相应的权限
@@ -52,9 +107,11 @@ public class MainActivity extends AppCompatActivity {
                         Manifest.permission.WRITE_EXTERNAL_STORAGE
                 }
         );
-        // 如果这3个权限全都拥有, 则直接执行备份代码
+        // 如果这3个权限全都拥有, 则直接执行备份代码; Activity 重建时任务仍在服务中运行, 不再重复提交
         if (isAllGranted) {
-            doBackup();
+            if (savedInstanceState == null) {
+                doBackup();
+            }
             return;
         }
 
@@ -70,13 +127,22 @@ public class MainActivity extends AppCompatActivity {
                 },
                 MY_PERMISSION_REQUEST_CODE
         );
-        btn_image_to_video = findViewById(R.id.btn_image_to_video);
-        btn_image_to_video.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                doBackup();
-            }
-        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, VideoEncodeService.class), mConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        if (mService != null) {
+            mService.removeListener(mJobListener);
+            mService = null;
+        }
+        unbindService(mConnection);
+        super.onStop();
     }
 
     /**
@@ -111,8 +177,12 @@ public class MainActivity extends AppCompatActivity {
     private void doBackup() {
         // 本文主旨是讲解如果动态申请权限, 具体备份代码不再展示, 就假装备份一下
         Toast.makeText(this, "正在将图片转为avi...", Toast.LENGTH_SHORT).show();
-        //非openGL模式
-                test();
+        //非openGL模式, 服务连接后再提交
+        if (mService != null) {
+            test();
+        } else {
+            mPendingBackup = true;
+        }
 
         //OpenGl模式
 //        new EncodeAndMuxTest().testEncodeVideoToMp4(this, images);
@@ -145,10 +215,14 @@ public class MainActivity extends AppCompatActivity {
         String outputPath = new File(OUTPUT_DIR,
                 "test.avi").toString();
         Log.i("test", "-outputPath=" + outputPath);
-        for (int i = 0; i < images.length; i++) {
-            Bitmap bitmap = BitmapFactory.decodeResource(getResources(), images[i]);
-            ImageVideoConverter.convertImageToVideo(bitmap, 6, 1024, 760, outputPath);
-            Log.i("test", "-i=" + i);
+        // 图片的解码和编码都在服务的工作线程上进行
+        ImageVideoConverter.Options options = new ImageVideoConverter.Options();
+        options.holdFrames = true;
+        try {
+            mService.submitResources(images, 6, 1024, 760, outputPath, options,
+                    VideoJobScheduler.PRIORITY_NORMAL);
+        } catch (RejectedExecutionException e) {
+            Toast.makeText(this, "任务太多, 请稍后再试", Toast.LENGTH_SHORT).show();
         }
     }
 
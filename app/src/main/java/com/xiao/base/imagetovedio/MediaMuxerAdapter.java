@@ -0,0 +1,59 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VideoMuxer} backed by the platform {@link MediaMuxer}, writing a regular MP4.
+ * The file is only playable once {@link #stop()} has written the sample tables.
+ */
+public class MediaMuxerAdapter implements VideoMuxer {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+    private final MediaMuxer mMuxer;
+
+    public MediaMuxerAdapter(String path) throws IOException {
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        mMuxer.writeSampleData(trackIndex, data, info);
+    }
+
+    /**
+     * Writes an empty end-of-stream sample at endTimeUs, which MediaMuxer takes as the end of
+     * the track on recent platforms.  Older ones drop it, and give the last sample the
+     * duration of the one before it.
+     */
+    @Override
+    public void endTrack(int trackIndex, long endTimeUs) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.set(0, 0, endTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        mMuxer.writeSampleData(trackIndex, EMPTY, info);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,101 @@
+package com.xiao.base.imagetovedio;
+
+/**
+ * Converts interleaved 16-bit PCM to another sample rate and channel count, one buffer at a
+ * time, as a decoder hands them over.
+ * <p>
+ * Rates are converted by linear interpolation between neighbouring input frames, carried
+ * across buffer boundaries, so consecutive buffers resample as one continuous stream.  Good
+ * enough for background music; not a mastering-grade filter.  Channels are mixed down to
+ * mono by averaging, and otherwise mapped one to one, extra input channels dropped and
+ * missing ones copied from the last input channel.  Plain Java, so it can be tested on the
+ * JVM.
+ */
+public class PcmResampler {
+    private final int mInRate;
+    private final int mInChannels;
+    private final int mOutRate;
+    private final int mOutChannels;
+
+    // the last input frame of the previous buffer, already mixed to output channels
+    private final int[] mPrev;
+    private boolean mHasPrev;
+    // position of the next output frame, in units of 1/mOutRate input frames, counted from
+    // mPrev
+    private long mPosition;
+
+    public PcmResampler(int inRate, int inChannels, int outRate, int outChannels) {
+        if (inRate <= 0 || outRate <= 0 || inChannels <= 0 || outChannels <= 0) {
+            throw new IllegalArgumentException("bad format " + inRate + "/" + inChannels
+                    + " -> " + outRate + "/" + outChannels);
+        }
+        mInRate = inRate;
+        mInChannels = inChannels;
+        mOutRate = outRate;
+        mOutChannels = outChannels;
+        mPrev = new int[outChannels];
+    }
+
+    /**
+     * Upper bound of the frames {@link #resample} returns for inFrames input frames.
+     */
+    public int getMaxOutputFrames(int inFrames) {
+        return (int) ((long) (inFrames + 1) * mOutRate / mInRate) + 1;
+    }
+
+    /**
+     * Resamples inFrames frames from in (interleaved, input channel count) into out
+     * (interleaved, output channel count), which must have room for
+     * {@link #getMaxOutputFrames(int)} frames.
+     *
+     * @return the number of frames written to out
+     */
+    public int resample(short[] in, int inFrames, short[] out) {
+        if (inFrames <= 0) {
+            return 0;
+        }
+        if (!mHasPrev) {
+            // the stream starts on its first frame
+            for (int c = 0; c < mOutChannels; c++) {
+                mPrev[c] = mix(in, 0, c);
+            }
+            mHasPrev = true;
+        }
+
+        // frame k of [mPrev, in[0], ..., in[inFrames - 1]] is mPrev for k == 0, else in[k - 1]
+        long end = (long) inFrames * mOutRate;
+        int written = 0;
+        while (mPosition < end) {
+            int k = (int) (mPosition / mOutRate);
+            int frac = (int) (mPosition % mOutRate);
+            for (int c = 0; c < mOutChannels; c++) {
+                int a = k == 0 ? mPrev[c] : mix(in, k - 1, c);
+                int b = mix(in, k, c);
+                out[written * mOutChannels + c] =
+                        (short) (a + (long) (b - a) * frac / mOutRate);
+            }
+            written++;
+            mPosition += mInRate;
+        }
+        mPosition -= end;
+        for (int c = 0; c < mOutChannels; c++) {
+            mPrev[c] = mix(in, inFrames - 1, c);
+        }
+        return written;
+    }
+
+    /**
+     * Output channel c of input frame.
+     */
+    private int mix(short[] in, int frame, int c) {
+        int base = frame * mInChannels;
+        if (mOutChannels == 1 && mInChannels > 1) {
+            int sum = 0;
+            for (int i = 0; i < mInChannels; i++) {
+                sum += in[base + i];
+            }
+            return sum / mInChannels;
+        }
+        return in[base + Math.min(c, mInChannels - 1)];
+    }
+}
@@ -0,0 +1,338 @@
+package com.xiao.base.imagetovedio;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of linked shader programs, keyed by shader source.
+ * <p>
+ * Within one EGL context a program is compiled once and shared by everyone asking for the same
+ * sources.  A context cannot use another's programs, so on GLES 3.0 the linked binary
+ * ({@code glGetProgramBinary}) is also kept, in memory and in the cache directory.  The next
+ * context, in this process or after a restart, loads it with {@code glProgramBinary} instead
+ * of compiling.  A binary the driver rejects (after a driver update, say) is deleted and the
+ * program compiled from source again.
+ * <p>
+ * Methods must be called on a thread with the EGL context in question current.
+ */
+public class ProgramCache {
+    private static final String TAG = "ProgramCache";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ProgramCache sShared;
+
+    private File mCacheDir;
+    // linked programs of each live context, by key
+    private final Map<EGLContext, Map<String, Integer>> mPrograms = new HashMap<>();
+    // program binaries, by key; key includes the driver, so these stay valid across contexts
+    private final Map<String, Binary> mBinaries = new HashMap<>();
+    private int mCompiles;
+    private int mBinaryLoads;
+
+    private static class Binary {
+        final int format;
+        final byte[] data;
+
+        Binary(int format, byte[] data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    public static synchronized ProgramCache getShared() {
+        if (sShared == null) {
+            sShared = new ProgramCache();
+        }
+        return sShared;
+    }
+
+    /**
+     * Sets the directory program binaries are persisted to, e.g. under
+     * Context.getCodeCacheDir().  Without one they are only kept in memory.
+     */
+    public synchronized void setCacheDir(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "can't create " + dir);
+            return;
+        }
+        mCacheDir = dir;
+    }
+
+    /**
+     * Returns a linked program built from the given sources, in the current context.  The
+     * attribute named attributes[i] is bound to location i.  The program belongs to the
+     * cache: don't delete it.
+     *
+     * @throws RuntimeException if the sources don't compile or link
+     */
+    public synchronized int getProgram(String vertexSource, String fragmentSource,
+                                       String... attributes) {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        Map<String, Integer> programs = mPrograms.get(context);
+        if (programs == null) {
+            programs = new HashMap<>();
+            mPrograms.put(context, programs);
+        }
+        String key = key(vertexSource, fragmentSource, attributes);
+        Integer program = programs.get(key);
+        if (program != null) {
+            return program;
+        }
+
+        boolean es3 = isEs3();
+        int id = es3 ? loadBinary(key) : 0;
+        if (id == 0) {
+            id = compile(vertexSource, fragmentSource, attributes, es3);
+            mCompiles++;
+            if (es3) {
+                saveBinary(key, id);
+            }
+        } else {
+            mBinaryLoads++;
+        }
+        programs.put(key, id);
+        return id;
+    }
+
+    /**
+     * Forgets the programs of a context about to be destroyed, deleting them if it is
+     * current.
+     */
+    public synchronized void releaseContext(EGLContext context) {
+        Map<String, Integer> programs = mPrograms.remove(context);
+        if (programs != null && context.equals(EGL14.eglGetCurrentContext())) {
+            for (int program : programs.values()) {
+                GLES20.glDeleteProgram(program);
+            }
+        }
+    }
+
+    public synchronized int getCompileCount() {
+        return mCompiles;
+    }
+
+    public synchronized int getBinaryLoadCount() {
+        return mBinaryLoads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProgramCache{compiles=" + mCompiles + ", binaryLoads=" + mBinaryLoads
+                + ", binaries=" + mBinaries.size() + "}";
+    }
+
+    private static boolean isEs3() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    private static int compile(String vertexSource, String fragmentSource,
+                               String[] attributes, boolean es3) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        for (int i = 0; i < attributes.length; i++) {
+            GLES20.glBindAttribLocation(program, i, attributes[i]);
+        }
+        if (es3) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            Log.e(TAG, "link failed: " + log);
+            throw new RuntimeException("link failed: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            Log.e(TAG, "compile failed: " + log + "\n" + source);
+            throw new RuntimeException("compile failed: " + log);
+        }
+        return shader;
+    }
+
+    /**
+     * Creates a program from the binary stored under key, or returns 0 if there is none or the
+     * driver rejects it.
+     */
+    private int loadBinary(String key) {
+        Binary binary = mBinaries.get(key);
+        if (binary == null) {
+            binary = readBinary(key);
+            if (binary == null) {
+                return 0;
+            }
+            mBinaries.put(key, binary);
+        }
+
+        ByteBuffer data = ByteBuffer.allocateDirect(binary.data.length);
+        data.put(binary.data).flip();
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, binary.format, data, binary.data.length);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            Log.w(TAG, "program binary " + key + " rejected, recompiling");
+            GLES20.glDeleteProgram(program);
+            mBinaries.remove(key);
+            if (mCacheDir != null) {
+                new File(mCacheDir, key).delete();
+            }
+            return 0;
+        }
+        return program;
+    }
+
+    private void saveBinary(String key, int program) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect(length[0]);
+        int[] format = new int[1];
+        while (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+            // clear earlier errors, so the check below is about this call
+        }
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, data);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || length[0] <= 0) {
+            Log.w(TAG, "glGetProgramBinary failed");
+            return;
+        }
+        byte[] bytes = new byte[length[0]];
+        data.get(bytes);
+        Binary binary = new Binary(format[0], bytes);
+        mBinaries.put(key, binary);
+        writeBinary(key, binary);
+    }
+
+    private Binary readBinary(String key) {
+        if (mCacheDir == null) {
+            return null;
+        }
+        File file = new File(mCacheDir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            int format = in.readInt();
+            int length = in.readInt();
+            // the length is only trusted as far as the file backs it: a corrupt or foreign
+            // file must not get a huge or negative array allocated
+            if (length < 0 || length != file.length() - 8) {
+                throw new IOException("bad binary length " + length + " in a file of "
+                        + file.length() + " bytes");
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return new Binary(format, data);
+        } catch (IOException ioe) {
+            Log.w(TAG, "can't read " + file, ioe);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeBinary(String key, Binary binary) {
+        if (mCacheDir == null) {
+            return;
+        }
+        // written aside and renamed, so a crash never leaves a truncated binary behind
+        File tmp = new File(mCacheDir, key + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeInt(binary.format);
+            out.writeInt(binary.data.length);
+            out.write(binary.data);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(mCacheDir, key))) {
+                tmp.delete();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "can't write " + tmp, ioe);
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Hash of the sources, the attribute bindings and the driver; a new driver gets new keys.
+     */
+    private static String key(String vertexSource, String fragmentSource, String[] attributes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(String.valueOf(GLES20.glGetString(GLES20.GL_RENDERER)).getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(GLES20.glGetString(GLES20.GL_VERSION)).getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(vertexSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(UTF_8));
+            for (String attribute : attributes) {
+                digest.update((byte) 0);
+                digest.update(attribute.getBytes(UTF_8));
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.xiao.base.imagetovedio;
+
+/**
+ * Thins a stream of progress updates out to at most one per interval, so that an encoder
+ * reporting every frame doesn't flood the main thread or the notification manager.  The
+ * first update and the last one, all frames done, always get through.
+ * <p>
+ * Thread-safe: parallel segments report from several threads.  Plain Java, so it can be
+ * tested on the JVM.
+ */
+class ProgressThrottle {
+    private final long mIntervalNanos;
+    private boolean mReported;
+    private long mLastNanos;
+    private int mLastDone = -1;
+
+    ProgressThrottle(long intervalNanos) {
+        mIntervalNanos = intervalNanos;
+    }
+
+    /**
+     * Whether the update of framesDone out of framesTotal (-1 if unknown), made at nowNanos,
+     * should be passed on.  If so, it counts as the last update passed on.
+     */
+    synchronized boolean shouldReport(int framesDone, int framesTotal, long nowNanos) {
+        if (framesDone == mLastDone) {
+            return false;
+        }
+        boolean finished = framesTotal >= 0 && framesDone >= framesTotal;
+        if (!finished && mReported && nowNanos - mLastNanos < mIntervalNanos) {
+            return false;
+        }
+        mReported = true;
+        mLastNanos = nowNanos;
+        mLastDone = framesDone;
+        return true;
+    }
+}
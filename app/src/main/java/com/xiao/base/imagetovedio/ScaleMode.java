@@ -0,0 +1,66 @@
+package com.xiao.base.imagetovedio;
+
+/**
+ * How an image whose aspect ratio differs from the output frame is fitted into it.
+ */
+public enum ScaleMode {
+    /** Fill the frame, ignoring the image's aspect ratio. */
+    STRETCH,
+    /** Show the whole image, centered, with bars on two sides (letterbox / pillarbox). */
+    FIT,
+    /** Fill the frame, centered, cutting off whatever of the image overflows it. */
+    CROP;
+
+    /**
+     * Computes the placement of a srcWidth x srcHeight image in a dstWidth x dstHeight frame.
+     * On return {@code out} holds {frameX, frameY, sourceX, sourceY}: the fraction of the
+     * frame's width and height the image covers, and the fraction of the image's width and
+     * height that is shown.  Both regions are centered.
+     */
+    public void computeScale(int srcWidth, int srcHeight, int dstWidth, int dstHeight,
+                             float[] out) {
+        out[0] = out[1] = out[2] = out[3] = 1f;
+        if (this == STRETCH || srcWidth <= 0 || srcHeight <= 0
+                || dstWidth <= 0 || dstHeight <= 0) {
+            return;
+        }
+        // > 1 when the image is wider than the frame
+        float ratio = ((float) srcWidth * dstHeight) / ((float) srcHeight * dstWidth);
+        if (this == FIT) {
+            if (ratio > 1f) {
+                out[1] = 1f / ratio;
+            } else {
+                out[0] = ratio;
+            }
+        } else {
+            if (ratio > 1f) {
+                out[2] = 1f / ratio;
+            } else {
+                out[3] = ratio;
+            }
+        }
+    }
+
+    /**
+     * Computes the region of a srcWidth x srcHeight image that is shown in a dstWidth x
+     * dstHeight frame, in image pixels.  On return {@code out} holds {left, top, width,
+     * height}.
+     *
+     * @param scale scratch space for {@link #computeScale}, at least 4 long
+     * @return false if the whole image is shown, and out is untouched
+     */
+    public boolean computeVisibleRegion(int srcWidth, int srcHeight, int dstWidth,
+                                        int dstHeight, float[] scale, int[] out) {
+        computeScale(srcWidth, srcHeight, dstWidth, dstHeight, scale);
+        if (scale[2] >= 1f && scale[3] >= 1f) {
+            return false;
+        }
+        int w = Math.max(1, Math.round(srcWidth * scale[2]));
+        int h = Math.max(1, Math.round(srcHeight * scale[3]));
+        out[0] = (srcWidth - w) / 2;
+        out[1] = (srcHeight - h) / 2;
+        out[2] = w;
+        out[3] = h;
+        return true;
+    }
+}
@@ -0,0 +1,206 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * {@link VideoMuxer} that spools the encoded samples of one segment of a video to a file, so
+ * that segments encoded in parallel can be {@link #concat joined} into one track afterwards,
+ * without re-encoding.
+ * <p>
+ * Each segment comes from its own encoder, which starts it with a sync frame, so the segments
+ * are closed GOPs.  Joining them only needs the encoders to have produced the same parameter
+ * sets, see {@link #haveSameConfig}, and the samples to be stamped on the one timeline of the
+ * whole video.  Video only.
+ */
+class SegmentMuxer implements VideoMuxer {
+    private static final String TAG = "SegmentMuxer";
+    // per sample: presentation time, flags, size; then the data
+    private static final int HEADER_SIZE = 8 + 4 + 4;
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private MediaFormat mFormat;
+    private int mSampleCount;
+    private long mEndTimeUs = -1;
+
+    SegmentMuxer(File file) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "rw");
+        mRaf.setLength(0);
+        mChannel = mRaf.getChannel();
+    }
+
+    int getSampleCount() {
+        return mSampleCount;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        if (mFormat != null) {
+            throw new IllegalStateException("only one track is supported");
+        }
+        mFormat = format;
+        return 0;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        mHeader.clear();
+        mHeader.putLong(info.presentationTimeUs).putInt(info.flags).putInt(data.remaining());
+        mHeader.flip();
+        try {
+            while (mHeader.hasRemaining()) {
+                mChannel.write(mHeader);
+            }
+            while (data.hasRemaining()) {
+                mChannel.write(data);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("writing segment failed", ioe);
+        }
+        mSampleCount++;
+    }
+
+    /**
+     * Kept for {@link #concat}, which ends the joined track where the last segment ends; the
+     * other segments end where the next one starts.
+     */
+    @Override
+    public void endTrack(int trackIndex, long endTimeUs) {
+        mEndTimeUs = endTimeUs;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    /**
+     * Does nothing: the spool outlives the segment's encoder, which releases its muxer, until
+     * {@link #delete()}.
+     */
+    @Override
+    public void release() {
+    }
+
+    /**
+     * Closes and deletes the spool file.
+     */
+    void delete() {
+        try {
+            mRaf.close();
+        } catch (IOException ioe) {
+            Log.w(TAG, "close failed", ioe);
+        }
+        if (!mFile.delete()) {
+            Log.w(TAG, "can't delete " + mFile);
+        }
+    }
+
+    /**
+     * Whether all the segments' encoders produced the same codec config data, so that their
+     * samples can share the first one's sample description.
+     */
+    static boolean haveSameConfig(List<SegmentMuxer> segments) {
+        MediaFormat first = segments.get(0).mFormat;
+        for (SegmentMuxer segment : segments) {
+            MediaFormat format = segment.mFormat;
+            if (format == null
+                    || !sameBuffer(first.getByteBuffer("csd-0"), format.getByteBuffer("csd-0"))
+                    || !sameBuffer(first.getByteBuffer("csd-1"), format.getByteBuffer("csd-1"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the segments, in order, as one track of muxer, which is started with the first
+     * segment's format, and ended where the last segment was.  Returns the track's index.
+     *
+     * @throws IllegalStateException if the timestamps don't increase across a segment boundary
+     */
+    static int concat(List<SegmentMuxer> segments, VideoMuxer muxer)
+            throws IOException, InterruptedException {
+        int track = muxer.addTrack(segments.get(0).mFormat);
+        muxer.start();
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer data = ByteBuffer.allocateDirect(256 * 1024);
+        long lastTimeUs = Long.MIN_VALUE;
+
+        for (int i = 0; i < segments.size(); i++) {
+            FileChannel channel = segments.get(i).mChannel;
+            channel.position(0);
+            while (true) {
+                header.clear();
+                if (!readFully(channel, header))
+                    break;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                long timeUs = header.getLong();
+                int flags = header.getInt();
+                int size = header.getInt();
+                if (timeUs <= lastTimeUs) {
+                    throw new IllegalStateException("segment " + i + " goes back to " + timeUs
+                            + " us after " + lastTimeUs + " us");
+                }
+                lastTimeUs = timeUs;
+                if (data.capacity() < size)
+                    data = ByteBuffer.allocateDirect(Math.max(size, data.capacity() * 2));
+                data.clear();
+                data.limit(size);
+                if (!readFully(channel, data))
+                    throw new IOException("segment " + i + " is truncated");
+                info.set(0, size, timeUs, flags);
+                muxer.writeSampleData(track, data, info);
+            }
+        }
+        long endTimeUs = segments.get(segments.size() - 1).mEndTimeUs;
+        if (endTimeUs >= 0)
+            muxer.endTrack(track, endTimeUs);
+        return track;
+    }
+
+    /**
+     * Fills buffer up to its limit from channel and flips it.  Returns false if the channel
+     * was at its end.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == start)
+                    return false;
+                throw new IOException("unexpected end of segment");
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static boolean sameBuffer(ByteBuffer a, ByteBuffer b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        ByteBuffer x = a.duplicate();
+        ByteBuffer y = b.duplicate();
+        x.rewind();
+        y.rewind();
+        return x.equals(y);
+    }
+}
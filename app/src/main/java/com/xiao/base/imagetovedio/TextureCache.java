@@ -0,0 +1,153 @@
+package com.xiao.base.imagetovedio;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of GL textures keyed by image source and target size.
+ * <p>
+ * A frame whose source is already cached costs a texture bind; it is neither decoded nor
+ * uploaded again.  The cache keeps its textures under a byte budget (counted as four bytes
+ * per texel) and deletes the least recently used ones first.
+ * <p>
+ * Must only be used on the thread that owns the GL context.
+ */
+public class TextureCache {
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Texture> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true);   // access order
+    private long mBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    /**
+     * A cached texture and the size of the image in it.
+     */
+    public static class Texture {
+        public final int texId;
+        public final int width;
+        public final int height;
+        final long bytes;
+
+        Texture(int texId, int width, int height) {
+            this.texId = texId;
+            this.width = width;
+            this.height = height;
+            this.bytes = 4L * width * height;
+        }
+    }
+
+    public TextureCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Cache key of a source (a resource id, or any other stable id) drawn at a target size.
+     */
+    public static String key(int sourceId, int width, int height) {
+        return sourceId + "@" + width + "x" + height;
+    }
+
+    /**
+     * Returns the texture cached for key, or null.
+     */
+    public Texture get(String key) {
+        Texture texture = mEntries.get(key);
+        if (texture == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return texture;
+    }
+
+    /**
+     * Uploads the bitmap into a new texture stored under key, evicting older textures as
+     * needed.  Returns null, without uploading anything, if the bitmap alone exceeds the
+     * budget.
+     */
+    public Texture put(String key, Bitmap bitmap) {
+        long bytes = 4L * bitmap.getWidth() * bitmap.getHeight();
+        if (bytes > mMaxBytes) {
+            return null;
+        }
+        Texture previous = mEntries.remove(key);
+        if (previous != null) {
+            deleteTexture(previous);
+        }
+        trimTo(mMaxBytes - bytes);
+
+        int[] texIds = new int[1];
+        GLES20.glGenTextures(1, texIds, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texIds[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+
+        Texture texture = new Texture(texIds[0], bitmap.getWidth(), bitmap.getHeight());
+        mEntries.put(key, texture);
+        mBytes += bytes;
+        return texture;
+    }
+
+    public int getHitCount() {
+        return mHits;
+    }
+
+    public int getMissCount() {
+        return mMisses;
+    }
+
+    public float getHitRate() {
+        int lookups = mHits + mMisses;
+        return lookups == 0 ? 0f : mHits / (float) lookups;
+    }
+
+    public int getEvictionCount() {
+        return mEvictions;
+    }
+
+    public long getSizeBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Deletes every cached texture.  Call with the GL context current.
+     */
+    public void release() {
+        for (Texture entry : mEntries.values()) {
+            deleteTexture(entry);
+        }
+        mEntries.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "TextureCache{bytes=" + mBytes + "/" + mMaxBytes + ", hits=" + mHits
+                + ", misses=" + mMisses + ", evictions=" + mEvictions + "}";
+    }
+
+    private void trimTo(long maxBytes) {
+        Iterator<Map.Entry<String, Texture>> it = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            Texture eldest = it.next().getValue();
+            it.remove();
+            deleteTexture(eldest);
+            mEvictions++;
+        }
+    }
+
+    private void deleteTexture(Texture entry) {
+        GLES20.glDeleteTextures(1, new int[] {entry.texId}, 0);
+        mBytes -= entry.bytes;
+    }
+}
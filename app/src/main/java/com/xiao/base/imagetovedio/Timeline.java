@@ -0,0 +1,112 @@
+package com.xiao.base.imagetovedio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a video shows when: a sequence of clips, each a still image on screen from its start
+ * for its duration, and optionally blending into the next one with a {@link Transition} over
+ * its last transitionUs.
+ * <p>
+ * Times are longs in microseconds, independent of any frame rate, so they stay exact however
+ * long the video.  {@link FrameScheduler} turns a timeline into the frames to encode.  The
+ * caller keeps what each clip shows, by index.  Plain Java, so it can be tested on the JVM.
+ */
+public class Timeline {
+
+    /**
+     * One still on the timeline.
+     */
+    public static class Clip {
+        public final long startUs;
+        public final long durationUs;
+        /** Transition into the next clip, or null for a cut. */
+        public final Transition transition;
+        /** Length of the transition, at the end of this clip; 0 for a cut. */
+        public final long transitionUs;
+
+        Clip(long startUs, long durationUs, Transition transition, long transitionUs) {
+            this.startUs = startUs;
+            this.durationUs = durationUs;
+            this.transition = transition;
+            this.transitionUs = transitionUs;
+        }
+
+        public long getEndUs() {
+            return startUs + durationUs;
+        }
+
+        @Override
+        public String toString() {
+            return "Clip{" + startUs + " us +" + durationUs + " us"
+                    + (transition != null ? ", " + transition + " " + transitionUs + " us" : "")
+                    + "}";
+        }
+    }
+
+    private final List<Clip> mClips = new ArrayList<>();
+
+    /**
+     * Appends a clip that cuts to the next one.  Returns its index.
+     */
+    public int append(long durationUs) {
+        return append(durationUs, null, 0);
+    }
+
+    /**
+     * Appends a clip, starting where the last one ends.  Returns its index.
+     *
+     * @param transition   transition into the next clip, or null for a cut; unused on the
+     *                     last clip
+     * @param transitionUs length of the transition, taken from the end of this clip
+     */
+    public int append(long durationUs, Transition transition, long transitionUs) {
+        if (durationUs <= 0) {
+            throw new IllegalArgumentException("duration " + durationUs + " us");
+        }
+        if (transition == null) {
+            transitionUs = 0;
+        } else if (transitionUs <= 0 || transitionUs > durationUs) {
+            throw new IllegalArgumentException("transition of " + transitionUs
+                    + " us in a clip of " + durationUs + " us");
+        }
+        mClips.add(new Clip(getDurationUs(), durationUs, transition, transitionUs));
+        return mClips.size() - 1;
+    }
+
+    public int getClipCount() {
+        return mClips.size();
+    }
+
+    public Clip getClip(int index) {
+        return mClips.get(index);
+    }
+
+    /**
+     * End of the last clip.
+     */
+    public long getDurationUs() {
+        return mClips.isEmpty() ? 0 : mClips.get(mClips.size() - 1).getEndUs();
+    }
+
+    /**
+     * Index of the clip on screen at timeUs, or -1 if that is outside the timeline.  During a
+     * transition that is the outgoing clip.
+     */
+    public int getClipAt(long timeUs) {
+        int low = 0;
+        int high = mClips.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Clip clip = mClips.get(mid);
+            if (timeUs < clip.startUs) {
+                high = mid - 1;
+            } else if (timeUs >= clip.getEndUs()) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,76 @@
+package com.xiao.base.imagetovedio;
+
+/**
+ * Transitions between two stills, each rendered by {@link GLHelper#drawTransition} as one
+ * shader pass that samples both textures.  Intermediate frames cost a draw call; nothing is
+ * decoded, composed or uploaded per frame.
+ * <p>
+ * At progress 0 a transition shows the outgoing image as {@link GLHelper#drawUploaded()}
+ * would, and at progress 1 the incoming one, so it can be spliced between plain frames.
+ */
+public enum Transition {
+    /** Blend from one image to the other. */
+    CROSSFADE(
+            "  gl_FragColor = mix(sampleFrom(p), sampleTo(p), t);"),
+    /** Push the outgoing image off to the left with the incoming one. */
+    SLIDE(
+            "  vec2 q = p + vec2(t, 0.0);" +
+            "  gl_FragColor = q.x < 1.0 ? sampleFrom(q) : sampleTo(q - vec2(1.0, 0.0));"),
+    /** Zoom into the outgoing image while fading to the incoming one. */
+    ZOOM(
+            "  vec2 c = vec2(0.5);" +
+            "  gl_FragColor = mix(sampleFrom((p - c) / (1.0 + t) + c), sampleTo(p), t);"),
+    /**
+     * Ken Burns: the outgoing image slowly zooms and pans away while the incoming one
+     * settles from a zoomed, offset framing into place.
+     */
+    KEN_BURNS(
+            "  vec2 c = vec2(0.5);" +
+            "  vec2 pan = vec2(0.05, 0.03);" +
+            "  vec2 pf = (p - c) / (1.0 + 0.2 * t) + c - pan * t;" +
+            "  vec2 pt = (p - c) / (1.2 - 0.2 * t) + c + pan * (1.0 - t);" +
+            "  gl_FragColor = mix(sampleFrom(pf), sampleTo(pt), smoothstep(0.0, 1.0, t));");
+
+    /**
+     * Full-screen quad; v_pos runs from (0, 0) at the top left of the frame to (1, 1).
+     */
+    static final String VERTEX_SHADER =
+            "attribute vec4 vPosition;" +
+            "attribute vec2 a_texCoord;" +
+            "varying vec2 v_pos;" +
+            "void main() {" +
+            "  gl_Position = vPosition;" +
+            "  v_pos = a_texCoord;" +
+            "}";
+
+    // uFromRect / uToRect map frame position to texture coordinates (xy scale, zw offset);
+    // what falls outside the image is black, as in the letterbox bars of ScaleMode.FIT.
+    private static final String FRAGMENT_SHADER_HEADER =
+            "precision highp float;" +
+            "varying vec2 v_pos;" +
+            "uniform sampler2D uFrom;" +
+            "uniform sampler2D uTo;" +
+            "uniform vec4 uFromRect;" +
+            "uniform vec4 uToRect;" +
+            "uniform float uProgress;" +
+            "vec4 sampleFitted(sampler2D s, vec4 rect, vec2 p) {" +
+            "  vec2 uv = p * rect.xy + rect.zw;" +
+            "  vec2 inside = step(vec2(0.0), uv) * step(uv, vec2(1.0));" +
+            "  return vec4(texture2D(s, uv).rgb * inside.x * inside.y, 1.0);" +
+            "}" +
+            "vec4 sampleFrom(vec2 p) { return sampleFitted(uFrom, uFromRect, p); }" +
+            "vec4 sampleTo(vec2 p) { return sampleFitted(uTo, uToRect, p); }" +
+            "void main() {" +
+            "  vec2 p = v_pos;" +
+            "  float t = uProgress;";
+
+    private final String mBody;
+
+    Transition(String body) {
+        mBody = body;
+    }
+
+    String getFragmentShader() {
+        return FRAGMENT_SHADER_HEADER + mBody + "}";
+    }
+}
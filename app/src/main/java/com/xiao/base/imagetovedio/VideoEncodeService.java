@@ -0,0 +1,223 @@
+package com.xiao.base.imagetovedio;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Foreground service that runs encodes off the main thread, on the worker threads of a
+ * {@link VideoJobScheduler}, and keeps them going while activities come and go.
+ * <p>
+ * Activities bind to it, {@link #submit} jobs and get back the {@link VideoJobScheduler.Job}
+ * to cancel or query them with, and register a {@link VideoJobScheduler.Listener} for
+ * updates.  Listeners are called on the main thread, with progress thinned out to one update
+ * per {@link #PROGRESS_INTERVAL_MS} per job; the notification shows the same progress.  An
+ * activity recreated mid-encode binds again and finds its jobs in {@link #getJobs()}.
+ * <p>
+ * The service starts itself, and goes into the foreground, with the first job, and stops once
+ * the last one is over.
+ */
+public class VideoEncodeService extends Service {
+    private static final String TAG = "VideoEncodeService";
+    private static final String CHANNEL_ID = "video_encode";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    private static final int QUEUE_CAPACITY = 8;
+
+    /**
+     * What an activity gets when it binds.
+     */
+    public class LocalBinder extends Binder {
+        public VideoEncodeService getService() {
+            return VideoEncodeService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<VideoJobScheduler.Listener> mListeners = new CopyOnWriteArrayList<>();
+    // jobs not over yet; main thread only
+    private final List<VideoJobScheduler.Job> mJobs = new ArrayList<>();
+    private VideoJobScheduler mScheduler;
+    private NotificationCompat.Builder mNotification;
+    private boolean mForeground;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mScheduler = new VideoJobScheduler(QUEUE_CAPACITY);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.encode_channel_name), NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE))
+                    .createNotificationChannel(channel);
+        }
+        mNotification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.encode_notification_title))
+                .setOnlyAlertOnce(true)
+                .setOngoing(true);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // jobs only come in through the binder, and die with the process
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        mScheduler.shutdown();
+        mListeners.clear();
+        super.onDestroy();
+    }
+
+    /**
+     * Registers a listener for the updates of every job.  Called on the main thread.
+     */
+    public void addListener(VideoJobScheduler.Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(VideoJobScheduler.Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * The jobs that are queued or running.  Main thread only.
+     */
+    public List<VideoJobScheduler.Job> getJobs() {
+        return new ArrayList<>(mJobs);
+    }
+
+    /**
+     * Queues an encode of slides, as {@link VideoJobScheduler.Job} describes it.  Main thread
+     * only.
+     */
+    public VideoJobScheduler.Job submit(List<ImageVideoConverter.Slide> slides, int width,
+                                        int height, String outputPath,
+                                        ImageVideoConverter.Options options, int priority) {
+        return submit(new VideoJobScheduler.Job(slides, width, height, outputPath, options,
+                priority, new JobListener()));
+    }
+
+    /**
+     * Queues an encode of drawable resources, each shown for slideSeconds.  They are read
+     * through {@link FrameSource#fromResources}: decoded on the worker thread, one at a time,
+     * at the output size, into pooled bitmaps.  One that can't be decoded fails the job.
+     * Main thread only.
+     */
+    public VideoJobScheduler.Job submitResources(int[] resIds, float slideSeconds, int width,
+                                                 int height, String outputPath,
+                                                 ImageVideoConverter.Options options,
+                                                 int priority) {
+        return submit(new VideoJobScheduler.Job(
+                FrameSource.fromResources(getResources(), resIds.clone()), slideSeconds,
+                ScaleMode.STRETCH, width, height, outputPath, options, priority,
+                new JobListener()));
+    }
+
+    private VideoJobScheduler.Job submit(VideoJobScheduler.Job job) {
+        mScheduler.submit(job);
+        mJobs.add(job);
+        if (!mForeground) {
+            // Started as well as bound, so that unbinding doesn't end the encode.  Started
+            // from an activity in the foreground, so allowed to go into the foreground.
+            startService(new Intent(this, VideoEncodeService.class));
+            startForeground(NOTIFICATION_ID, buildNotification(0, 0));
+            mForeground = true;
+        }
+        return job;
+    }
+
+    private void onJobOver(VideoJobScheduler.Job job) {
+        mJobs.remove(job);
+        if (mJobs.isEmpty() && mForeground) {
+            stopForeground(true);
+            mForeground = false;
+            // still alive while an activity is bound
+            stopSelf();
+        }
+    }
+
+    private Notification buildNotification(int framesDone, int framesTotal) {
+        return mNotification
+                .setContentText(getString(R.string.encode_notification_text, mJobs.size()))
+                .setProgress(Math.max(framesTotal, 0), framesDone, framesTotal <= 0)
+                .build();
+    }
+
+    /**
+     * Passes one job's updates to the main thread, progress at a bounded rate.
+     */
+    private class JobListener implements VideoJobScheduler.Listener {
+        private final ProgressThrottle mThrottle =
+                new ProgressThrottle(PROGRESS_INTERVAL_MS * 1000000L);
+
+        @Override
+        public void onProgress(final VideoJobScheduler.Job job, final int framesDone,
+                               final int framesTotal) {
+            if (!mThrottle.shouldReport(framesDone, framesTotal, System.nanoTime())) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mForeground) {
+                        ((NotificationManager) getSystemService(NOTIFICATION_SERVICE)).notify(
+                                NOTIFICATION_ID, buildNotification(framesDone, framesTotal));
+                    }
+                    for (VideoJobScheduler.Listener listener : mListeners) {
+                        listener.onProgress(job, framesDone, framesTotal);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onFinished(final VideoJobScheduler.Job job, final boolean success) {
+            Log.d(TAG, job.getOutputPath() + (success ? " done" : " failed"));
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onJobOver(job);
+                    for (VideoJobScheduler.Listener listener : mListeners) {
+                        listener.onFinished(job, success);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCancelled(final VideoJobScheduler.Job job) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onJobOver(job);
+                    for (VideoJobScheduler.Listener listener : mListeners) {
+                        listener.onCancelled(job);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs slideshow encodes in the background, as many at a time as the device has AVC
+ * encoder instances to spare.
+ * <p>
+ * Jobs wait in a bounded queue, highest priority first (FIFO among equal priorities).
+ * {@link #submit(Job)} rejects a job once the queue is full.  A queued job can be cancelled
+ * before it starts; a running one is interrupted and its partial output deleted, unless the
+ * job is resumable and can go on from it when submitted again.
+ */
+public class VideoJobScheduler {
+    private static final String TAG = "VideoJobScheduler";
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+
+    // more parallel encodes than this rarely helps, whatever the codec claims
+    private static final int MAX_PARALLEL_JOBS = 4;
+
+    public static final int PRIORITY_LOW = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
+
+    /**
+     * Receives job updates.  Called on the worker thread running the job, or for a job
+     * cancelled while still queued, on the thread that cancelled it.
+     */
+    public interface Listener {
+        void onProgress(Job job, int framesDone, int framesTotal);
+
+        void onFinished(Job job, boolean success);
+
+        void onCancelled(Job job);
+    }
+
+    public enum State { QUEUED, RUNNING, FINISHED, FAILED, CANCELLED }
+
+    /**
+     * One slideshow to encode: a list of slides, or a {@link FrameSource} read once.
+     */
+    public static class Job implements Runnable, Comparable<Job> {
+        private static final AtomicLong sSequence = new AtomicLong();
+
+        final List<ImageVideoConverter.Slide> slides;
+        final FrameSource source;
+        final float frameDuration;
+        final ScaleMode scaleMode;
+        final int width;
+        final int height;
+        final String outputPath;
+        final ImageVideoConverter.Options options;
+        final int priority;
+        final Listener listener;
+        private final long mSequence = sSequence.getAndIncrement();
+
+        private VideoJobScheduler mScheduler;
+        private State mState = State.QUEUED;
+        private Thread mRunner;
+        // delete the partial output even if the job could be resumed from it
+        private boolean mDiscard;
+
+        public Job(List<ImageVideoConverter.Slide> slides, int width, int height,
+                   String outputPath, ImageVideoConverter.Options options,
+                   int priority, Listener listener) {
+            this(slides, null, 0, null, width, height, outputPath, options, priority,
+                    listener);
+        }
+
+        /**
+         * A job that encodes the images of source, each shown for frameDuration seconds, as
+         * {@link ImageVideoConverter#convertFramesToVideo} does: decoded one at a time, on
+         * the worker thread, at the output size.  The job closes the source.
+         */
+        public Job(FrameSource source, float frameDuration, ScaleMode scaleMode, int width,
+                   int height, String outputPath, ImageVideoConverter.Options options,
+                   int priority, Listener listener) {
+            this(null, source, frameDuration, scaleMode, width, height, outputPath, options,
+                    priority, listener);
+        }
+
+        private Job(List<ImageVideoConverter.Slide> slides, FrameSource source,
+                    float frameDuration, ScaleMode scaleMode, int width, int height,
+                    String outputPath, ImageVideoConverter.Options options, int priority,
+                    Listener listener) {
+            this.slides = slides;
+            this.source = source;
+            this.frameDuration = frameDuration;
+            this.scaleMode = scaleMode;
+            this.width = width;
+            this.height = height;
+            this.outputPath = outputPath;
+            // our own copy: the caller may share one Options between jobs
+            this.options = options != null ? options.copy() : new ImageVideoConverter.Options();
+            this.priority = priority;
+            this.listener = listener;
+        }
+
+        public synchronized State getState() {
+            return mState;
+        }
+
+        public String getOutputPath() {
+            return outputPath;
+        }
+
+        /**
+         * Cancels the job.  Has no effect once it has finished.  The partial output of a
+         * {@link ImageVideoConverter.Options#resumable resumable} job is kept, with its
+         * journal, so that submitting the same job again goes on from where it stopped; any
+         * other job's is deleted.
+         */
+        public void cancel() {
+            boolean wasQueued;
+            synchronized (this) {
+                if (mState != State.QUEUED && mState != State.RUNNING) {
+                    return;
+                }
+                wasQueued = mState == State.QUEUED;
+                mState = State.CANCELLED;
+                if (mRunner != null) {
+                    mRunner.interrupt();
+                }
+            }
+            if (wasQueued) {
+                if (mScheduler != null) {
+                    mScheduler.mExecutor.remove(this);
+                    mScheduler.mJobs.remove(this);
+                }
+                closeSource();
+                if (listener != null) {
+                    listener.onCancelled(this);
+                }
+            }
+        }
+
+        /**
+         * Cancels the job, if it isn't over, and deletes its partial output and journal, even
+         * if it could be resumed from them.  Has no effect once it has finished.
+         */
+        public void discard() {
+            boolean running;
+            synchronized (this) {
+                if (mState == State.FINISHED) {
+                    return;
+                }
+                mDiscard = true;
+                running = mRunner != null;
+            }
+            cancel();
+            if (!running) {
+                // queued, or over: nothing writes to the output any more, run() won't delete it
+                ImageVideoConverter.deleteOutput(outputPath);
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mState != State.QUEUED) {
+                    return;
+                }
+                mState = State.RUNNING;
+                mRunner = Thread.currentThread();
+            }
+
+            // the caller's own listener, if any, still hears about progress
+            final ImageVideoConverter.ProgressListener previous = options.progressListener;
+            options.progressListener = new ImageVideoConverter.ProgressListener() {
+                @Override
+                public void onProgress(int framesDone, int framesTotal) {
+                    if (previous != null) {
+                        previous.onProgress(framesDone, framesTotal);
+                    }
+                    if (listener != null) {
+                        listener.onProgress(Job.this, framesDone, framesTotal);
+                    }
+                }
+            };
+            boolean success = false;
+            try {
+                if (source != null) {
+                    // closes the source
+                    success = ImageVideoConverter.convertFramesToVideo(source, frameDuration,
+                            scaleMode, width, height, outputPath, options);
+                } else {
+                    success = ImageVideoConverter.convertImagesToVideo(
+                            slides, width, height, outputPath, options);
+                }
+            } finally {
+                if (mScheduler != null) {
+                    mScheduler.mJobs.remove(this);
+                }
+                boolean cancelled;
+                boolean discard;
+                synchronized (this) {
+                    mRunner = null;
+                    cancelled = mState == State.CANCELLED;
+                    discard = mDiscard;
+                    if (!cancelled) {
+                        mState = success ? State.FINISHED : State.FAILED;
+                    }
+                }
+                // don't let a cancel aimed at this job hit the next one on this thread
+                Thread.interrupted();
+                if (cancelled) {
+                    // a resumable job keeps what it wrote, to go on from it next time
+                    if (discard || !options.resumable
+                            || !ImageVideoConverter.canResume(outputPath)) {
+                        ImageVideoConverter.deleteOutput(outputPath);
+                    }
+                    if (listener != null) {
+                        listener.onCancelled(this);
+                    }
+                } else if (listener != null) {
+                    listener.onFinished(this, success);
+                }
+            }
+        }
+
+        private void closeSource() {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "closing frame source failed", e);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mQueueCapacity;
+    // submitted and not over yet, queued or running
+    private final Set<Job> mJobs =
+            Collections.newSetFromMap(new ConcurrentHashMap<Job, Boolean>());
+
+    /**
+     * Creates a scheduler sized by {@link #getMaxEncoderInstances()}.
+     */
+    public VideoJobScheduler(int queueCapacity) {
+        this(getMaxEncoderInstances(), queueCapacity);
+    }
+
+    public VideoJobScheduler(int parallelJobs, int queueCapacity) {
+        mQueueCapacity = queueCapacity;
+        mExecutor = new ThreadPoolExecutor(parallelJobs, parallelJobs, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, TAG + "-" + mCount.getAndIncrement());
+            }
+        });
+        Log.d(TAG, "running up to " + parallelJobs + " encodes in parallel");
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @throws RejectedExecutionException if the queue is full or the scheduler shut down
+     */
+    public synchronized Job submit(Job job) {
+        if (mExecutor.getQueue().size() >= mQueueCapacity) {
+            throw new RejectedExecutionException("job queue full (" + mQueueCapacity + ")");
+        }
+        job.mScheduler = this;
+        mJobs.add(job);
+        try {
+            mExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            mJobs.remove(job);
+            throw e;
+        }
+        return job;
+    }
+
+    public int getQueuedJobCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * Cancels every queued and running job and stops the worker threads.  Running jobs end
+     * as cancelled, like any other cancelled job: resumable ones keep their partial output
+     * to go on from, the others' is deleted.
+     */
+    public void shutdown() {
+        for (Job job : mJobs.toArray(new Job[0])) {
+            job.cancel();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * How many AVC encodes the device can run at once: what the encoder {@link EncoderProbe}
+     * picks, the one every encode uses, reports as its
+     * {@link EncoderProbe#getMaxSupportedInstances() maximum instances}.  Capped by the CPU
+     * count and MAX_PARALLEL_JOBS; 1 if there is no encoder.  The probe is made once per
+     * process.
+     */
+    public static int getMaxEncoderInstances() {
+        EncoderProbe probe = EncoderProbe.get(MIME_TYPE);
+        return clampInstances(probe != null ? probe.getMaxSupportedInstances() : 1);
+    }
+
+    private static int clampInstances(int instances) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(instances, Math.min(cpus, MAX_PARALLEL_JOBS)));
+    }
+}
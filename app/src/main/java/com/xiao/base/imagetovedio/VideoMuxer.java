@@ -0,0 +1,43 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of encoded samples, of the video track and any others (audio).  Same life cycle as {@link android.media.MediaMuxer}:
+ * {@link #addTrack(MediaFormat)} for each track, {@link #start()},
+ * {@link #writeSampleData(int, ByteBuffer, MediaCodec.BufferInfo)} any number of times,
+ * optionally {@link #endTrack(int, long)}, {@link #stop()}, {@link #release()}.
+ *
+ * @see MediaMuxerAdapter
+ * @see FragmentedMp4Muxer
+ */
+public interface VideoMuxer {
+    /**
+     * Adds a track with the given format, as reported by its encoder, and returns its index.
+     */
+    int addTrack(MediaFormat format);
+
+    void start();
+
+    /**
+     * Writes one encoded sample.  The buffer's position and limit delimit the sample.
+     */
+    void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info);
+
+    /**
+     * Ends a track at endTimeUs, after its last sample: that sample lasts until then.  A
+     * sample's duration comes from the next one's timestamp, so without this the last one
+     * can only be given the duration of the one before it.
+     */
+    void endTrack(int trackIndex, long endTimeUs);
+
+    void stop();
+
+    /**
+     * Frees the muxer's resources.  Safe to call without {@link #stop()}, after a failure.
+     */
+    void release();
+}
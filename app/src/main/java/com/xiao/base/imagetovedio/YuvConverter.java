@@ -0,0 +1,341 @@
+package com.xiao.base.imagetovedio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Converts RGB frames to YUV 4:2:0 (BT.601, limited range) for encoders fed through their
+ * input buffers: I420 (three planes) or NV12 (a luma plane and an interleaved chroma plane).
+ * <p>
+ * The frame is cut into stripes of rows converted in parallel, one on the calling thread and
+ * the others on the converter's own threads.  Each stripe reads two rows at a time into
+ * arrays and converts 2x2 blocks in one unrolled loop, so the inner loop only does array
+ * arithmetic; nothing is allocated per pixel or per row.
+ * <p>
+ * Width and height must be even.  Source rows are copied in with bulk gets, so any
+ * ByteBuffer works; direct ones are the fastest.  {@link #release()} stops the threads.
+ */
+public class YuvConverter {
+    private static final String TAG = "YuvConverter";
+
+    /**
+     * Layout of the YUV frame written.
+     */
+    public enum Layout {
+        /** Y plane, then U plane, then V plane; chroma rows are half the luma stride. */
+        I420,
+        /** Y plane, then one plane of interleaved U and V samples at the luma stride. */
+        NV12
+    }
+
+    /**
+     * Layout of the RGB frame read.
+     */
+    public enum InputFormat {
+        /** R, G, B, A bytes: what Bitmap.copyPixelsToBuffer() writes for ARGB_8888. */
+        RGBA_8888(4),
+        /** Little-endian 16-bit 5-6-5 pixels: copyPixelsToBuffer() for RGB_565. */
+        RGB_565(2);
+
+        final int bytesPerPixel;
+
+        InputFormat(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Layout mLayout;
+    private final int mStride;
+    private final int mSliceHeight;
+    private final Stripe[] mStripes;
+    private final ExecutorService mExecutor;
+
+    /**
+     * A converter writing tightly packed frames: stride is the width, slice height the height.
+     */
+    public YuvConverter(int width, int height, Layout layout, int threads) {
+        this(width, height, layout, width, height, threads);
+    }
+
+    /**
+     * @param stride      bytes between luma rows in the output, at least width
+     * @param sliceHeight rows of the luma plane in the output, at least height; the chroma
+     *                    planes start after this many rows
+     * @param threads     stripes converted in parallel, including the calling thread
+     */
+    public YuvConverter(int width, int height, Layout layout, int stride, int sliceHeight,
+                        int threads) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("size must be even: " + width + "x" + height);
+        }
+        if (stride < width || sliceHeight < height || (stride & 1) != 0
+                || (sliceHeight & 1) != 0) {
+            throw new IllegalArgumentException("bad stride " + stride
+                    + " or slice height " + sliceHeight);
+        }
+        mWidth = width;
+        mHeight = height;
+        mLayout = layout;
+        mStride = stride;
+        mSliceHeight = sliceHeight;
+
+        // stripes of an even number of rows, at least 16 of them
+        int count = Math.max(1, Math.min(threads, height / 16));
+        mStripes = new Stripe[count];
+        int pairs = height / 2;
+        for (int i = 0; i < count; i++) {
+            mStripes[i] = new Stripe(pairs * i / count * 2, pairs * (i + 1) / count * 2);
+        }
+        mExecutor = count > 1 ? Executors.newFixedThreadPool(count - 1, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG + "-" + mCount++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Bytes of one output frame, padding included.
+     */
+    public int getFrameSize() {
+        return mStride * mSliceHeight * 3 / 2;
+    }
+
+    /**
+     * Converts one frame.  Reads from src's position and writes from dst's position; the
+     * positions of both are left as they were.
+     *
+     * @param srcRowStride bytes between rows in src, at least width times the pixel size
+     */
+    public void convert(ByteBuffer src, InputFormat format, int srcRowStride, ByteBuffer dst) {
+        if (srcRowStride < mWidth * format.bytesPerPixel
+                || src.remaining() < srcRowStride * (mHeight - 1)
+                        + mWidth * format.bytesPerPixel) {
+            throw new IllegalArgumentException("source too small for " + mWidth + "x"
+                    + mHeight + " " + format);
+        }
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("destination holds " + dst.remaining()
+                    + " bytes, needs " + getFrameSize());
+        }
+        for (Stripe stripe : mStripes) {
+            stripe.set(src, format, srcRowStride, dst);
+        }
+        if (mStripes.length == 1) {
+            mStripes[0].convert();
+            return;
+        }
+
+        CountDownLatch done = new CountDownLatch(mStripes.length - 1);
+        for (int i = 1; i < mStripes.length; i++) {
+            mStripes[i].mDone = done;
+            mExecutor.execute(mStripes[i]);
+        }
+        RuntimeException error = null;
+        try {
+            mStripes[0].convert();
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        // the other stripes write into dst: they must be finished before returning
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 1; i < mStripes.length && error == null; i++) {
+            error = mStripes[i].mError;
+        }
+        for (Stripe stripe : mStripes) {
+            stripe.clear();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Stops the converter's threads.
+     */
+    public void release() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Rows [firstRow, endRow) of the frame, with the scratch arrays to convert them.
+     */
+    private class Stripe implements Runnable {
+        final int mFirstRow;
+        final int mEndRow;
+        final byte[] mRow0;
+        final byte[] mRow1;
+        final byte[] mY0 = new byte[mWidth];
+        final byte[] mY1 = new byte[mWidth];
+        // NV12: interleaved U and V; I420: U then V in separate arrays
+        final byte[] mU;
+        final byte[] mV;
+
+        ByteBuffer mSrc;
+        InputFormat mFormat;
+        int mSrcRowStride;
+        ByteBuffer mDst;
+        CountDownLatch mDone;
+        RuntimeException mError;
+
+        Stripe(int firstRow, int endRow) {
+            mFirstRow = firstRow;
+            mEndRow = endRow;
+            mRow0 = new byte[mWidth * 4];
+            mRow1 = new byte[mWidth * 4];
+            if (mLayout == Layout.NV12) {
+                mU = mV = new byte[mWidth];
+            } else {
+                mU = new byte[mWidth / 2];
+                mV = new byte[mWidth / 2];
+            }
+        }
+
+        void set(ByteBuffer src, InputFormat format, int srcRowStride, ByteBuffer dst) {
+            // each stripe moves its own positions
+            mSrc = src.duplicate();
+            mFormat = format;
+            mSrcRowStride = srcRowStride;
+            mDst = dst.duplicate();
+            mError = null;
+        }
+
+        void clear() {
+            mSrc = null;
+            mDst = null;
+            mDone = null;
+        }
+
+        @Override
+        public void run() {
+            try {
+                convert();
+            } catch (RuntimeException e) {
+                mError = e;
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        void convert() {
+            int srcBase = mSrc.position();
+            int dstBase = mDst.position();
+            int rowBytes = mWidth * mFormat.bytesPerPixel;
+            boolean nv12 = mLayout == Layout.NV12;
+            int chromaBase = dstBase + mStride * mSliceHeight;
+            int chromaStride = nv12 ? mStride : mStride / 2;
+            int chromaBytes = nv12 ? mWidth : mWidth / 2;
+            int vPlane = chromaBase + chromaStride * (mSliceHeight / 2);
+
+            for (int row = mFirstRow; row < mEndRow; row += 2) {
+                readRow(srcBase + row * mSrcRowStride, rowBytes, mRow0);
+                readRow(srcBase + (row + 1) * mSrcRowStride, rowBytes, mRow1);
+                convertRowPair();
+
+                mDst.position(dstBase + row * mStride);
+                mDst.put(mY0, 0, mWidth);
+                mDst.position(dstBase + (row + 1) * mStride);
+                mDst.put(mY1, 0, mWidth);
+                mDst.position(chromaBase + row / 2 * chromaStride);
+                mDst.put(mU, 0, chromaBytes);
+                if (!nv12) {
+                    mDst.position(vPlane + row / 2 * chromaStride);
+                    mDst.put(mV, 0, chromaBytes);
+                }
+            }
+        }
+
+        /**
+         * Reads a source row into row as RGBA, expanding RGB 565 on the way.
+         */
+        private void readRow(int offset, int rowBytes, byte[] row) {
+            mSrc.position(offset);
+            if (mFormat == InputFormat.RGBA_8888) {
+                mSrc.get(row, 0, rowBytes);
+                return;
+            }
+            // the 565 row goes in the upper half, then expands downwards over itself
+            int packed = row.length - rowBytes;
+            mSrc.get(row, packed, rowBytes);
+            for (int x = 0, p = packed, q = 0; x < mWidth; x++, p += 2, q += 4) {
+                int pixel = (row[p] & 0xff) | (row[p + 1] & 0xff) << 8;
+                int r = pixel >>> 11;
+                int g = (pixel >>> 5) & 0x3f;
+                int b = pixel & 0x1f;
+                row[q] = (byte) (r << 3 | r >>> 2);
+                row[q + 1] = (byte) (g << 2 | g >>> 4);
+                row[q + 2] = (byte) (b << 3 | b >>> 2);
+            }
+        }
+
+        /**
+         * Converts mRow0 and mRow1 into two luma rows and one row of chroma, 2x2 pixels at a
+         * time: four luma samples, and one U and one V from the block's average colour.
+         */
+        private void convertRowPair() {
+            byte[] a = mRow0;
+            byte[] b = mRow1;
+            byte[] y0 = mY0;
+            byte[] y1 = mY1;
+            byte[] cu = mU;
+            byte[] cv = mV;
+            int ui = 0;
+            int vi = mLayout == Layout.NV12 ? 1 : 0;
+            int step = mLayout == Layout.NV12 ? 2 : 1;
+            for (int x = 0, p = 0; x < mWidth; x += 2, p += 8) {
+                int r00 = a[p] & 0xff, g00 = a[p + 1] & 0xff, b00 = a[p + 2] & 0xff;
+                int r01 = a[p + 4] & 0xff, g01 = a[p + 5] & 0xff, b01 = a[p + 6] & 0xff;
+                int r10 = b[p] & 0xff, g10 = b[p + 1] & 0xff, b10 = b[p + 2] & 0xff;
+                int r11 = b[p + 4] & 0xff, g11 = b[p + 5] & 0xff, b11 = b[p + 6] & 0xff;
+
+                y0[x] = (byte) (((66 * r00 + 129 * g00 + 25 * b00 + 128) >> 8) + 16);
+                y0[x + 1] = (byte) (((66 * r01 + 129 * g01 + 25 * b01 + 128) >> 8) + 16);
+                y1[x] = (byte) (((66 * r10 + 129 * g10 + 25 * b10 + 128) >> 8) + 16);
+                y1[x + 1] = (byte) (((66 * r11 + 129 * g11 + 25 * b11 + 128) >> 8) + 16);
+
+                // sums of four: the shift by 10 also averages
+                int r = r00 + r01 + r10 + r11;
+                int g = g00 + g01 + g10 + g11;
+                int bl = b00 + b01 + b10 + b11;
+                cu[ui] = (byte) (((-38 * r - 74 * g + 112 * bl + 512) >> 10) + 128);
+                cv[vi] = (byte) (((112 * r - 94 * g - 18 * bl + 512) >> 10) + 128);
+                ui += step;
+                vi += step;
+            }
+        }
+    }
+}
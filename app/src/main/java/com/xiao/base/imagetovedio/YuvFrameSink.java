@@ -0,0 +1,108 @@
+package com.xiao.base.imagetovedio;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Feeds frames to an {@link AsyncEncoder} through its input buffers, for devices whose
+ * encoder input Surface or its lockCanvas() is broken.
+ * <p>
+ * Each frame is drawn with a software Canvas into an ARGB bitmap, converted to the
+ * encoder's YUV layout by {@link YuvConverter} into a direct buffer kept for the next frame,
+ * and copied into an input buffer.  A repeated frame is only that copy.  Input timestamps
+ * run at the frame rate; the encoder restamps its output from the job's timeline anyway.
+ */
+class YuvFrameSink implements ImageVideoConverter.FrameSink {
+    private static final int MAX_THREADS = 4;
+
+    private final AsyncEncoder mEncoder;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameRate;
+    private final YuvConverter mConverter;
+    private final Bitmap mFrame;
+    private final Canvas mCanvas;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final ByteBuffer mPixels;
+    private final ByteBuffer mYuv;
+    private int mFrameCount;
+
+    /**
+     * @param colorFormat the format the encoder was configured with, from
+     *                    {@link EncoderProbe#getYuvColorFormat()}
+     */
+    YuvFrameSink(AsyncEncoder encoder, int width, int height, int colorFormat, int frameRate) {
+        mEncoder = encoder;
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+
+        // some encoders want padded rows or planes; they say so in the input format
+        MediaFormat input = encoder.getInputFormat();
+        int stride = width;
+        int sliceHeight = height;
+        if (input.containsKey(MediaFormat.KEY_STRIDE))
+            stride = Math.max(width, input.getInteger(MediaFormat.KEY_STRIDE));
+        if (input.containsKey(MediaFormat.KEY_SLICE_HEIGHT))
+            sliceHeight = Math.max(height, input.getInteger(MediaFormat.KEY_SLICE_HEIGHT));
+        YuvConverter.Layout layout =
+                colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar
+                        ? YuvConverter.Layout.NV12 : YuvConverter.Layout.I420;
+        int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        mConverter = new YuvConverter(width, height, layout, stride, sliceHeight, threads);
+
+        mFrame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mFrame);
+        mPixels = ByteBuffer.allocateDirect(mFrame.getRowBytes() * height);
+        mYuv = ByteBuffer.allocateDirect(mConverter.getFrameSize());
+    }
+
+    @Override
+    public void drawBitmap(Bitmap frame, ScaleMode scaleMode, EncodeMetrics metrics)
+            throws InterruptedException {
+        long t = System.nanoTime();
+        ImageVideoConverter.drawScaled(mCanvas, frame, scaleMode, mWidth, mHeight, mPaint);
+        mPixels.clear();
+        mFrame.copyPixelsToBuffer(mPixels);
+        mPixels.flip();
+        mConverter.convert(mPixels, YuvConverter.InputFormat.RGBA_8888, mFrame.getRowBytes(),
+                mYuv);
+        metrics.record(EncodeMetrics.Stage.DRAW, t);
+        queueFrame(metrics);
+    }
+
+    @Override
+    public void repeatFrame(EncodeMetrics metrics) throws InterruptedException {
+        queueFrame(metrics);
+    }
+
+    @Override
+    public void release() {
+        mConverter.release();
+        mFrame.recycle();
+    }
+
+    private void queueFrame(EncodeMetrics metrics) throws InterruptedException {
+        // waiting for a free input buffer counts as submission, as lockCanvas() does
+        long t = System.nanoTime();
+        int index = mEncoder.dequeueInputBuffer();
+        ByteBuffer buffer = mEncoder.getInputBuffer(index);
+        int size = mYuv.capacity();
+        if (buffer.capacity() < size) {
+            throw new IllegalStateException("input buffer of " + buffer.capacity()
+                    + " bytes, frame needs " + size);
+        }
+        buffer.clear();
+        mYuv.clear();
+        buffer.put(mYuv);
+        mEncoder.queueInputBuffer(index, size, mFrameCount * 1000000L / mFrameRate);
+        mFrameCount++;
+        metrics.record(EncodeMetrics.Stage.SUBMIT, t);
+        metrics.frameSubmitted();
+    }
+}
@@ -0,0 +1,179 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes and reopens {@link EncodeJournal}s, including ones cut short or left by another job.
+ */
+public class EncodeJournalTest {
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xc0, 0x1f};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("encode", ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void checkpoints_surviveReopening() throws Exception {
+        long fingerprint = EncodeJournal.fingerprint("slides\na.jpg|2.0|STRETCH");
+        EncodeJournal journal = EncodeJournal.open(mFile, fingerprint);
+        assertNull(journal.getLastCheckpoint());
+        journal.begin(SPS, PPS);
+        journal.append(new EncodeJournal.Checkpoint(1, 30, 1000000, 5000));
+        journal.append(new EncodeJournal.Checkpoint(2, 60, 2000000, 9000));
+        journal.close();
+
+        journal = EncodeJournal.open(mFile, fingerprint);
+        try {
+            EncodeJournal.Checkpoint last = journal.getLastCheckpoint();
+            assertEquals(2, last.sequence);
+            assertEquals(60, last.frameCount);
+            assertEquals(2000000, last.nextTimeUs);
+            assertEquals(9000, last.fileOffset);
+            assertTrue(journal.matches(SPS, PPS));
+            assertFalse(journal.matches(PPS, SPS));
+
+            // goes on after the last record
+            journal.append(new EncodeJournal.Checkpoint(3, 90, 3000000, 13000));
+        } finally {
+            journal.close();
+        }
+        journal = EncodeJournal.open(mFile, fingerprint);
+        assertEquals(90, journal.getLastCheckpoint().frameCount);
+        journal.delete();
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void tornRecord_isIgnoredAndOverwritten() throws Exception {
+        EncodeJournal journal = EncodeJournal.open(mFile, 1);
+        journal.begin(SPS, PPS);
+        journal.append(new EncodeJournal.Checkpoint(1, 30, 1000000, 5000));
+        journal.append(new EncodeJournal.Checkpoint(2, 60, 2000000, 9000));
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        journal = EncodeJournal.open(mFile, 1);
+        assertEquals(30, journal.getLastCheckpoint().frameCount);
+        journal.append(new EncodeJournal.Checkpoint(2, 60, 2000000, 9100));
+        journal.close();
+
+        // a record with a bad CRC ends the journal too
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.seek(raf.length() - 6);
+            raf.write(0x55);
+        }
+        journal = EncodeJournal.open(mFile, 1);
+        assertEquals(30, journal.getLastCheckpoint().frameCount);
+        journal.close();
+    }
+
+    @Test
+    public void otherJobsJournal_isDiscarded() throws Exception {
+        EncodeJournal journal = EncodeJournal.open(mFile, EncodeJournal.fingerprint("a"));
+        journal.begin(SPS, PPS);
+        journal.append(new EncodeJournal.Checkpoint(1, 30, 1000000, 5000));
+        journal.close();
+
+        journal = EncodeJournal.open(mFile, EncodeJournal.fingerprint("b"));
+        assertNull(journal.getLastCheckpoint());
+        assertNull(journal.getSps());
+        journal.close();
+        assertEquals(0, mFile.length());
+    }
+
+    @Test
+    public void cancelledEncode_resumesFromItsLastCheckpoint() throws Exception {
+        File video = File.createTempFile("encode", ".mp4");
+        File whole = File.createTempFile("encode", ".mp4");
+        String path = video.getPath();
+        File journalFile = ImageVideoConverter.journalFileFor(path);
+        long fingerprint = EncodeJournal.fingerprint("slides\na.jpg|2.0|STRETCH");
+        try {
+            // cancelled two frames into the third GOP; stopping the muxer writes those too
+            final EncodeJournal journal = EncodeJournal.open(journalFile, fingerprint);
+            journal.begin(SPS, PPS);
+            try (RandomAccessFile raf = new RandomAccessFile(video, "rw")) {
+                FragmentedMp4Writer writer = new FragmentedMp4Writer(raf.getChannel());
+                writer.setCheckpointListener(new FragmentedMp4Writer.CheckpointListener() {
+                    @Override
+                    public void onCheckpoint(int sequence, int videoSamples,
+                                             long nextVideoTimeUs, long fileOffset)
+                            throws IOException {
+                        journal.append(new EncodeJournal.Checkpoint(sequence, videoSamples,
+                                nextVideoTimeUs, fileOffset));
+                    }
+                });
+                writer.start(320, 240, SPS, PPS);
+                writeFrames(writer, 0, 8);
+                writer.finish();
+            }
+            journal.close();
+            // what a cancelled resumable job keeps, see VideoJobScheduler.Job#cancel()
+            assertTrue(ImageVideoConverter.canResume(path));
+
+            // started again, it goes on from the last complete GOP, as FragmentedMp4Muxer does
+            EncodeJournal resumed = EncodeJournal.open(journalFile, fingerprint);
+            EncodeJournal.Checkpoint checkpoint = resumed.getLastCheckpoint();
+            assertEquals(6, checkpoint.frameCount);
+            assertTrue(video.length() > checkpoint.fileOffset);
+            assertTrue(resumed.matches(SPS, PPS));
+            try (RandomAccessFile raf = new RandomAccessFile(video, "rw")) {
+                raf.setLength(checkpoint.fileOffset);
+                raf.seek(checkpoint.fileOffset);
+                FragmentedMp4Writer writer = new FragmentedMp4Writer(raf.getChannel());
+                writer.resume(checkpoint.sequence, checkpoint.frameCount);
+                writeFrames(writer, checkpoint.frameCount, 9);
+                writer.finish();
+            }
+            resumed.delete();
+
+            try (RandomAccessFile raf = new RandomAccessFile(whole, "rw")) {
+                FragmentedMp4Writer writer = new FragmentedMp4Writer(raf.getChannel());
+                writer.start(320, 240, SPS, PPS);
+                writeFrames(writer, 0, 9);
+                writer.finish();
+            }
+            assertArrayEquals(Files.readAllBytes(whole.toPath()),
+                    Files.readAllBytes(video.toPath()));
+            assertFalse(ImageVideoConverter.canResume(path));
+        } finally {
+            ImageVideoConverter.deleteOutput(path);
+            whole.delete();
+        }
+        assertFalse(video.exists());
+        assertFalse(journalFile.exists());
+    }
+
+    /**
+     * Writes frames from to to, exclusive, in GOPs of three at 30 fps.
+     */
+    private static void writeFrames(FragmentedMp4Writer writer, int from, int to)
+            throws IOException {
+        for (int i = from; i < to; i++) {
+            boolean sync = i % 3 == 0;
+            byte[] au = {0, 0, 1, (byte) (sync ? 0x65 : 0x41), (byte) i};
+            writer.writeSample(ByteBuffer.wrap(au), i * 1000000L / 30, sync);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link EncodeMetrics}' histogram buckets and the pairing of submitted and encoded
+ * frames.
+ */
+public class EncodeMetricsTest {
+
+    @Test
+    public void buckets_coverEveryValueOnce() {
+        long previous = -1;
+        for (int i = 0; i < 248; i++) {
+            long upper = EncodeMetrics.Histogram.upperBound(i);
+            assertEquals(i, EncodeMetrics.Histogram.bucket(previous + 1));
+            assertEquals(i, EncodeMetrics.Histogram.bucket(upper));
+            assertTrue(upper > previous);
+            previous = upper;
+        }
+        // within a quarter of the value: four buckets per power of two
+        long value = 1000000;
+        long upper = EncodeMetrics.Histogram.upperBound(EncodeMetrics.Histogram.bucket(value));
+        assertTrue(upper >= value && upper < value * 5 / 4);
+    }
+
+    @Test
+    public void histogram_percentilesAndMean() {
+        EncodeMetrics.Histogram h = new EncodeMetrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(50500, h.getMean());
+        assertEquals(100000, h.getMax());
+        long p50 = h.getPercentile(0.5);
+        assertTrue(p50 >= 50000 && p50 < 50000 * 5 / 4);
+        assertEquals(100000, h.getPercentile(1.0));
+    }
+
+    @Test
+    public void encodedFrames_arePairedWithTheirSubmission() {
+        final int[] calls = new int[1];
+        final EncodeMetrics.Report[] finished = new EncodeMetrics.Report[1];
+        EncodeMetrics metrics = new EncodeMetrics(new EncodeMetrics.Listener() {
+            @Override
+            public void onFrameEncoded(EncodeMetrics metrics) {
+                calls[0]++;
+            }
+
+            @Override
+            public void onFinished(EncodeMetrics.Report report) {
+                finished[0] = report;
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            metrics.frameSubmitted();
+        }
+        assertEquals(3, metrics.getQueueDepth());
+        metrics.frameEncoded(100, System.nanoTime());
+        metrics.frameEncoded(200, System.nanoTime());
+        assertEquals(1, metrics.getQueueDepth());
+        assertEquals(300, metrics.getBytesWritten());
+        assertEquals(2, calls[0]);
+        assertEquals(2, metrics.getHistogram(EncodeMetrics.Stage.ENCODE).getCount());
+        assertEquals(3, metrics.getQueueDepthHistogram().getMax());
+
+        EncodeMetrics.Report report = metrics.finish(true);
+        assertSame(report, finished[0]);
+        metrics.frameEncoded(300, System.nanoTime());
+        // the report is a snapshot
+        assertEquals(2, report.getFramesEncoded());
+        assertEquals(300, report.getBytesWritten());
+        assertTrue(report.toString().startsWith("done: 2/3 frames"));
+    }
+
+    @Test
+    public void merge_addsUpTheEncodersOfAJob() {
+        EncodeMetrics job = new EncodeMetrics(null);
+        for (int segment = 0; segment < 2; segment++) {
+            EncodeMetrics metrics = new EncodeMetrics(null);
+            for (int i = 0; i < 2; i++) {
+                metrics.frameSubmitted();
+            }
+            for (int i = 0; i < 2; i++) {
+                metrics.frameEncoded(100, System.nanoTime());
+            }
+            job.merge(metrics);
+        }
+        assertEquals(4, job.getFramesSubmitted());
+        assertEquals(4, job.getFramesEncoded());
+        assertEquals(400, job.getBytesWritten());
+        // every frame paired with its own encoder's submission
+        assertEquals(4, job.getHistogram(EncodeMetrics.Stage.ENCODE).getCount());
+        assertEquals(2, job.getQueueDepthHistogram().getMax());
+    }
+}
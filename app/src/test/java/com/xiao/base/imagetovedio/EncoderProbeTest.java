@@ -0,0 +1,47 @@
+package com.xiao.base.imagetovedio;
+
+import android.media.MediaCodecInfo.CodecProfileLevel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the AVC level {@link EncoderProbe} derives from the output size, frame rate and
+ * bitrate.
+ */
+public class EncoderProbeTest {
+
+    @Test
+    public void level_fromSizeAndFrameRate() {
+        assertEquals(CodecProfileLevel.AVCLevel3,
+                EncoderProbe.avcLevelFor(640, 480, 30, 0, false));
+        assertEquals(CodecProfileLevel.AVCLevel31,
+                EncoderProbe.avcLevelFor(1280, 720, 30, 0, false));
+        assertEquals(CodecProfileLevel.AVCLevel31,
+                EncoderProbe.avcLevelFor(1024, 760, 30, 0, false));
+        assertEquals(CodecProfileLevel.AVCLevel4,
+                EncoderProbe.avcLevelFor(1920, 1080, 30, 0, false));
+        assertEquals(CodecProfileLevel.AVCLevel42,
+                EncoderProbe.avcLevelFor(1920, 1080, 60, 0, false));
+        assertEquals(CodecProfileLevel.AVCLevel51,
+                EncoderProbe.avcLevelFor(3840, 2160, 30, 0, false));
+        assertEquals(-1, EncoderProbe.avcLevelFor(7680, 4320, 30, 0, false));
+    }
+
+    @Test
+    public void level_raisedByBitrate_lessSoForHigh() {
+        // 3.1 allows 14 Mbit/s, 17.5 with High
+        assertEquals(CodecProfileLevel.AVCLevel32,
+                EncoderProbe.avcLevelFor(1280, 720, 30, 17000000, false));
+        assertEquals(CodecProfileLevel.AVCLevel31,
+                EncoderProbe.avcLevelFor(1280, 720, 30, 17000000, true));
+    }
+
+    @Test
+    public void level_limitsEachSide() {
+        // 3200 macroblocks fits 3.1's frame size, but 200 wide is more than sqrt(8 * 3600)
+        assertEquals(CodecProfileLevel.AVCLevel32,
+                EncoderProbe.avcLevelFor(3200, 256, 5, 0, false));
+    }
+}
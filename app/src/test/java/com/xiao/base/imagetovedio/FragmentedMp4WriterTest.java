@@ -0,0 +1,392 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds synthetic H.264 access units to {@link FragmentedMp4Writer} and checks the boxes it
+ * writes.
+ */
+public class FragmentedMp4WriterTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, 0x11, 0x22};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private File mFile;
+    private RandomAccessFile mRaf;
+    private FragmentedMp4Writer mWriter;
+
+    /** A box found in the file: type, absolute offset and size. */
+    private static class Box {
+        final String type;
+        final int offset;
+        final int size;
+
+        Box(String type, int offset, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("fmp4", ".mp4");
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mWriter = new FragmentedMp4Writer(mRaf.getChannel());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRaf.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void header_hasFtypAndMoovWithAvcC() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+
+        ByteBuffer file = readFile();
+        List<Box> top = children(file, 0, file.limit());
+        assertEquals(2, top.size());
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+
+        Box stsd = find(file, top.get(1), "trak", "mdia", "minf", "stbl", "stsd");
+        // stsd: full box header + entry_count, then avc1 with 78 bytes of fields
+        Box avc1 = children(file, stsd.offset + 16, stsd.offset + stsd.size).get(0);
+        assertEquals("avc1", avc1.type);
+        assertEquals(320, file.getShort(avc1.offset + 32));
+        assertEquals(240, file.getShort(avc1.offset + 34));
+        Box config = children(file, avc1.offset + 86, avc1.offset + avc1.size).get(0);
+        assertEquals("avcC", config.type);
+        int p = config.offset + 8;
+        assertEquals(1, file.get(p));
+        assertEquals(0x42, file.get(p + 1));
+        assertEquals(0x1f, file.get(p + 3));
+        assertEquals(6, file.getShort(p + 6));      // SPS without its start code
+        assertEquals(0x67, file.get(p + 8));
+
+        assertNotNull(find(file, top.get(1), "mvex", "trex"));
+    }
+
+    @Test
+    public void samples_areFragmentedAtSyncFrames() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+        // two GOPs of three frames at 30 fps
+        for (int i = 0; i < 6; i++) {
+            mWriter.writeSample(accessUnit(i % 3 == 0, 10 + i), i * 1000000L / 30, i % 3 == 0);
+        }
+        mWriter.finish();
+        assertEquals(2, mWriter.getFragmentCount());
+        assertEquals(6, mWriter.getSampleCount());
+
+        ByteBuffer file = readFile();
+        List<Box> top = children(file, 0, file.limit());
+        assertEquals(6, top.size());
+        assertEquals("moof", top.get(2).type);
+        assertEquals("mdat", top.get(3).type);
+        assertEquals("moof", top.get(4).type);
+        assertEquals("mdat", top.get(5).type);
+
+        for (int f = 0; f < 2; f++) {
+            Box moof = top.get(2 + 2 * f);
+            Box mdat = top.get(3 + 2 * f);
+            assertEquals(f + 1, file.getInt(find(file, moof, "mfhd").offset + 12));
+
+            Box tfdt = find(file, moof, "traf", "tfdt");
+            assertEquals(1, file.get(tfdt.offset + 8));     // version 1, 64-bit time
+            assertEquals(f * 3 * 3000L, file.getLong(tfdt.offset + 12));
+
+            Box trun = find(file, moof, "traf", "trun");
+            assertEquals(3, file.getInt(trun.offset + 12));
+            // data_offset, relative to the moof, points at the mdat payload
+            assertEquals(mdat.offset + 8, moof.offset + file.getInt(trun.offset + 16));
+
+            int payload = 0;
+            for (int s = 0; s < 3; s++) {
+                int entry = trun.offset + 20 + 12 * s;
+                assertEquals(3000, file.getInt(entry));
+                int size = file.getInt(entry + 4);
+                assertEquals(4 + 10 + 3 * f + s, size);
+                int flags = file.getInt(entry + 8);
+                assertEquals(s == 0, (flags & 0x00010000) == 0);
+
+                // length-prefixed NAL unit with the start code gone
+                int nal = mdat.offset + 8 + payload;
+                assertEquals(size - 4, file.getInt(nal));
+                assertEquals(s == 0 ? 0x65 : 0x41, file.get(nal + 4));
+                payload += size;
+            }
+            assertEquals(mdat.size - 8, payload);
+        }
+    }
+
+    @Test
+    public void parameterSetsAndDelimiters_areDroppedFromSamples() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+        byte[] aud = {0, 0, 0, 1, 0x09, (byte) 0xf0};
+        byte[] idr = {0, 0, 1, 0x65, 1, 2, 3};
+        ByteBuffer au = ByteBuffer.allocate(64);
+        au.put(aud).put(SPS).put(PPS).put(idr).flip();
+        mWriter.writeSample(au, 0, true);
+        mWriter.finish();
+
+        ByteBuffer file = readFile();
+        List<Box> top = children(file, 0, file.limit());
+        Box mdat = top.get(3);
+        assertEquals(8 + 4 + 4, mdat.size);
+        assertEquals(4, file.getInt(mdat.offset + 8));
+        assertEquals(0x65, file.get(mdat.offset + 12));
+    }
+
+    @Test
+    public void unfinishedFile_endsWithCompleteFragments() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+        for (int i = 0; i < 7; i++) {
+            mWriter.writeSample(accessUnit(i % 3 == 0, 100), i * 33333L, i % 3 == 0);
+        }
+        // no finish(): as if the process died here; the GOP in progress is lost
+
+        ByteBuffer file = readFile();
+        List<Box> top = children(file, 0, file.limit());
+        assertEquals(6, top.size());
+        Box last = top.get(top.size() - 1);
+        assertEquals("mdat", last.type);
+        assertEquals(file.limit(), last.offset + last.size);
+    }
+
+    @Test
+    public void resume_fromCheckpoint_writesTheSameFile() throws Exception {
+        final List<long[]> checkpoints = new ArrayList<>();
+        mWriter.setCheckpointListener(new FragmentedMp4Writer.CheckpointListener() {
+            @Override
+            public void onCheckpoint(int sequence, int videoSamples, long nextVideoTimeUs,
+                                     long fileOffset) {
+                checkpoints.add(new long[]{sequence, videoSamples, nextVideoTimeUs, fileOffset});
+            }
+        });
+        mWriter.start(320, 240, SPS, PPS);
+        // killed two frames into the third GOP
+        for (int i = 0; i < 8; i++) {
+            mWriter.writeSample(accessUnit(i % 3 == 0, 10 + i), i * 1000000L / 30, i % 3 == 0);
+        }
+        assertEquals(2, checkpoints.size());
+        long[] last = checkpoints.get(1);
+        assertEquals(2, last[0]);
+        assertEquals(6, last[1]);
+        assertEquals(6 * 1000000L / 30, last[2]);
+
+        mRaf.setLength(last[3]);
+        mRaf.seek(last[3]);
+        FragmentedMp4Writer resumed = new FragmentedMp4Writer(mRaf.getChannel());
+        resumed.resume((int) last[0], (int) last[1]);
+        for (int i = (int) last[1]; i < 9; i++) {
+            resumed.writeSample(accessUnit(i % 3 == 0, 10 + i), i * 1000000L / 30, i % 3 == 0);
+        }
+        resumed.finish();
+
+        File expected = File.createTempFile("fmp4", ".mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(expected, "rw")) {
+            FragmentedMp4Writer whole = new FragmentedMp4Writer(raf.getChannel());
+            whole.start(320, 240, SPS, PPS);
+            for (int i = 0; i < 9; i++) {
+                whole.writeSample(accessUnit(i % 3 == 0, 10 + i), i * 1000000L / 30, i % 3 == 0);
+            }
+            whole.finish();
+            assertEquals(ByteBuffer.wrap(Files.readAllBytes(expected.toPath())), readFile());
+        } finally {
+            expected.delete();
+        }
+    }
+
+    @Test
+    public void audioTrack_isDescribedAndFragmentedWithVideo() throws Exception {
+        byte[] asc = {0x12, 0x10};      // AAC-LC, 44.1 kHz, stereo
+        assertEquals(FragmentedMp4Writer.AUDIO_TRACK, mWriter.addAudioTrack(44100, 2, asc));
+        mWriter.start(320, 240, SPS, PPS);
+        // two video frames a second apart, AAC frames of 1024 samples in between
+        mWriter.writeSample(accessUnit(true, 10), 0, true);
+        for (int i = 0; i < 3; i++) {
+            mWriter.writeSample(FragmentedMp4Writer.AUDIO_TRACK, ByteBuffer.wrap(new byte[6 + i]),
+                    i * 1024 * 1000000L / 44100, false);
+        }
+        mWriter.writeSample(accessUnit(true, 20), 1000000, true);
+        mWriter.finish();
+
+        ByteBuffer file = readFile();
+        List<Box> top = children(file, 0, file.limit());
+        Box moov = top.get(1);
+        List<Box> traks = new ArrayList<>();
+        for (Box box : children(file, moov.offset + 8, moov.offset + moov.size)) {
+            if (box.type.equals("trak")) {
+                traks.add(box);
+            }
+        }
+        assertEquals(2, traks.size());
+        Box mdhd = find(file, traks.get(1), "mdia", "mdhd");
+        assertEquals(44100, file.getInt(mdhd.offset + 20));
+        Box stsd = find(file, traks.get(1), "mdia", "minf", "stbl", "stsd");
+        Box mp4a = children(file, stsd.offset + 16, stsd.offset + stsd.size).get(0);
+        assertEquals("mp4a", mp4a.type);
+        assertEquals(2, file.getShort(mp4a.offset + 24));
+        assertEquals(44100, file.getInt(mp4a.offset + 32) >>> 16);
+        Box esds = children(file, mp4a.offset + 36, mp4a.offset + mp4a.size).get(0);
+        assertEquals("esds", esds.type);
+        // the AudioSpecificConfig closes the DecoderSpecificInfo, before the SLConfig
+        int config = esds.offset + esds.size - 5;
+        assertEquals(0x05, file.get(config - 2));
+        assertEquals(0x12, file.get(config));
+        assertEquals(0x10, file.get(config + 1));
+
+        // first fragment: the first video frame, then the three audio frames
+        Box moof = top.get(2);
+        Box mdat = top.get(3);
+        List<Box> trafs = new ArrayList<>();
+        for (Box box : children(file, moof.offset + 8, moof.offset + moof.size)) {
+            if (box.type.equals("traf")) {
+                trafs.add(box);
+            }
+        }
+        assertEquals(2, trafs.size());
+        Box audioTrun = find(file, trafs.get(1), "trun");
+        assertEquals(3, file.getInt(audioTrun.offset + 12));
+        int videoBytes = 4 + 10;
+        assertEquals(mdat.offset + 8 + videoBytes,
+                moof.offset + file.getInt(audioTrun.offset + 16));
+        for (int s = 0; s < 3; s++) {
+            int entry = audioTrun.offset + 20 + 12 * s;
+            assertEquals(1024, file.getInt(entry));
+            assertEquals(6 + s, file.getInt(entry + 4));
+        }
+        assertEquals(8 + videoBytes + 6 + 7 + 8, mdat.size);
+        Box videoTrun = find(file, trafs.get(0), "trun");
+        assertEquals(90000, file.getInt(videoTrun.offset + 20));
+    }
+
+    @Test
+    public void endedTrack_lastSampleLastsUntilTheEnd() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+        // stills held 2 s, 2 s, then the last one until 5 s
+        for (int i = 0; i < 3; i++) {
+            mWriter.writeSample(accessUnit(true, 10), i * 2000000L, true);
+        }
+        mWriter.endTrack(FragmentedMp4Writer.VIDEO_TRACK, 5000000L);
+        mWriter.finish();
+
+        long[] durations = sampleDurations(readFile(), FragmentedMp4Writer.VIDEO_TRACK);
+        assertArrayEquals(new long[]{180000, 180000, 90000}, durations);
+    }
+
+    @Test
+    public void trackNotEnded_lastSampleRepeatsThePreviousDuration() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+        for (int i = 0; i < 3; i++) {
+            mWriter.writeSample(accessUnit(true, 10), i * 2000000L, true);
+        }
+        mWriter.finish();
+
+        long[] durations = sampleDurations(readFile(), FragmentedMp4Writer.VIDEO_TRACK);
+        assertArrayEquals(new long[]{180000, 180000, 180000}, durations);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endedTrack_takesNoMoreSamples() throws Exception {
+        mWriter.start(320, 240, SPS, PPS);
+        mWriter.writeSample(accessUnit(true, 10), 0, true);
+        mWriter.endTrack(FragmentedMp4Writer.VIDEO_TRACK, 1000000L);
+        mWriter.writeSample(accessUnit(false, 10), 2000000L, false);
+    }
+
+    /**
+     * Duration, in timescale ticks, of every sample of a track of a file written by
+     * {@link FragmentedMp4Writer}, in order.
+     */
+    static long[] sampleDurations(ByteBuffer file, int trackIndex) {
+        List<Long> durations = new ArrayList<>();
+        for (Box moof : children(file, 0, file.limit())) {
+            if (!moof.type.equals("moof")) {
+                continue;
+            }
+            for (Box traf : children(file, moof.offset + 8, moof.offset + moof.size)) {
+                if (!traf.type.equals("traf")
+                        || file.getInt(find(file, traf, "tfhd").offset + 12) != trackIndex + 1) {
+                    continue;
+                }
+                Box trun = find(file, traf, "trun");
+                int count = file.getInt(trun.offset + 12);
+                for (int s = 0; s < count; s++) {
+                    durations.add((long) file.getInt(trun.offset + 20 + 12 * s));
+                }
+            }
+        }
+        long[] result = new long[durations.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = durations.get(i);
+        }
+        return result;
+    }
+
+    private static ByteBuffer accessUnit(boolean sync, int nalSize) {
+        ByteBuffer au = ByteBuffer.allocate(4 + nalSize);
+        au.putInt(1);
+        au.put((byte) (sync ? 0x65 : 0x41));
+        for (int i = 1; i < nalSize; i++) {
+            au.put((byte) (0x80 + i));
+        }
+        au.flip();
+        return au;
+    }
+
+    private ByteBuffer readFile() throws Exception {
+        return ByteBuffer.wrap(Files.readAllBytes(mFile.toPath()));
+    }
+
+    private static List<Box> children(ByteBuffer file, int from, int to) {
+        List<Box> boxes = new ArrayList<>();
+        int p = from;
+        while (p + 8 <= to) {
+            int size = file.getInt(p);
+            byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = file.get(p + 4 + i);
+            }
+            assertTrue("box at " + p + " overruns its parent", size >= 8 && p + size <= to);
+            boxes.add(new Box(new String(type, StandardCharsets.US_ASCII), p, size));
+            p += size;
+        }
+        assertEquals("trailing bytes", to, p);
+        return boxes;
+    }
+
+    /**
+     * Follows a path of box types down from parent.  Every box on the path but the last must
+     * be a plain container.
+     */
+    private static Box find(ByteBuffer file, Box parent, String... path) {
+        Box box = parent;
+        for (String type : path) {
+            Box found = null;
+            for (Box child : children(file, box.offset + 8, box.offset + box.size)) {
+                if (child.type.equals(type)) {
+                    found = child;
+                }
+            }
+            if (found == null) {
+                fail(type + " not found in " + box.type);
+            }
+            box = found;
+        }
+        return box;
+    }
+}
@@ -0,0 +1,92 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the slide timeline arithmetic of {@link FrameTiming}.
+ */
+public class FrameTimingTest {
+
+    @Test
+    public void presentationTime_doesNotOverflow() {
+        // an hour and a half at 30 fps
+        assertEquals(5400000000L, FrameTiming.computePresentationTime(162000, 30));
+    }
+
+    @Test
+    public void slideStartFrames_giveEverySlideAFrame() {
+        // 1 s, nothing, 0.5 s at 30 fps; the last slide also gets the closing frame
+        int[] startFrames = FrameTiming.computeSlideStartFrames(new float[]{1f, 0f, 0.5f}, 30);
+        assertArrayEquals(new int[]{0, 30, 31, 46}, startFrames);
+    }
+
+    @Test
+    public void heldFrames_closeHalfwayThroughTheLastSlide() {
+        long[] timesUs = FrameTiming.computeHeldFrameTimes(new float[]{6f, 6f, 6f});
+        assertArrayEquals(new long[]{0, 6000000L, 12000000L, 15000000L}, timesUs);
+    }
+
+    @Test
+    public void heldSlides_lastExactlyTheirDurations() throws Exception {
+        float[] durations = {6f, 6f, 6f};
+        long endUs = FrameTiming.computeHoldTimes(durations)[durations.length];
+        assertEquals(18000000L, endUs);
+        long[] timesUs = FrameTiming.computeHeldFrameTimes(durations);
+
+        // a muxer that is told where the track ends
+        assertArrayEquals(new long[]{540000, 540000, 270000, 270000},
+                encodeHeld(timesUs, endUs));
+        // one that repeats the duration before the last, as older MediaMuxers do
+        assertArrayEquals(new long[]{540000, 540000, 270000, 270000},
+                encodeHeld(timesUs, -1));
+    }
+
+    /**
+     * Writes a key frame at each time through {@link FragmentedMp4Writer}, ending the track at
+     * endUs unless it is -1, and returns the samples' durations in 90 kHz ticks.
+     */
+    private static long[] encodeHeld(long[] timesUs, long endUs) throws Exception {
+        File file = File.createTempFile("held", ".mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FragmentedMp4Writer writer = new FragmentedMp4Writer(raf.getChannel());
+            writer.start(320, 240, new byte[]{0x67, 0x42, (byte) 0xc0, 0x1f},
+                    new byte[]{0x68, (byte) 0xce});
+            for (long timeUs : timesUs) {
+                writer.writeSample(ByteBuffer.wrap(new byte[]{0, 0, 1, 0x65, 1}), timeUs, true);
+            }
+            if (endUs >= 0)
+                writer.endTrack(FragmentedMp4Writer.VIDEO_TRACK, endUs);
+            writer.finish();
+            return FragmentedMp4WriterTest.sampleDurations(
+                    ByteBuffer.wrap(Files.readAllBytes(file.toPath())),
+                    FragmentedMp4Writer.VIDEO_TRACK);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void segments_areCutAtSlidesNearestAnEvenSplit() {
+        int[] startFrames = {0, 30, 60, 70, 80, 150, 181};
+        assertArrayEquals(new int[]{0, 60, 150, 181},
+                FrameTiming.splitSegments(startFrames, 3));
+        assertArrayEquals(new int[]{0, 80, 181}, FrameTiming.splitSegments(startFrames, 2));
+        assertArrayEquals(new int[]{0, 181}, FrameTiming.splitSegments(startFrames, 1));
+    }
+
+    @Test
+    public void segments_neverOutnumberSlides() {
+        int[] startFrames = {0, 1, 2, 4};
+        assertArrayEquals(startFrames, FrameTiming.splitSegments(startFrames, 8));
+        // no slide starts past the middle: a one-frame segment isn't worth an encoder
+        assertArrayEquals(new int[]{0, 300},
+                FrameTiming.splitSegments(new int[]{0, 1, 300}, 4));
+    }
+}
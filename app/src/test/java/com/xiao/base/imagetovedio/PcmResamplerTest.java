@@ -0,0 +1,63 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks rate conversion and channel mixing of {@link PcmResampler}.
+ */
+public class PcmResamplerTest {
+
+    @Test
+    public void sameFormat_passesSamplesThroughOneFrameLate() {
+        PcmResampler resampler = new PcmResampler(44100, 1, 44100, 1);
+        short[] out = new short[16];
+        assertEquals(4, resampler.resample(new short[]{10, 20, 30, 40}, 4, out));
+        assertArrayEquals(new short[]{10, 10, 20, 30}, Arrays.copyOf(out, 4));
+        assertEquals(2, resampler.resample(new short[]{50, 60}, 2, out));
+        assertEquals(40, out[0]);
+        assertEquals(50, out[1]);
+    }
+
+    @Test
+    public void downsampling_keepsFrameCountAcrossBuffers() {
+        PcmResampler resampler = new PcmResampler(48000, 2, 44100, 2);
+        short[] in = new short[2 * 480];
+        short[] out = new short[2 * resampler.getMaxOutputFrames(480)];
+        int total = 0;
+        for (int i = 0; i < 100; i++) {
+            total += resampler.resample(in, 480, out);
+        }
+        // one second in, one second out, give or take the carried frame
+        assertTrue(Math.abs(total - 44100) <= 1);
+    }
+
+    @Test
+    public void upsampling_interpolatesBetweenFrames() {
+        PcmResampler resampler = new PcmResampler(22050, 1, 44100, 1);
+        short[] out = new short[resampler.getMaxOutputFrames(3)];
+        int frames = resampler.resample(new short[]{0, 100, 200}, 3, out);
+        assertEquals(6, frames);
+        assertArrayEquals(new short[]{0, 0, 0, 50, 100, 150}, Arrays.copyOf(out, 6));
+    }
+
+    @Test
+    public void channels_areMixedDownAndCopiedUp() {
+        short[] out = new short[8];
+        PcmResampler toMono = new PcmResampler(44100, 2, 44100, 1);
+        // output runs a frame late: the first frame twice, then the rest
+        assertEquals(3, toMono.resample(new short[]{100, 300, 1000, -1000, 0, 0}, 3, out));
+        assertEquals(200, out[1]);
+        assertEquals(0, out[2]);
+
+        PcmResampler toStereo = new PcmResampler(44100, 1, 44100, 2);
+        toStereo.resample(new short[]{7, 9}, 2, out);
+        assertEquals(7, out[0]);
+        assertEquals(7, out[1]);
+        assertEquals(7, out[2]);
+        assertEquals(7, out[3]);
+    }
+}
@@ -0,0 +1,44 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ProgressThrottle} passes on one update per interval, and always the
+ * first and the last.
+ */
+public class ProgressThrottleTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void firstAndLast_alwaysReported() {
+        ProgressThrottle throttle = new ProgressThrottle(250 * MS);
+        assertTrue(throttle.shouldReport(1, 100, 0));
+        assertFalse(throttle.shouldReport(2, 100, 1 * MS));
+        assertTrue(throttle.shouldReport(100, 100, 2 * MS));
+        // already said
+        assertFalse(throttle.shouldReport(100, 100, 500 * MS));
+    }
+
+    @Test
+    public void oneUpdatePerInterval() {
+        ProgressThrottle throttle = new ProgressThrottle(250 * MS);
+        int reported = 0;
+        // a frame every millisecond for two seconds
+        for (int i = 0; i < 2000; i++) {
+            if (throttle.shouldReport(i, 10000, i * MS)) {
+                reported++;
+            }
+        }
+        assertEquals(8, reported);
+    }
+
+    @Test
+    public void unknownTotal_isThrottledToo() {
+        ProgressThrottle throttle = new ProgressThrottle(250 * MS);
+        assertTrue(throttle.shouldReport(1, -1, 0));
+        assertFalse(throttle.shouldReport(1000, -1, 100 * MS));
+        assertTrue(throttle.shouldReport(1001, -1, 250 * MS));
+    }
+}
@@ -0,0 +1,163 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds {@link Timeline}s and checks the frames {@link FrameScheduler} makes of them.
+ */
+public class TimelineTest {
+
+    @Test
+    public void clips_followEachOther() {
+        Timeline timeline = new Timeline();
+        assertEquals(0, timeline.append(2000000));
+        assertEquals(1, timeline.append(500000, Transition.CROSSFADE, 250000));
+        assertEquals(2, timeline.append(1000000));
+        assertEquals(2000000, timeline.getClip(1).startUs);
+        assertEquals(3500000, timeline.getDurationUs());
+
+        assertEquals(0, timeline.getClipAt(0));
+        assertEquals(0, timeline.getClipAt(1999999));
+        assertEquals(1, timeline.getClipAt(2000000));
+        assertEquals(2, timeline.getClipAt(3499999));
+        assertEquals(-1, timeline.getClipAt(3500000));
+        assertEquals(-1, timeline.getClipAt(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transitionLongerThanClip_isRejected() {
+        new Timeline().append(1000000, Transition.SLIDE, 1000001);
+    }
+
+    @Test
+    public void stills_takeOneFrameEach() {
+        Timeline timeline = new Timeline();
+        timeline.append(10000000);
+        timeline.append(5000000);
+        FrameScheduler frames = new FrameScheduler(timeline, 30);
+
+        assertTrue(frames.next());
+        assertEquals(FrameScheduler.Kind.STILL, frames.getKind());
+        assertEquals(0, frames.getClip());
+        assertEquals(0, frames.getTimeUs());
+        assertTrue(frames.next());
+        assertEquals(FrameScheduler.Kind.STILL, frames.getKind());
+        assertEquals(1, frames.getClip());
+        assertEquals(10000000, frames.getTimeUs());
+        assertTrue(frames.next());
+        assertEquals(FrameScheduler.Kind.END, frames.getKind());
+        assertEquals(1, frames.getClip());
+        // halfway through the last clip, which it ends
+        assertEquals(12500000, frames.getTimeUs());
+        assertEquals(2, frames.getFrameIndex());
+        assertFalse(frames.next());
+        assertFalse(frames.next());
+    }
+
+    @Test
+    public void transitions_runAtTheFrameRate() {
+        Timeline timeline = new Timeline();
+        timeline.append(3000000, Transition.CROSSFADE, 1000000);
+        timeline.append(3000000, Transition.CROSSFADE, 1000000);
+        List<String> schedule = new ArrayList<>();
+        FrameScheduler frames = new FrameScheduler(timeline, 4);
+        while (frames.next()) {
+            schedule.add(frames.getKind() + " " + frames.getClip() + " " + frames.getTimeUs()
+                    + " " + frames.getProgress() + " " + frames.getTransition());
+        }
+        String[] expected = {
+                "STILL 0 0 0.0 null",
+                "TRANSITION 0 2250000 0.25 CROSSFADE",
+                "TRANSITION 0 2500000 0.5 CROSSFADE",
+                "TRANSITION 0 2750000 0.75 CROSSFADE",
+                "STILL 1 3000000 0.0 null",
+                // nothing to blend into after the last clip
+                "END 1 4500000 0.0 null",
+        };
+        assertArrayEquals(expected, schedule.toArray());
+    }
+
+    @Test
+    public void timestamps_stayExactOverLongTimelines() {
+        // 2000 clips of 1/30 s short of three minutes: hours of video, no drift
+        long clipUs = 180000000L - 33333L;
+        Timeline timeline = new Timeline();
+        for (int i = 0; i < 2000; i++) {
+            timeline.append(clipUs, Transition.ZOOM, 100000);
+        }
+        FrameScheduler frames = new FrameScheduler(timeline, 30);
+        long lastUs = -1;
+        int count = 0;
+        while (frames.next()) {
+            assertTrue(frames.getTimeUs() > lastUs);
+            lastUs = frames.getTimeUs();
+            if (frames.getKind() == FrameScheduler.Kind.STILL) {
+                assertEquals(frames.getClip() * clipUs, frames.getTimeUs());
+            }
+            count++;
+        }
+        assertEquals(FrameTiming.computeClosingTime(1999 * clipUs, 2000 * clipUs), lastUs);
+        // a still and two transition frames per clip, none after the last, and the closing one
+        assertEquals(2000 * 3 - 2 + 1, count);
+    }
+
+    @Test
+    public void muxedVideo_lastsAsLongAsTheTimeline() throws Exception {
+        Timeline timeline = new Timeline();
+        timeline.append(3000000, Transition.CROSSFADE, 1000000);
+        timeline.append(2000000);
+        timeline.append(5000000, Transition.SLIDE, 500000);
+        long expected = timeline.getDurationUs() * FragmentedMp4Writer.TIMESCALE / 1000000L;
+
+        // ended where the timeline ends, as EncodeAndMuxTest does
+        assertEquals(expected, sum(mux(timeline, true)));
+        // or not: the closing frame repeats the duration before it
+        assertEquals(expected, sum(mux(timeline, false)));
+    }
+
+    /**
+     * Writes the frames of the timeline through {@link FragmentedMp4Writer}, stills as sync
+     * frames, and returns the samples' durations in timescale ticks.
+     */
+    private static long[] mux(Timeline timeline, boolean endTrack) throws Exception {
+        File file = File.createTempFile("timeline", ".mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FragmentedMp4Writer writer = new FragmentedMp4Writer(raf.getChannel());
+            writer.start(320, 240, new byte[]{0x67, 0x42, (byte) 0xc0, 0x1f},
+                    new byte[]{0x68, (byte) 0xce});
+            FrameScheduler frames = new FrameScheduler(timeline, 30);
+            while (frames.next()) {
+                boolean sync = frames.getKind() == FrameScheduler.Kind.STILL;
+                byte nal = (byte) (sync ? 0x65 : 0x41);
+                writer.writeSample(ByteBuffer.wrap(new byte[]{0, 0, 1, nal}), frames.getTimeUs(),
+                        sync);
+            }
+            if (endTrack) {
+                writer.endTrack(FragmentedMp4Writer.VIDEO_TRACK, timeline.getDurationUs());
+            }
+            writer.finish();
+            return FragmentedMp4WriterTest.sampleDurations(
+                    ByteBuffer.wrap(Files.readAllBytes(file.toPath())),
+                    FragmentedMp4Writer.VIDEO_TRACK);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+}
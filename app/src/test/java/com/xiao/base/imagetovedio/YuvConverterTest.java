@@ -0,0 +1,160 @@
+package com.xiao.base.imagetovedio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Converts RGB frames with {@link YuvConverter} and checks the YUV planes against the
+ * BT.601 values and against each other.
+ */
+public class YuvConverterTest {
+
+    @Test
+    public void solidColours_giveBt601Values() {
+        // white, black, red, green, blue: Y, U, V
+        int[][] cases = {
+                {255, 255, 255, 235, 128, 128},
+                {0, 0, 0, 16, 128, 128},
+                {255, 0, 0, 82, 90, 240},
+                {0, 255, 0, 144, 54, 34},
+                {0, 0, 255, 41, 240, 110},
+        };
+        for (int[] c : cases) {
+            ByteBuffer rgba = solid(4, 2, c[0], c[1], c[2]);
+            YuvConverter converter = new YuvConverter(4, 2, YuvConverter.Layout.I420, 1);
+            ByteBuffer yuv = ByteBuffer.allocate(converter.getFrameSize());
+            converter.convert(rgba, YuvConverter.InputFormat.RGBA_8888, 16, yuv);
+            String colour = Arrays.toString(Arrays.copyOf(c, 3));
+            for (int i = 0; i < 8; i++) {
+                assertEquals(colour, c[3], yuv.get(i) & 0xff);
+            }
+            assertEquals(colour, c[4], yuv.get(8) & 0xff);
+            assertEquals(colour, c[4], yuv.get(9) & 0xff);
+            assertEquals(colour, c[5], yuv.get(10) & 0xff);
+            assertEquals(colour, c[5], yuv.get(11) & 0xff);
+        }
+    }
+
+    @Test
+    public void nv12_interleavesTheI420Planes() {
+        int width = 64;
+        int height = 48;
+        ByteBuffer rgba = random(width * height * 4, 1);
+        YuvConverter i420 = new YuvConverter(width, height, YuvConverter.Layout.I420, 1);
+        YuvConverter nv12 = new YuvConverter(width, height, YuvConverter.Layout.NV12, 1);
+        ByteBuffer planar = ByteBuffer.allocate(i420.getFrameSize());
+        ByteBuffer semiPlanar = ByteBuffer.allocate(nv12.getFrameSize());
+        i420.convert(rgba, YuvConverter.InputFormat.RGBA_8888, width * 4, planar);
+        nv12.convert(rgba, YuvConverter.InputFormat.RGBA_8888, width * 4, semiPlanar);
+
+        int luma = width * height;
+        for (int i = 0; i < luma; i++) {
+            assertEquals(planar.get(i), semiPlanar.get(i));
+        }
+        for (int i = 0; i < luma / 4; i++) {
+            assertEquals(planar.get(luma + i), semiPlanar.get(luma + 2 * i));
+            assertEquals(planar.get(luma + luma / 4 + i), semiPlanar.get(luma + 2 * i + 1));
+        }
+    }
+
+    @Test
+    public void stripes_matchASingleThread() {
+        int width = 320;
+        int height = 240;
+        ByteBuffer rgba = random(width * height * 4, 2);
+        for (YuvConverter.Layout layout : YuvConverter.Layout.values()) {
+            YuvConverter single = new YuvConverter(width, height, layout, 1);
+            YuvConverter striped = new YuvConverter(width, height, layout, 4);
+            try {
+                ByteBuffer expected = ByteBuffer.allocate(single.getFrameSize());
+                ByteBuffer actual = ByteBuffer.allocateDirect(striped.getFrameSize());
+                single.convert(rgba, YuvConverter.InputFormat.RGBA_8888, width * 4, expected);
+                for (int run = 0; run < 3; run++) {
+                    striped.convert(rgba, YuvConverter.InputFormat.RGBA_8888, width * 4,
+                            actual);
+                    assertEquals(layout.toString(), expected, actual);
+                }
+            } finally {
+                striped.release();
+            }
+        }
+    }
+
+    @Test
+    public void rgb565_isExpandedToFullRange() {
+        // 0xf800 red, 0x07e0 green, 0x001f blue, 0xffff white, little-endian
+        ByteBuffer rgb565 = ByteBuffer.allocate(8);
+        rgb565.put(new byte[]{0, (byte) 0xf8, (byte) 0xe0, 0x07, 0x1f, 0, -1, -1}).flip();
+        ByteBuffer rgba = ByteBuffer.allocate(16);
+        rgba.put(new byte[]{-1, 0, 0, -1, 0, -1, 0, -1, 0, 0, -1, -1, -1, -1, -1, -1}).flip();
+
+        YuvConverter converter = new YuvConverter(2, 2, YuvConverter.Layout.NV12, 1);
+        ByteBuffer fromPacked = ByteBuffer.allocate(converter.getFrameSize());
+        ByteBuffer fromRgba = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(rgb565, YuvConverter.InputFormat.RGB_565, 4, fromPacked);
+        converter.convert(rgba, YuvConverter.InputFormat.RGBA_8888, 8, fromRgba);
+        assertEquals(fromRgba, fromPacked);
+    }
+
+    @Test
+    public void paddedStrides_leavePaddingAlone() {
+        int width = 32;
+        int height = 16;
+        int stride = 48;
+        int sliceHeight = 20;
+        ByteBuffer rgba = solid(width, height, 255, 255, 255);
+        YuvConverter converter = new YuvConverter(width, height, YuvConverter.Layout.I420,
+                stride, sliceHeight, 2);
+        try {
+            byte[] out = new byte[converter.getFrameSize() + 8];
+            Arrays.fill(out, (byte) 7);
+            ByteBuffer dst = ByteBuffer.wrap(out);
+            dst.position(8);
+            converter.convert(rgba, YuvConverter.InputFormat.RGBA_8888, width * 4, dst);
+            assertEquals(8, dst.position());
+
+            for (int row = 0; row < sliceHeight; row++) {
+                for (int x = 0; x < stride; x++) {
+                    int expected = row < height && x < width ? 235 : 7;
+                    assertEquals(expected, out[8 + row * stride + x] & 0xff);
+                }
+            }
+            int u = 8 + stride * sliceHeight;
+            int v = u + stride / 2 * sliceHeight / 2;
+            for (int row = 0; row < sliceHeight / 2; row++) {
+                for (int x = 0; x < stride / 2; x++) {
+                    int expected = row < height / 2 && x < width / 2 ? 128 : 7;
+                    assertEquals(expected, out[u + row * stride / 2 + x] & 0xff);
+                    assertEquals(expected, out[v + row * stride / 2 + x] & 0xff);
+                }
+            }
+        } finally {
+            converter.release();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSize_isRejected() {
+        new YuvConverter(31, 16, YuvConverter.Layout.NV12, 1);
+    }
+
+    private static ByteBuffer solid(int width, int height, int r, int g, int b) {
+        ByteBuffer rgba = ByteBuffer.allocate(width * height * 4);
+        for (int i = 0; i < width * height; i++) {
+            rgba.put((byte) r).put((byte) g).put((byte) b).put((byte) 255);
+        }
+        rgba.flip();
+        return rgba;
+    }
+
+    private static ByteBuffer random(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,57 @@
+package com.xiao.base.imagetovedio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Working out which part of a photo to decode for an output frame, as DecodePlanner does
+ * before every decode: {@link ScaleMode#computeScale} and
+ * {@link ScaleMode#computeVisibleRegion} over a mix of camera, portrait and panorama sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodePlanBenchmark {
+    // width, height pairs
+    private static final int[] SOURCES = {
+            4032, 3024, 3024, 4032, 4000, 1800, 1920, 1080, 12000, 2000, 640, 480,
+    };
+
+    @Param({"FIT", "CROP"})
+    public ScaleMode scaleMode;
+
+    @Param({"1280x720"})
+    public String outputSize;
+
+    private final float[] mScale = new float[4];
+    private final int[] mRegion = new int[4];
+    private int mOutWidth;
+    private int mOutHeight;
+
+    @Setup
+    public void setUp() {
+        int x = outputSize.indexOf('x');
+        mOutWidth = Integer.parseInt(outputSize.substring(0, x));
+        mOutHeight = Integer.parseInt(outputSize.substring(x + 1));
+    }
+
+    @Benchmark
+    public void plan(Blackhole bh) {
+        for (int i = 0; i < SOURCES.length; i += 2) {
+            if (scaleMode.computeVisibleRegion(SOURCES[i], SOURCES[i + 1], mOutWidth,
+                    mOutHeight, mScale, mRegion)) {
+                bh.consume(mRegion[2] * mRegion[3]);
+            }
+            bh.consume(mScale[0] * mScale[1]);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.xiao.base.imagetovedio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame scheduling and timestamps of a slideshow: {@link FrameTiming} over slideshows of
+ * slideCount slides of 1 to 5 seconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameTimingBenchmark {
+    private static final int FRAME_RATE = 30;
+
+    @Param({"10", "1000"})
+    public int slideCount;
+
+    private float[] mDurations;
+    private int mFrameCount;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mDurations = new float[slideCount];
+        for (int i = 0; i < slideCount; i++) {
+            mDurations[i] = 1f + random.nextInt(17) * 0.25f;
+        }
+        int[] endFrames = FrameTiming.computeSlideEndFrames(mDurations, FRAME_RATE);
+        mFrameCount = endFrames[endFrames.length - 1];
+    }
+
+    @Benchmark
+    public int[] slideEndFrames() {
+        return FrameTiming.computeSlideEndFrames(mDurations, FRAME_RATE);
+    }
+
+    @Benchmark
+    public long[] holdTimes() {
+        return FrameTiming.computeHoldTimes(mDurations);
+    }
+
+    /**
+     * The timestamp of every frame of the slideshow, as the encoder's callback asks for them.
+     */
+    @Benchmark
+    public void presentationTimes(Blackhole bh) {
+        for (int i = 0; i < mFrameCount; i++) {
+            bh.consume(FrameTiming.computePresentationTime(i, FRAME_RATE));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.xiao.base.imagetovedio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing ten seconds of 30 fps H.264 to a fragmented MP4 with {@link FragmentedMp4Writer}:
+ * start code rewriting, fragment buffering and file writes, per file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MuxBenchmark {
+    private static final int FRAMES = 300;
+    private static final int GOP_FRAMES = 30;
+
+    /** Delta frame size in bytes; key frames are eight times larger. */
+    @Param({"4000", "40000"})
+    public int frameBytes;
+
+    private StubEncoder mEncoder;
+    private ByteBuffer[] mAccessUnits;
+    private boolean[] mSync;
+    private File mFile;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEncoder = new StubEncoder.Synthetic(GOP_FRAMES, frameBytes * 8, frameBytes);
+        // encoded once: only the muxer is measured
+        mAccessUnits = new ByteBuffer[FRAMES];
+        mSync = new boolean[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            mAccessUnits[i] = ByteBuffer.allocateDirect(frameBytes * 8);
+            mSync[i] = mEncoder.encode(null, i, mAccessUnits[i]);
+        }
+        mFile = File.createTempFile("mux", ".mp4");
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mRaf.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int writeFile() throws IOException {
+        mChannel.truncate(0);
+        mChannel.position(0);
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(mChannel);
+        writer.start(1280, 720, mEncoder.getSps(), mEncoder.getPps());
+        for (int i = 0; i < FRAMES; i++) {
+            ByteBuffer au = mAccessUnits[i];
+            au.rewind();
+            writer.writeSample(au, i * 1000000L / 30, mSync[i]);
+        }
+        writer.finish();
+        return writer.getFragmentCount();
+    }
+}
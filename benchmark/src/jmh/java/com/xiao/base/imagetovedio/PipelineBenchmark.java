@@ -0,0 +1,119 @@
+package com.xiao.base.imagetovedio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole slideshow through the CPU side of the pipeline, the way
+ * {@link ImageVideoConverter} runs it with repeated frames: frames scheduled by
+ * {@link FrameTiming}, encoded by a {@link StubEncoder}, muxed by
+ * {@link FragmentedMp4Writer} and timed by {@link EncodeMetrics}.
+ * <p>
+ * The encoder is chosen with the encoder parameter: "synthetic" to measure the pipeline
+ * alone, "scanning" to add the memory traffic of reading every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PipelineBenchmark {
+    private static final int FRAME_RATE = 30;
+    private static final int GOP_FRAMES = 30;
+    private static final int SLIDES = 5;
+    private static final float SLIDE_DURATION = 2f;
+
+    @Param({"synthetic", "scanning"})
+    public String encoder;
+
+    @Param({"1280x720"})
+    public String outputSize;
+
+    private StubEncoder mEncoder;
+    private float[] mDurations;
+    private ByteBuffer[] mSlideFrames;
+    private ByteBuffer mOutput;
+    private int mWidth;
+    private int mHeight;
+    private File mFile;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+
+    @Setup
+    public void setUp() throws IOException {
+        int x = outputSize.indexOf('x');
+        mWidth = Integer.parseInt(outputSize.substring(0, x));
+        mHeight = Integer.parseInt(outputSize.substring(x + 1));
+        if (encoder.equals("synthetic")) {
+            mEncoder = new StubEncoder.Synthetic(GOP_FRAMES, 64 * 1024, 4 * 1024);
+        } else if (encoder.equals("scanning")) {
+            mEncoder = new StubEncoder.Scanning(mWidth, mHeight, GOP_FRAMES);
+        } else {
+            throw new IllegalArgumentException("unknown encoder " + encoder);
+        }
+
+        mDurations = new float[SLIDES];
+        mSlideFrames = new ByteBuffer[SLIDES];
+        int frameBytes = mWidth * mHeight * 3 / 2;
+        for (int i = 0; i < SLIDES; i++) {
+            mDurations[i] = SLIDE_DURATION;
+            // one YUV 4:2:0 picture per slide, repeated for as long as the slide lasts
+            ByteBuffer frame = ByteBuffer.allocateDirect(frameBytes);
+            for (int p = 0; p < frameBytes; p++) {
+                frame.put((byte) (p * (i + 1)));
+            }
+            frame.flip();
+            mSlideFrames[i] = frame;
+        }
+        mOutput = ByteBuffer.allocateDirect(Math.max(64 * 1024, frameBytes / 256 + 64));
+
+        mFile = File.createTempFile("pipeline", ".mp4");
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mRaf.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long encodeSlideshow() throws IOException {
+        mChannel.truncate(0);
+        mChannel.position(0);
+        EncodeMetrics metrics = new EncodeMetrics(null);
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(mChannel);
+        writer.start(mWidth, mHeight, mEncoder.getSps(), mEncoder.getPps());
+
+        int[] endFrames = FrameTiming.computeSlideEndFrames(mDurations, FRAME_RATE);
+        int frame = 0;
+        for (int i = 0; i < SLIDES; i++) {
+            ByteBuffer picture = mSlideFrames[i];
+            for (; frame < endFrames[i]; frame++) {
+                long t = System.nanoTime();
+                metrics.frameSubmitted();
+                boolean sync = mEncoder.encode(picture, frame, mOutput);
+                long muxStart = metrics.record(EncodeMetrics.Stage.SUBMIT, t);
+                int size = mOutput.remaining();
+                writer.writeSample(mOutput,
+                        FrameTiming.computePresentationTime(frame, FRAME_RATE), sync);
+                metrics.frameEncoded(size, muxStart);
+            }
+        }
+        writer.finish();
+        return metrics.finish(true).getBytesWritten();
+    }
+}
@@ -0,0 +1,128 @@
+package com.xiao.base.imagetovedio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stands in for the MediaCodec encoder in the benchmarks: turns a raw frame into an H.264
+ * access unit, in process, so what is measured is the pipeline around the codec.
+ */
+interface StubEncoder {
+    /** Sequence parameter set, with its Annex B start code. */
+    byte[] getSps();
+
+    /** Picture parameter set, with its Annex B start code. */
+    byte[] getPps();
+
+    /**
+     * Encodes frame number frameIndex, whose pixels are in frame, into out as Annex B NAL
+     * units.  out is cleared first and flipped on return.
+     *
+     * @return true if the access unit is a sync frame
+     */
+    boolean encode(ByteBuffer frame, int frameIndex, ByteBuffer out);
+
+    /**
+     * Emits canned access units of typical sizes and ignores the pixels: costs next to
+     * nothing, so everything measured is scheduling and muxing.
+     */
+    class Synthetic implements StubEncoder {
+        private final int mGopFrames;
+        private final byte[] mKeyFrame;
+        private final byte[] mDeltaFrame;
+
+        Synthetic(int gopFrames, int keyFrameBytes, int deltaFrameBytes) {
+            mGopFrames = gopFrames;
+            mKeyFrame = slice(0x65, keyFrameBytes);
+            mDeltaFrame = slice(0x41, deltaFrameBytes);
+        }
+
+        @Override
+        public byte[] getSps() {
+            return SPS;
+        }
+
+        @Override
+        public byte[] getPps() {
+            return PPS;
+        }
+
+        @Override
+        public boolean encode(ByteBuffer frame, int frameIndex, ByteBuffer out) {
+            boolean sync = frameIndex % mGopFrames == 0;
+            out.clear();
+            out.put(sync ? mKeyFrame : mDeltaFrame);
+            out.flip();
+            return sync;
+        }
+    }
+
+    /**
+     * Reads every byte of the frame, as an encoder's analysis pass would, and writes one
+     * byte per 16x16 macroblock: the memory traffic of a real encode without its arithmetic.
+     * The frame is a YUV 4:2:0 picture whose luma plane comes first.
+     */
+    class Scanning implements StubEncoder {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mGopFrames;
+
+        Scanning(int width, int height, int gopFrames) {
+            mWidth = width;
+            mHeight = height;
+            mGopFrames = gopFrames;
+        }
+
+        @Override
+        public byte[] getSps() {
+            return SPS;
+        }
+
+        @Override
+        public byte[] getPps() {
+            return PPS;
+        }
+
+        @Override
+        public boolean encode(ByteBuffer frame, int frameIndex, ByteBuffer out) {
+            boolean sync = frameIndex % mGopFrames == 0;
+            out.clear();
+            out.putInt(1);
+            out.put((byte) (sync ? 0x65 : 0x41));
+            for (int mbY = 0; mbY < mHeight; mbY += 16) {
+                for (int mbX = 0; mbX < mWidth; mbX += 16) {
+                    int sum = 0;
+                    for (int y = mbY; y < Math.min(mbY + 16, mHeight); y++) {
+                        int row = y * mWidth;
+                        for (int x = mbX; x < Math.min(mbX + 16, mWidth); x++) {
+                            sum += frame.get(row + x) & 0xff;
+                        }
+                    }
+                    // never 0, so no start code can appear in the payload
+                    out.put((byte) (sum | 0x80));
+                }
+            }
+            int chroma = mWidth * mHeight;
+            int sum = 0;
+            for (int i = chroma; i < frame.limit(); i++) {
+                sum += frame.get(i) & 0xff;
+            }
+            out.put((byte) (sum | 0x80));
+            out.flip();
+            return sync;
+        }
+    }
+
+    byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, 0x11, 0x22};
+    byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    /** A start code and a NAL header followed by a payload free of start codes. */
+    static byte[] slice(int nalHeader, int size) {
+        byte[] nal = new byte[size];
+        nal[3] = 1;
+        nal[4] = (byte) nalHeader;
+        for (int i = 5; i < size; i++) {
+            nal[i] = (byte) (0x80 + i % 127);
+        }
+        return nal;
+    }
+}
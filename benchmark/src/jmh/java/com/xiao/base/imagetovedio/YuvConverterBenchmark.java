@@ -0,0 +1,63 @@
+package com.xiao.base.imagetovedio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 720p frame through {@link YuvConverter}, direct buffers in and out as with
+ * YuvFrameSink, by layout, input format and number of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvConverterBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Param({"NV12", "I420"})
+    public YuvConverter.Layout layout;
+
+    @Param({"RGBA_8888", "RGB_565"})
+    public YuvConverter.InputFormat inputFormat;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private YuvConverter mConverter;
+    private ByteBuffer mSrc;
+    private ByteBuffer mDst;
+    private int mRowStride;
+
+    @Setup
+    public void setUp() {
+        mConverter = new YuvConverter(WIDTH, HEIGHT, layout, threads);
+        mRowStride = WIDTH * inputFormat.bytesPerPixel;
+        byte[] pixels = new byte[mRowStride * HEIGHT];
+        new Random(42).nextBytes(pixels);
+        mSrc = ByteBuffer.allocateDirect(pixels.length);
+        mSrc.put(pixels).flip();
+        mDst = ByteBuffer.allocateDirect(mConverter.getFrameSize());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mConverter.release();
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        mConverter.convert(mSrc, inputFormat, mRowStride, mDst);
+        return mDst;
+    }
+}